@@ -0,0 +1,53 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.aksw.bibuploader.BibUpdater;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares every file post with its account counterpart through
+ * {@link BibUpdater#isSame(Post, Post)}, as a sync does for all posts present
+ * on both sides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IsSameBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private BibUpdater updater;
+
+	private List<Post<BibTex>> fileEntries;
+
+	private List<Post<BibTex>> accountEntries;
+
+	@Setup
+	public void setup() throws Exception {
+		// the same entries on both sides, every tenth one changed
+		SyncPosts posts = new SyncPosts(size, 0);
+		fileEntries = posts.fileEntries;
+		accountEntries = posts.accountEntries;
+		updater = new BibUpdater("unused.bib");
+	}
+
+	@Benchmark
+	public void isSame(Blackhole blackhole) {
+		for (int i = 0; i < fileEntries.size(); i++) {
+			blackhole.consume(updater.isSame(accountEntries.get(i), fileEntries.get(i)));
+		}
+	}
+}
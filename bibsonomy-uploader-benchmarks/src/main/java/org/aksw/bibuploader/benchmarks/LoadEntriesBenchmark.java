@@ -0,0 +1,46 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.aksw.bibuploader.BibUpdater;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parses a synthetic bibliography with {@link BibUpdater#loadEntriesFromFile()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadEntriesBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	@Param({ "1", "4" })
+	public int parseThreads;
+
+	private BibUpdater updater;
+
+	@Setup
+	public void setup() throws Exception {
+		Path file = SyntheticBibliography.write(size, 0);
+		updater = new BibUpdater(file.toString());
+		updater.setParseThreads(parseThreads);
+	}
+
+	@Benchmark
+	public List<Post<BibTex>> loadEntriesFromFile() throws Exception {
+		return updater.loadEntriesFromFile();
+	}
+}
@@ -0,0 +1,108 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.aksw.sparqlcache4j.CanonicalQuery;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+
+/**
+ * Replays a recorded query log against an unbounded cache and prints the hit
+ * rates of three keys: the text as logged, the serialized query, which the
+ * cache used before, and the {@link CanonicalQuery} key.
+ *
+ * The log holds a query per line, or a line per request holding the query as
+ * its url encoded query parameter, e.g. an access log of the endpoint. Empty
+ * lines and lines starting with # are skipped.
+ *
+ * Usage: java -cp bibsonomy-uploader-benchmarks/target/benchmarks.jar
+ * org.aksw.bibuploader.benchmarks.QueryLogHitRate querylog.txt
+ */
+public class QueryLogHitRate {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: QueryLogHitRate <query log>");
+			System.exit(1);
+		}
+
+		Set<String> texts = new HashSet<String>();
+		Set<String> serialized = new HashSet<String>();
+		Set<String> canonical = new HashSet<String>();
+		int queries = 0, unparsable = 0;
+		int textHits = 0, serializedHits = 0, canonicalHits = 0;
+		long canonicalNanos = 0;
+
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]),
+				StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String text = queryOf(line);
+				if (text == null)
+					continue;
+
+				Query query;
+				try {
+					query = QueryFactory.create(text);
+				} catch (RuntimeException e) {
+					unparsable++;
+					continue;
+				}
+				queries++;
+
+				if (!texts.add(text))
+					textHits++;
+				if (!serialized.add(query.toString()))
+					serializedHits++;
+				long start = System.nanoTime();
+				String key = CanonicalQuery.key(query);
+				canonicalNanos += System.nanoTime() - start;
+				if (!canonical.add(key))
+					canonicalHits++;
+			}
+		}
+
+		System.out.println(queries + " queries, " + unparsable + " unparsable");
+		print("logged text", textHits, texts.size(), queries);
+		print("serialized query", serializedHits, serialized.size(), queries);
+		print("canonical key", canonicalHits, canonical.size(), queries);
+		if (queries > 0)
+			System.out.println(String.format("canonical key: %.1f us per query",
+					canonicalNanos / 1000.0 / queries));
+	}
+
+	private static void print(String key, int hits, int distinct, int queries) {
+		System.out.println(String.format("%-17s %6.2f%% hits, %d distinct", key + ":",
+				queries == 0 ? 0.0 : 100.0 * hits / queries, distinct));
+	}
+
+	/**
+	 * @return the query of the line, or null if it holds none
+	 */
+	static String queryOf(String line) throws IOException {
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#"))
+			return null;
+
+		int start = line.indexOf("query=");
+		if (start < 0)
+			return line;
+		// in an access log the parameter is part of the request url
+		if (start > 0 && "?&".indexOf(line.charAt(start - 1)) < 0)
+			return line;
+		start += "query=".length();
+		int end = start;
+		while (end < line.length() && "& \"".indexOf(line.charAt(end)) < 0) {
+			end++;
+		}
+		return URLDecoder.decode(line.substring(start, end), "UTF-8");
+	}
+}
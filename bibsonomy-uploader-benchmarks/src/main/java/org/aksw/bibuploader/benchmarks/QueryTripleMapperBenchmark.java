@@ -0,0 +1,87 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.aksw.sparqlcache4j.QueryTripleMapper;
+import org.aksw.sparqlcache4j.SparqlCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+
+/**
+ * Measures the lookup {@link SparqlCache#modify} makes per update: finding the
+ * cached queries an inserted triple invalidates, with 5k, 50k and 500k
+ * registered queries. Every query has a pattern on its own subject, one in a
+ * hundred also a pattern with a variable predicate, so a triple matches about
+ * one query plus the wildcard ones of its subject.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTripleMapperBenchmark {
+
+	private static final String NS = "http://example.org/";
+
+	private static final int PREDICATES = 20;
+
+	@Param({ "5000", "50000", "500000" })
+	public int queries;
+
+	private QueryTripleMapper mapper;
+
+	private Triple[] triples;
+
+	private int next;
+
+	@Setup
+	public void setup() {
+		mapper = new QueryTripleMapper();
+		for (int i = 0; i < queries; i++) {
+			String where = "<" + NS + "s" + i + "> <" + NS + "p" + i % PREDICATES + "> ?o";
+			if (i % 100 == 0)
+				where += " . ?o ?p <" + NS + "s" + i + ">";
+			Query query = QueryFactory.create("SELECT * WHERE { " + where + " }");
+			mapper.register(query);
+		}
+
+		Random random = new Random(42);
+		triples = new Triple[1024];
+		for (int i = 0; i < triples.length; i++) {
+			int subject = random.nextInt(queries);
+			triples[i] = new Triple(Node.createURI(NS + "s" + subject),
+					Node.createURI(NS + "p" + subject % PREDICATES), Node.createLiteral("value " + i));
+		}
+	}
+
+	@Benchmark
+	public Collection<Query> findInvalidQueries() {
+		Triple triple = triples[next++ & (triples.length - 1)];
+		return mapper.findInvalidQueries(triple);
+	}
+
+	@Benchmark
+	public Collection<Query> findInvalidQueriesWithVariable() {
+		// as inserted by a template: the object is bound by the WHERE clause
+		Triple triple = triples[next++ & (triples.length - 1)];
+		return mapper.findInvalidQueries(new Triple(triple.getSubject(), triple.getPredicate(),
+				Node.createVariable("o")));
+	}
+}
@@ -0,0 +1,44 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aksw.bibuploader.BibUpdater;
+import org.aksw.bibuploader.Reconciler;
+import org.aksw.bibuploader.SyncPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Computes the intersection and exclusive sets of a sync, i.e. the
+ * {@link SyncPlan} of updateAccount, for a file and an account overlapping by
+ * half.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReconcileBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private SyncPosts posts;
+
+	private Reconciler reconciler;
+
+	@Setup
+	public void setup() throws Exception {
+		posts = new SyncPosts(size, size / 2);
+		reconciler = new Reconciler(new BibUpdater("unused.bib")::isSame);
+	}
+
+	@Benchmark
+	public SyncPlan reconcile() {
+		return reconciler.reconcile(posts.fileEntries, posts.accountEntries);
+	}
+}
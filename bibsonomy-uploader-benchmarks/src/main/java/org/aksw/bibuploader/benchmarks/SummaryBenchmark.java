@@ -0,0 +1,48 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aksw.bibuploader.Summary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Renders the {@link Summary} of a sync in which a tenth of the posts were
+ * duplicates, lacked keywords or failed to upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SummaryBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	private Summary summary;
+
+	@Setup
+	public void setup() {
+		summary = new Summary();
+		for (int i = 0; i < size; i++) {
+			if (i % 10 == 0) {
+				summary.addDuplicate("Duplicate title " + i);
+				summary.addNoTagEntry("Title without keywords " + i);
+				summary.addFailAdd("Failed title " + i);
+			} else {
+				summary.addSucAdd();
+			}
+		}
+		summary.setRemoved(size / 10);
+	}
+
+	@Benchmark
+	public String summaryToString() {
+		return summary.toString();
+	}
+}
@@ -0,0 +1,72 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.aksw.bibuploader.BibUpdater;
+import org.aksw.bibuploader.InMemoryLogic;
+import org.aksw.bibuploader.Summary;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Runs a whole {@link BibUpdater#updateAccount()} against an
+ * {@link InMemoryLogic} answering every call after a fixed latency. The
+ * account overlaps the file by 90%, and every tenth account post differs from
+ * the file, so each sync adds, updates and deletes posts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyncBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int size;
+
+	@Param({ "1", "8" })
+	public int workers;
+
+	@Param({ "20" })
+	public long latencyMillis;
+
+	private Path file;
+
+	private List<Post<BibTex>> accountEntries;
+
+	private BibUpdater updater;
+
+	@Setup(Level.Trial)
+	public void writeFiles() throws Exception {
+		file = SyntheticBibliography.write(size, 0);
+		Path account = SyntheticBibliography.write(size, size / 10);
+		accountEntries = new BibUpdater(account.toString()).loadEntriesFromFile();
+		for (int i = 0; i < accountEntries.size(); i += 10) {
+			accountEntries.get(i).setDescription("changed in the account");
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void resetAccount() {
+		InMemoryLogic account = new InMemoryLogic("benchmark");
+		account.addPosts(accountEntries);
+		account.setLatency(latencyMillis);
+		updater = new BibUpdater(account.logic(), "benchmark", file.toString());
+		updater.setWorkers(workers);
+		updater.setPrefetchPages(Math.min(workers, 4));
+	}
+
+	@Benchmark
+	public Summary updateAccount() throws Exception {
+		return updater.updateAccount();
+	}
+}
@@ -0,0 +1,30 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.aksw.bibuploader.BibUpdater;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * File and account posts for benchmarking a sync: the account holds
+ * <code>size</code> entries starting at <code>accountOffset</code> in the
+ * file numbering, and every tenth account post has a changed description.
+ */
+final class SyncPosts {
+
+	final List<Post<BibTex>> fileEntries;
+
+	final List<Post<BibTex>> accountEntries;
+
+	SyncPosts(int size, int accountOffset) throws Exception {
+		Path file = SyntheticBibliography.write(size, 0);
+		Path account = SyntheticBibliography.write(size, accountOffset);
+		fileEntries = new BibUpdater(file.toString()).loadEntriesFromFile();
+		accountEntries = new BibUpdater(account.toString()).loadEntriesFromFile();
+		for (int i = 0; i < accountEntries.size(); i += 10) {
+			accountEntries.get(i).setDescription("changed in the account");
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.aksw.bibuploader.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes reproducible bibliographies of a given size, so the benchmarks run
+ * offline and without real data.
+ */
+public final class SyntheticBibliography {
+
+	private static final String[] TYPES = { "article", "inproceedings",
+			"incollection", "techreport" };
+
+	private static final String[] NAMES = { "Auer", "Dietzold", "Lehmann",
+			"Martin", "Stadler", "Unbehauen", "Heino", "Tramp", "Ngomo", "Hellmann" };
+
+	private static final String[] WORDS = { "semantic", "web", "linked", "data",
+			"sparql", "query", "ontology", "knowledge", "graph", "federated",
+			"caching", "benchmark", "reasoning", "extraction", "interlinking" };
+
+	private SyntheticBibliography() {
+	}
+
+	/**
+	 * Writes the entries <code>firstIndex</code> to
+	 * <code>firstIndex + size - 1</code>, entry <code>i</code> is the same in
+	 * every bibliography containing it.
+	 */
+	public static Path write(int size, int firstIndex) throws IOException {
+		Path file = Files.createTempFile("synthetic-" + size + "-", ".bib");
+		file.toFile().deleteOnExit();
+		try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("@string{ lncs = \"Lecture Notes in Computer Science\" }\n\n");
+			for (int i = firstIndex; i < firstIndex + size; i++) {
+				out.write(entry(i, new Random(i)));
+			}
+		}
+		return file;
+	}
+
+	static String entry(int i, Random random) {
+		StringBuilder entry = new StringBuilder();
+		entry.append('@').append(TYPES[random.nextInt(TYPES.length)])
+				.append("{synthetic-").append(i).append(",\n");
+		entry.append("  title = {");
+		for (int w = 0; w < 6; w++) {
+			if (w > 0)
+				entry.append(' ');
+			entry.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		entry.append(' ').append(i).append("},\n");
+		entry.append("  author = {");
+		for (int a = 0, authors = 1 + random.nextInt(4); a < authors; a++) {
+			if (a > 0)
+				entry.append(" and ");
+			entry.append((char) ('A' + random.nextInt(26))).append(". ")
+					.append(NAMES[random.nextInt(NAMES.length)]);
+		}
+		entry.append("},\n");
+		entry.append("  booktitle = {Proceedings of the ").append(1 + random.nextInt(20))
+				.append("th Workshop on ").append(WORDS[random.nextInt(WORDS.length)])
+				.append("},\n");
+		entry.append("  series = lncs,\n");
+		entry.append("  pages = {").append(random.nextInt(500)).append("--")
+				.append(500 + random.nextInt(500)).append("},\n");
+		entry.append("  year = ").append(1995 + random.nextInt(30)).append(",\n");
+		entry.append("  url = {http://example.org/papers/").append(i).append(".pdf},\n");
+		entry.append("  keywords = {aksw ").append(WORDS[random.nextInt(WORDS.length)])
+				.append(' ').append(WORDS[random.nextInt(WORDS.length)]).append("}\n");
+		entry.append("}\n\n");
+		return entry.toString();
+	}
+}
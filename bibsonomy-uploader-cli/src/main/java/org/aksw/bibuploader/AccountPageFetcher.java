@@ -0,0 +1,158 @@
+package org.aksw.bibuploader;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.common.enums.GroupingEntity;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.enums.Order;
+import org.bibsonomy.model.logic.LogicInterface;
+
+/**
+ * Reads all posts of an account in pages, keeping up to a given number of page
+ * requests in flight. As the post count is not known up front, the next pages
+ * are requested speculatively; the first short or empty page ends the account
+ * and the pages requested beyond it are discarded.
+ *
+ * Pages are only requested as the posts are consumed through
+ * {@link #iterator()}, so an account of any size can be processed with the
+ * memory of a few pages, and a consumer stopping early does not download the
+ * rest.
+ */
+public class AccountPageFetcher {
+
+	// the server returns at most 1000 posts at a time
+	public static final int PAGE_SIZE = 1000;
+
+	private static Log log = LogFactory.getLog(AccountPageFetcher.class);
+
+	private final LogicInterface logic;
+
+	private final String username;
+
+	private final int prefetch;
+
+	/**
+	 * @param prefetch
+	 *            the number of page requests kept in flight, 1 requests a page
+	 *            only once the previous one is consumed
+	 */
+	public AccountPageFetcher(LogicInterface logic, String username, int prefetch) {
+		if (prefetch < 1)
+			throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+		this.logic = logic;
+		this.username = username;
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @return all posts in {@link Order#ADDED} order
+	 */
+	public List<Post<BibTex>> fetchAll() throws Exception {
+		List<Post<BibTex>> publications = new ArrayList<Post<BibTex>>();
+		try (PostIterator posts = iterator()) {
+			while (posts.hasNext()) {
+				publications.add(posts.next());
+			}
+		}
+		return publications;
+	}
+
+	/**
+	 * @return the posts in {@link Order#ADDED} order, the iterator has to be
+	 *         closed if it is not consumed to its end
+	 */
+	public PostIterator iterator() {
+		return new PostIterator();
+	}
+
+	public class PostIterator implements Iterator<Post<BibTex>>, Closeable {
+
+		private final ExecutorService executor;
+
+		private final Deque<Future<List<Post<BibTex>>>> inFlight = new ArrayDeque<Future<List<Post<BibTex>>>>();
+
+		private Iterator<Post<BibTex>> page = Collections.<Post<BibTex>> emptyList().iterator();
+
+		private int nextPage = 0;
+
+		private boolean lastPage = false;
+
+		private PostIterator() {
+			executor = prefetch > 1 ? Executors.newFixedThreadPool(prefetch, runnable -> {
+				Thread thread = new Thread(runnable, "bibuploader-fetch");
+				thread.setDaemon(true);
+				return thread;
+			}) : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext() && !lastPage) {
+				List<Post<BibTex>> posts = nextPage();
+				lastPage = posts.size() < PAGE_SIZE;
+				page = posts.iterator();
+			}
+			if (lastPage && !page.hasNext())
+				close();
+			return page.hasNext();
+		}
+
+		@Override
+		public Post<BibTex> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return page.next();
+		}
+
+		private List<Post<BibTex>> nextPage() {
+			if (executor == null)
+				return fetchPage(nextPage++ * PAGE_SIZE);
+
+			while (inFlight.size() < prefetch) {
+				final int start = nextPage++ * PAGE_SIZE;
+				inFlight.add(executor.submit(() -> fetchPage(start)));
+			}
+			try {
+				return inFlight.removeFirst().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while fetching the account", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException("Error occured:" + e.getCause().getMessage(), e.getCause());
+			}
+		}
+
+		@Override
+		public void close() {
+			if (executor == null || executor.isShutdown())
+				return;
+			if (!inFlight.isEmpty())
+				log.debug("Discarding " + inFlight.size() + " speculative page requests");
+			for (Future<?> future : inFlight) {
+				future.cancel(true);
+			}
+			inFlight.clear();
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Post<BibTex>> fetchPage(int start) {
+		return logic.getPosts(BibTex.class, GroupingEntity.USER, username, null, null, null, null, null, Order.ADDED, null, null, start, start + PAGE_SIZE);
+	}
+}
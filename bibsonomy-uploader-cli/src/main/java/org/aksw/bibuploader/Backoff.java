@@ -0,0 +1,92 @@
+package org.aksw.bibuploader;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Retries failed calls with exponential backoff: the n-th retry waits between
+ * half and all of <code>initialDelay * 2^(n-1)</code>, capped at the maximum
+ * delay. The randomness keeps concurrent workers from retrying in lockstep.
+ *
+ * Argument errors are not retried, as the same call fails again. Callers
+ * knowing which failures are transient pass them as a predicate.
+ */
+public class Backoff {
+
+	private static Log log = LogFactory.getLog(Backoff.class);
+
+	private final int retries;
+
+	private final long initialDelayMillis;
+
+	private final long maxDelayMillis;
+
+	/**
+	 * @param retries
+	 *            the number of retries after the first attempt, 0 never retries
+	 */
+	public Backoff(int retries, long initialDelayMillis, long maxDelayMillis) {
+		if (retries < 0 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis)
+			throw new IllegalArgumentException("invalid backoff: " + retries
+					+ " retries, " + initialDelayMillis + "ms to " + maxDelayMillis + "ms");
+		this.retries = retries;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @return the result of the first successful attempt
+	 * @throws Exception
+	 *             the failure of the last attempt
+	 */
+	public <T> T call(Callable<T> call) throws Exception {
+		return call(call, e -> !(e instanceof IllegalArgumentException
+				|| e instanceof UnsupportedOperationException));
+	}
+
+	/**
+	 * @param retryable
+	 *            decides whether a failure is worth another attempt, any other
+	 *            is thrown at once
+	 * @return the result of the first successful attempt
+	 * @throws Exception
+	 *             the failure of the last attempt
+	 */
+	public <T> T call(Callable<T> call, Predicate<? super Exception> retryable) throws Exception {
+		for (int attempt = 0;; attempt++) {
+			try {
+				return call.call();
+			} catch (Exception e) {
+				if (attempt >= retries || !retryable.test(e))
+					throw e;
+				long delay = delay(attempt);
+				log.warn("Call failed, retrying in " + delay + "ms (" + (attempt + 1)
+						+ "/" + retries + "): " + e.getMessage());
+				try {
+					TimeUnit.MILLISECONDS.sleep(delay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	long delay(int attempt) {
+		if (initialDelayMillis == 0)
+			return 0;
+		long delay = initialDelayMillis << Math.min(attempt, 30);
+		if (delay <= 0 || delay > maxDelayMillis)
+			delay = maxDelayMillis;
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+}
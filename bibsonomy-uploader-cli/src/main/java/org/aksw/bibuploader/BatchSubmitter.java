@@ -0,0 +1,299 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.common.enums.PostUpdateOperation;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.Resource;
+import org.bibsonomy.model.logic.LogicInterface;
+
+/**
+ * Sends creates, updates and deletes to the {@link LogicInterface} in chunks
+ * of a configurable size, so a sync costs one round trip per chunk instead of
+ * one per post.
+ *
+ * If the server rejects a whole chunk, the chunk is resubmitted post by post,
+ * so only the offending posts are reported as failed.
+ *
+ * Chunks run on the calling thread unless an executor is set, in which case
+ * they are sent concurrently and the listener is called from the executor's
+ * threads. An optional {@link TokenBucket} limits the rate of server calls,
+ * and an optional {@link Backoff} retries calls which failed in transport.
+ * A rejection by the server is not retried, as the same posts are rejected
+ * again. If the retries of a chunk are used up, all its posts fail.
+ */
+public class BatchSubmitter {
+
+	public static final int DEFAULT_BATCH_SIZE = 50;
+
+	private static Log log = LogFactory.getLog(BatchSubmitter.class);
+
+	private final LogicInterface logic;
+
+	private final String username;
+
+	private final int batchSize;
+
+	private ExecutorService executor;
+
+	private TokenBucket rateLimit;
+
+	private Backoff retry;
+
+	public BatchSubmitter(LogicInterface logic, String username, int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batch size must be positive: "
+					+ batchSize);
+		this.logic = logic;
+		this.username = username;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param executor
+	 *            runs the chunks concurrently, or null to run them on the
+	 *            calling thread
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param rateLimit
+	 *            taken from before every server call, or null for no limit
+	 */
+	public void setRateLimit(TokenBucket rateLimit) {
+		this.rateLimit = rateLimit;
+	}
+
+	/**
+	 * @param retry
+	 *            retries server calls failing in transport, or null to give up
+	 *            at once
+	 */
+	public void setRetry(Backoff retry) {
+		this.retry = retry;
+	}
+
+	public void createPosts(List<Post<BibTex>> posts, SubmitListener listener) {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (List<Post<BibTex>> chunk : chunks(posts)) {
+			tasks.add(() -> createChunk(chunk, listener));
+		}
+		runAll(tasks);
+	}
+
+	public void updatePosts(List<Post<BibTex>> posts, SubmitListener listener) {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (List<Post<BibTex>> chunk : chunks(posts)) {
+			tasks.add(() -> updateChunk(chunk, listener));
+		}
+		runAll(tasks);
+	}
+
+	public void deletePosts(List<String> intraHashes) {
+		deletePosts(intraHashes, chunk -> {
+		});
+	}
+
+	/**
+	 * @param deleted
+	 *            called with each chunk of hashes once it is deleted
+	 */
+	public void deletePosts(List<String> intraHashes, Consumer<List<String>> deleted) {
+		deletePosts(intraHashes, deleted, (chunk, e) -> {
+			if (e instanceof RuntimeException)
+				throw (RuntimeException) e;
+			throw new RuntimeException("Error occured:" + e.getMessage(), e);
+		});
+	}
+
+	/**
+	 * @param failed
+	 *            called with each chunk of hashes which could not be deleted,
+	 *            instead of failing the whole call
+	 */
+	public void deletePosts(List<String> intraHashes, Consumer<List<String>> deleted,
+			BiConsumer<List<String>, Exception> failed) {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (List<String> chunk : chunks(intraHashes)) {
+			tasks.add(() -> {
+				try {
+					send(() -> {
+						logic.deletePosts(username, chunk);
+						return null;
+					});
+				} catch (Exception e) {
+					failed.accept(chunk, e);
+					return;
+				}
+				deleted.accept(chunk);
+			});
+		}
+		runAll(tasks);
+	}
+
+	/**
+	 * Runs the tasks and waits for all of them, rethrowing the first failure.
+	 */
+	private void runAll(List<Runnable> tasks) {
+		if (executor == null) {
+			for (Runnable task : tasks) {
+				task.run();
+			}
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (Runnable task : tasks) {
+			futures.add(executor.submit(task));
+		}
+		RuntimeException failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for writes", e);
+			} catch (ExecutionException e) {
+				if (failure == null)
+					failure = new RuntimeException("Error occured:"
+							+ e.getCause().getMessage(), e.getCause());
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	private void throttle() {
+		if (rateLimit == null)
+			return;
+		try {
+			rateLimit.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the rate limit", e);
+		}
+	}
+
+	/**
+	 * Makes a server call, honouring the rate limit on every attempt.
+	 */
+	private <T> T send(Callable<T> call) throws Exception {
+		if (retry == null) {
+			throttle();
+			return call.call();
+		}
+		return retry.call(() -> {
+			throttle();
+			return call.call();
+		}, BatchSubmitter::isTransportError);
+	}
+
+	/**
+	 * @return whether the call failed on its way to or from the server, e.g.
+	 *         a refused or reset connection, rather than being rejected by it
+	 */
+	static boolean isTransportError(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A chunk failing in transport fails as a whole, sending its posts one by
+	 * one would only fail the same way.
+	 */
+	private static void failAll(List<Post<BibTex>> chunk, Exception cause,
+			SubmitListener listener) {
+		for (Post<BibTex> post : chunk) {
+			listener.failed(post, cause);
+		}
+	}
+
+	void createChunk(List<Post<BibTex>> chunk, SubmitListener listener) {
+		List<String> created;
+		try {
+			created = send(() -> logic.createPosts(asResourcePosts(chunk)));
+		} catch (Exception e) {
+			if (chunk.size() == 1 || isTransportError(e)) {
+				failAll(chunk, e, listener);
+			} else {
+				log.warn("Creating " + chunk.size()
+						+ " posts was rejected, sending them one by one", e);
+				for (Post<BibTex> post : chunk) {
+					createChunk(Collections.singletonList(post), listener);
+				}
+			}
+			return;
+		}
+		report(chunk, created, listener);
+	}
+
+	void updateChunk(List<Post<BibTex>> chunk, SubmitListener listener) {
+		List<String> updated;
+		try {
+			updated = send(() -> logic.updatePosts(asResourcePosts(chunk),
+					PostUpdateOperation.UPDATE_ALL));
+		} catch (Exception e) {
+			if (chunk.size() == 1 || isTransportError(e)) {
+				failAll(chunk, e, listener);
+			} else {
+				log.warn("Updating " + chunk.size()
+						+ " posts was rejected, sending them one by one", e);
+				for (Post<BibTex> post : chunk) {
+					updateChunk(Collections.singletonList(post), listener);
+				}
+			}
+			return;
+		}
+		report(chunk, updated, listener);
+	}
+
+	/**
+	 * The server answers with the hashes of the posts it accepted, so a post
+	 * whose intraHash is missing from the answer was rejected. The number of
+	 * hashes alone says nothing, the answer may repeat a hash.
+	 */
+	private void report(List<Post<BibTex>> chunk, List<String> hashes,
+			SubmitListener listener) {
+		Set<String> accepted = hashes == null ? Collections.<String> emptySet()
+				: new HashSet<String>(hashes);
+		for (Post<BibTex> post : chunk) {
+			if (accepted.contains(post.getResource().getIntraHash())) {
+				listener.succeeded(post);
+			} else {
+				listener.failed(post, null);
+			}
+		}
+	}
+
+	<T> List<List<T>> chunks(List<T> list) {
+		List<List<T>> chunks = new ArrayList<List<T>>();
+		for (int from = 0; from < list.size(); from += batchSize) {
+			chunks.add(list.subList(from, Math.min(from + batchSize, list.size())));
+		}
+		return chunks;
+	}
+
+	private static List<Post<? extends Resource>> asResourcePosts(
+			List<Post<BibTex>> posts) {
+		return new ArrayList<Post<? extends Resource>>(posts);
+	}
+}
@@ -0,0 +1,177 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bibsonomy.bibtex.parser.PostBibTeXParser;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Parses the entries of a BibTeX file one at a time, giving the same posts as
+ * a parse of the whole file. Each entry is parsed together with its context:
+ * the <code>@preamble</code>s, the <code>@string</code> definitions its values
+ * use, directly or through other definitions, and the entry named in its
+ * crossref field, whose post is dropped again.
+ *
+ * The definitions have to be handed to {@link #define(BibTeXEntryReader.Entry)}
+ * in file order, as they are indexed by name once instead of being parsed
+ * with every entry. A cross referenced entry usually follows the entries
+ * referring to it, so its text has to be known beforehand, see
+ * {@link #forFile(Path)}.
+ *
+ * The hashes of the returned posts are already recalculated. Once the
+ * contexts are taken, entries may be parsed concurrently.
+ */
+public class BibTeXEntryParser {
+
+	private static final ThreadLocal<PostBibTeXParser> PARSER = new ThreadLocal<PostBibTeXParser>() {
+		@Override
+		protected PostBibTeXParser initialValue() {
+			return new PostBibTeXParser();
+		}
+	};
+
+	// the text of the cross referenced entries by their lower case key
+	private final Map<String, String> crossrefs;
+
+	private final List<String> definitions = new ArrayList<String>();
+
+	private final List<Integer> preambles = new ArrayList<Integer>();
+
+	// the definitions a macro needs by its lower case name, as indexes into definitions
+	private final Map<String, Set<Integer>> strings = new HashMap<String, Set<Integer>>();
+
+	/**
+	 * @param crossrefs
+	 *            the text of every cross referenced entry by its lower case
+	 *            key; an entry referring to another one not given here is
+	 *            parsed on its own
+	 */
+	public BibTeXEntryParser(Map<String, String> crossrefs) {
+		this.crossrefs = crossrefs;
+	}
+
+	public BibTeXEntryParser() {
+		this(Collections.<String, String> emptyMap());
+	}
+
+	/**
+	 * @return a parser knowing the cross referenced entries of the file, which
+	 *         is read ahead for them; only their text is held in memory
+	 */
+	public static BibTeXEntryParser forFile(Path file) throws IOException {
+		Set<String> referenced = new HashSet<String>();
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(file)) {
+			BibTeXEntryReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (!entry.isDefinition() && !entry.isComment() && entry.getCrossref() != null)
+					referenced.add(entry.getCrossref());
+			}
+		}
+		if (referenced.isEmpty())
+			return new BibTeXEntryParser();
+
+		Map<String, String> crossrefs = new HashMap<String, String>();
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(file)) {
+			BibTeXEntryReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (!entry.isDefinition() && !entry.isComment() && referenced.contains(entry.getKey()))
+					crossrefs.putIfAbsent(entry.getKey(), entry.getText());
+			}
+		}
+		return new BibTeXEntryParser(crossrefs);
+	}
+
+	/**
+	 * Puts a <code>@string</code> or <code>@preamble</code> in scope for the
+	 * following entries.
+	 */
+	public void define(BibTeXEntryReader.Entry definition) {
+		int index = definitions.size();
+		definitions.add(definition.getText());
+		if (!"string".equals(definition.getType()) || definition.getKey() == null) {
+			preambles.add(index);
+			return;
+		}
+		Set<Integer> needed = new TreeSet<Integer>();
+		addDefinitions(definition.getMacros(), needed);
+		needed.add(index);
+		strings.put(definition.getKey(), needed);
+	}
+
+	/**
+	 * @return the text the entry is parsed with in front of it, computed from
+	 *         the definitions in scope at its position
+	 */
+	public String context(BibTeXEntryReader.Entry entry) {
+		Set<Integer> needed = new TreeSet<Integer>(preambles);
+		addDefinitions(entry.getMacros(), needed);
+		String crossref = crossrefText(entry);
+		if (crossref != null)
+			addDefinitions(new BibTeXEntryReader.Entry("crossref", crossref, entry.getLine()).getMacros(),
+					needed);
+
+		StringBuilder context = new StringBuilder();
+		for (int index : needed) {
+			context.append(definitions.get(index)).append('\n');
+		}
+		if (crossref != null)
+			context.append(crossref).append('\n');
+		return context.toString();
+	}
+
+	public List<Post<BibTex>> parse(BibTeXEntryReader.Entry entry) {
+		return parse(entry, context(entry));
+	}
+
+	/**
+	 * @param context
+	 *            as computed by {@link #context(BibTeXEntryReader.Entry)}
+	 */
+	public List<Post<BibTex>> parse(BibTeXEntryReader.Entry entry, String context) {
+		List<Post<BibTex>> posts;
+		try {
+			posts = PARSER.get().parseBibTeXPosts(context + entry.getText());
+		} catch (Exception e) {
+			throw new RuntimeException("Error occured in the entry at line "
+					+ entry.getLine() + ": " + e.getMessage(), e);
+		}
+		if (crossrefText(entry) != null) {
+			// the cross referenced entry is a post of its own
+			for (Iterator<Post<BibTex>> i = posts.iterator(); i.hasNext();) {
+				if (entry.getCrossref().equalsIgnoreCase(i.next().getResource().getBibtexKey()))
+					i.remove();
+			}
+		}
+		for (Post<BibTex> post : posts) {
+			post.getResource().recalculateHashes();
+		}
+		return posts;
+	}
+
+	private String crossrefText(BibTeXEntryReader.Entry entry) {
+		String key = entry.getCrossref();
+		if (key == null || key.equals(entry.getKey()))
+			return null;
+		return crossrefs.get(key);
+	}
+
+	private void addDefinitions(Set<String> macros, Set<Integer> needed) {
+		for (String macro : macros) {
+			Set<Integer> definition = strings.get(macro);
+			// others are undefined or predefined like the month names
+			if (definition != null)
+				needed.addAll(definition);
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package org.aksw.bibuploader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits a BibTeX file into its top-level <code>@type{...}</code> or
+ * <code>@type(...)</code> entries without reading the whole file into memory.
+ * Text between entries is treated as a comment and dropped, as BibTeX does.
+ */
+public class BibTeXEntryReader implements Closeable {
+
+	/**
+	 * The raw text of a single top-level entry.
+	 */
+	public static class Entry {
+
+		private final String type;
+
+		private final String text;
+
+		private final int line;
+
+		// scanned on demand, null until then
+		private Set<String> macros;
+
+		private String key;
+
+		private String crossref;
+
+		Entry(String type, String text, int line) {
+			this.type = type;
+			this.text = text;
+			this.line = line;
+		}
+
+		/**
+		 * @return the lower case entry type, e.g. "article" or "string"
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return the entry text, starting with the '@'
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return the line the entry starts at, counted from 1
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return true for <code>@string</code> and <code>@preamble</code>,
+		 *         which have to stay in scope for all following entries
+		 */
+		public boolean isDefinition() {
+			return "string".equals(type) || "preamble".equals(type);
+		}
+
+		public boolean isComment() {
+			return "comment".equals(type);
+		}
+
+		/**
+		 * @return the citation key of an entry, or the name a
+		 *         <code>@string</code> defines, both in lower case, or null
+		 */
+		public String getKey() {
+			scan();
+			return key;
+		}
+
+		/**
+		 * @return the lower case key of the entry given in its crossref
+		 *         field, or null
+		 */
+		public String getCrossref() {
+			scan();
+			return crossref;
+		}
+
+		/**
+		 * @return the lower case names of the <code>@string</code> macros the
+		 *         values of the entry use
+		 */
+		public Set<String> getMacros() {
+			scan();
+			return macros;
+		}
+
+		/**
+		 * Reads the key and the fields of the text. Malformed text ends the
+		 * scan, the parser reports it.
+		 */
+		private void scan() {
+			if (macros != null)
+				return;
+			macros = new HashSet<String>();
+			int i = 1;
+			while (i < text.length() && text.charAt(i) != '{' && text.charAt(i) != '(') {
+				i++;
+			}
+			i++;
+			if (!isDefinition()) {
+				int end = i;
+				while (end < text.length() && text.charAt(end) != ',' && end < text.length() - 1) {
+					end++;
+				}
+				key = lowerCase(text.substring(Math.min(i, end), end).trim());
+				if (key.isEmpty())
+					key = null;
+				i = end;
+			}
+
+			while (i < text.length() - 1) {
+				char c = text.charAt(i);
+				if (c == ',' || Character.isWhitespace(c)) {
+					i++;
+					continue;
+				}
+				int start = i;
+				while (i < text.length() && isNameChar(text.charAt(i))) {
+					i++;
+				}
+				String name = lowerCase(text.substring(start, i));
+				i = skipWhitespace(i);
+				if (name.isEmpty() || i >= text.length() || text.charAt(i) != '=') {
+					// a preamble holds a bare value
+					if (!"preamble".equals(type))
+						return;
+					i = start;
+				} else {
+					i++;
+				}
+				if ("string".equals(type) && key == null)
+					key = name;
+
+				// the parts of the value, joined by #
+				while (true) {
+					i = skipWhitespace(i);
+					if (i >= text.length())
+						return;
+					c = text.charAt(i);
+					int end;
+					if (c == '{') {
+						end = skipBraces(i);
+					} else if (c == '"') {
+						end = skipQuoted(i);
+					} else if (isNameChar(c)) {
+						end = i;
+						while (end < text.length() && isNameChar(text.charAt(end))) {
+							end++;
+						}
+						String word = text.substring(i, end);
+						if (!Character.isDigit(c))
+							macros.add(lowerCase(word));
+					} else {
+						return;
+					}
+					if ("crossref".equals(name))
+						crossref = lowerCase(text.substring(c == '{' || c == '"' ? i + 1 : i,
+								c == '{' || c == '"' ? end - 1 : end).trim());
+					i = skipWhitespace(end);
+					if (i < text.length() && text.charAt(i) == '#') {
+						i++;
+					} else {
+						break;
+					}
+				}
+			}
+		}
+
+		private int skipWhitespace(int i) {
+			while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * @return the index after the braces opening at the given index
+		 */
+		private int skipBraces(int i) {
+			int depth = 0;
+			for (; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '{') {
+					depth++;
+				} else if (c == '}' && --depth == 0) {
+					return i + 1;
+				}
+			}
+			return text.length();
+		}
+
+		/**
+		 * @return the index after the quoted value starting at the given index
+		 */
+		private int skipQuoted(int i) {
+			int depth = 0;
+			for (i++; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '{') {
+					depth++;
+				} else if (c == '}') {
+					depth--;
+				} else if (c == '"' && depth == 0) {
+					return i + 1;
+				}
+			}
+			return text.length();
+		}
+
+		private static boolean isNameChar(char c) {
+			return Character.isLetterOrDigit(c) || "_-:.+/'".indexOf(c) >= 0;
+		}
+
+		private static String lowerCase(String s) {
+			return s.toLowerCase(Locale.ENGLISH);
+		}
+	}
+
+	private static final int EOF = -1;
+
+	private final Reader reader;
+
+	private int line = 1;
+
+	// a character read ahead by readType, or -2 if there is none
+	private int pushedBack = -2;
+
+	public BibTeXEntryReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? reader
+				: new BufferedReader(reader);
+	}
+
+	public BibTeXEntryReader(Path file) throws IOException {
+		this(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the next entry, or null at the end of the input
+	 */
+	public Entry next() throws IOException {
+		int c;
+		while ((c = read()) != EOF) {
+			if (c != '@')
+				continue;
+
+			int startLine = line;
+			StringBuilder text = new StringBuilder("@");
+			String type = readType(text);
+			int open = read();
+			while (open != EOF && Character.isWhitespace(open)) {
+				text.append((char) open);
+				open = read();
+			}
+			if (open != '{' && open != '(') {
+				// a stray '@' in the comment text between entries
+				pushedBack = open;
+				continue;
+			}
+			text.append((char) open);
+			readBody(text, open == '{' ? '}' : ')');
+			return new Entry(type.toLowerCase(Locale.ENGLISH), text.toString(),
+					startLine);
+		}
+		return null;
+	}
+
+	private String readType(StringBuilder text) throws IOException {
+		StringBuilder type = new StringBuilder();
+		int c;
+		while ((c = read()) != EOF && Character.isLetterOrDigit(c)) {
+			type.append((char) c);
+		}
+		text.append(type);
+		pushedBack = c;
+		return type.toString();
+	}
+
+	/**
+	 * Reads up to and including the closing delimiter. Braces are balanced
+	 * everywhere; the closing delimiter only counts outside of braces and
+	 * quoted values.
+	 */
+	private void readBody(StringBuilder text, char close) throws IOException {
+		int depth = 0;
+		boolean quoted = false;
+		int c;
+		while ((c = read()) != EOF) {
+			text.append((char) c);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}' && depth > 0) {
+				depth--;
+			} else if (c == '"' && depth == 0) {
+				quoted = !quoted;
+			} else if (c == close && depth == 0 && !quoted) {
+				return;
+			}
+		}
+	}
+
+	private int read() throws IOException {
+		int c;
+		if (pushedBack != -2) {
+			c = pushedBack;
+			pushedBack = -2;
+			return c;
+		}
+		c = reader.read();
+		if (c == '\n')
+			line++;
+		return c;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,113 @@
+package org.aksw.bibuploader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Parses the entries of a {@link BibTeXEntryReader} one at a time, so only a
+ * single entry, the <code>@string</code>/<code>@preamble</code> definitions
+ * seen so far and the text of cross referenced entries are held in memory.
+ * Every entry is parsed with the context a {@link BibTeXEntryParser} gives
+ * it, so the posts are the same as those of a parse of the whole file.
+ *
+ * The hashes of the returned posts are already recalculated. With a
+ * {@link ParseCache} set, entries found in it are not parsed again.
+ */
+public class BibTeXPostIterator implements Iterator<Post<BibTex>>, Closeable {
+
+	private final BibTeXEntryReader reader;
+
+	private final BibTeXEntryParser parser;
+
+	private final LinkedList<Post<BibTex>> pending = new LinkedList<Post<BibTex>>();
+
+	private boolean exhausted = false;
+
+	private ParseCache cache;
+
+	/**
+	 * Resolves the cross references of the whole file, which is read ahead
+	 * for them.
+	 */
+	public BibTeXPostIterator(Path file) throws IOException {
+		this(new BibTeXEntryReader(file), BibTeXEntryParser.forFile(file));
+	}
+
+	/**
+	 * @param parser
+	 *            parses the entries, it must not have seen definitions yet
+	 */
+	public BibTeXPostIterator(BibTeXEntryReader reader, BibTeXEntryParser parser) {
+		this.reader = reader;
+		this.parser = parser;
+	}
+
+	/**
+	 * Resolves cross references only to entries within the same entry text.
+	 */
+	public BibTeXPostIterator(BibTeXEntryReader reader) {
+		this(reader, new BibTeXEntryParser());
+	}
+
+	/**
+	 * @param cache
+	 *            takes the posts of unchanged entries from, and records the
+	 *            parsed ones in, the cache; null parses every entry
+	 */
+	public void setCache(ParseCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (pending.isEmpty() && !exhausted) {
+			try {
+				BibTeXEntryReader.Entry entry = reader.next();
+				if (entry == null) {
+					exhausted = true;
+				} else if (entry.isDefinition()) {
+					parser.define(entry);
+				} else if (!entry.isComment()) {
+					pending.addAll(parse(entry));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Error occured:" + e.getMessage(), e);
+			}
+		}
+		return !pending.isEmpty();
+	}
+
+	@Override
+	public Post<BibTex> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return pending.removeFirst();
+	}
+
+	private List<Post<BibTex>> parse(BibTeXEntryReader.Entry entry) {
+		if (cache == null)
+			return parser.parse(entry);
+
+		String context = parser.context(entry);
+		String key = ParseCache.key(ParseCache.scope(context), entry.getText());
+		List<Post<BibTex>> posts = cache.get(key);
+		if (posts == null) {
+			posts = parser.parse(entry, context);
+			cache.put(key, posts);
+		}
+		return posts;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
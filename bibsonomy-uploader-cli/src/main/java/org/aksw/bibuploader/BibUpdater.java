@@ -1,11 +1,8 @@
 package org.aksw.bibuploader;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.bibsonomy.bibtex.parser.PostBibTeXParser;
 import org.bibsonomy.common.enums.GroupingEntity;
-import org.bibsonomy.common.enums.PostUpdateOperation;
 import org.bibsonomy.model.BibTex;
 import org.bibsonomy.model.Post;
 import org.bibsonomy.model.Resource;
@@ -15,24 +12,27 @@ import org.bibsonomy.model.enums.Order;
 import org.bibsonomy.model.logic.LogicInterface;
 import org.bibsonomy.rest.client.RestLogicFactory;
 import org.bibsonomy.util.StringUtils;
-import org.javers.core.Javers;
-import org.javers.core.JaversBuilder;
-import org.javers.core.diff.Change;
-import org.javers.core.diff.Diff;
-import org.javers.core.diff.changetype.ObjectRemoved;
-import org.javers.core.diff.changetype.PropertyChange;
-import org.javers.core.diff.changetype.ReferenceChange;
-import org.javers.core.diff.changetype.ValueChange;
-import org.javers.core.diff.changetype.container.SetChange;
-
-import java.io.FileInputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BibUpdater {
 
@@ -42,6 +42,32 @@ public class BibUpdater {
 
 	private String fileLocation;
 
+	private int batchSize = BatchSubmitter.DEFAULT_BATCH_SIZE;
+
+	private int workers = 1;
+
+	private double rateLimit = 0;
+
+	private int parseThreads = 1;
+
+	private boolean parseCache = false;
+
+	private boolean syncState = false;
+
+	private long fullFetchInterval = TimeUnit.HOURS.toMillis(24);
+
+	private int prefetchPages = 1;
+
+	private boolean journal = false;
+
+	private int retries = 3;
+
+	private Path metricsJson;
+
+	private Path metricsPrometheus;
+
+	private final PostComparator comparator = new PostComparator();
+
 	private static Log log = LogFactory.getLog(BibUpdater.class);
 
 	public BibUpdater(String username, String apikey, String apiurl,
@@ -50,11 +76,33 @@ public class BibUpdater {
 		this.username = username;
 		this.fileLocation = fileLocation;
 
-		final RestLogicFactory rlf = new RestLogicFactory();
+		final RestLogicFactory rlf = newLogicFactory(apiurl);
 		logic = rlf.getLogicAccess(username, apikey);
 
 	}
 
+	/**
+	 * @return a factory for the given API url, or for bibsonomy.org if it is
+	 *         empty
+	 */
+	static RestLogicFactory newLogicFactory(String apiurl) {
+		if (apiurl == null || apiurl.isEmpty())
+			return new RestLogicFactory();
+		return new RestLogicFactory(apiurl);
+	}
+
+	/**
+	 * Syncs through the given logic, e.g. an {@link InMemoryLogic} when no
+	 * server should be involved.
+	 */
+	public BibUpdater(LogicInterface logic, String username,
+			String fileLocation) {
+		log.debug("Creating a new BibUpdater.");
+		this.username = username;
+		this.fileLocation = fileLocation;
+		this.logic = logic;
+	}
+
 	public BibUpdater(String fileLocation) {
 
 		log.debug("Creating a new BibChecker.");
@@ -64,7 +112,25 @@ public class BibUpdater {
 
 	public static void main(String[] args) {
 
-		if (args.length == 1) {
+		Map<String, String> options = new HashMap<String, String>();
+		args = parseOptions(args, options);
+
+		if (options.containsKey("accounts")) {
+
+			try {
+
+				syncAccounts(options);
+
+			} catch (InterruptedException e) {
+
+				log.info("Stopped");
+
+			} catch (Exception e) {
+
+				log.error("Error occured:", e);
+			}
+
+		} else if (args.length == 1) {
 
 			try {
 
@@ -79,7 +145,12 @@ public class BibUpdater {
 
 		} else if (args.length != 4) {
 
-			log.error("call with parameters: username apikey apiurl file");
+			log.error("call with parameters: [options] username apikey apiurl file\n"
+					+ "       or: [options] --accounts=FILE [--concurrency=N] [--interval-minutes=N]\n"
+					+ "options: --batch-size=N --workers=N --rate-limit=CALLS_PER_SECOND --parse-threads=N --parse-cache\n"
+					+ "         --sync-state --full-fetch-hours=N --prefetch-pages=N\n"
+					+ "         --journal --retries=N --metrics-json=FILE --metrics-prom=FILE\n"
+					+ "         --watch --debounce-ms=N");
 
 		} else {
 
@@ -87,9 +158,16 @@ public class BibUpdater {
 
 				BibUpdater update = new BibUpdater(args[0], args[1], args[2],
 						args[3]);
+				update.configure(options);
 				// update.diffUpdate();
 				// update.flushNpush();
-				update.updateAccount();
+				if (Boolean.parseBoolean(options.get("watch"))) {
+					long debounce = options.containsKey("debounce-ms") ? Long.parseLong(options.get("debounce-ms"))
+							: BibWatcher.DEFAULT_DEBOUNCE_MILLIS;
+					new BibWatcher(update, Paths.get(args[3]), debounce).run();
+				} else {
+					update.updateAccount();
+				}
 
 			} catch (Exception e) {
 
@@ -100,6 +178,71 @@ public class BibUpdater {
 
 	}
 	
+	/**
+	 * Syncs the accounts listed in the --accounts file, once or every
+	 * --interval-minutes.
+	 */
+	private static void syncAccounts(Map<String, String> options) throws Exception {
+		List<MultiAccountSync.Account> accounts = MultiAccountSync.readConfig(Paths.get(options.get("accounts")));
+		int concurrency = options.containsKey("concurrency") ? Integer.parseInt(options.get("concurrency")) : 4;
+		MultiAccountSync sync = new MultiAccountSync(accounts, options, concurrency);
+		if (options.containsKey("interval-minutes"))
+			sync.run(TimeUnit.MINUTES.toMillis(Long.parseLong(options.get("interval-minutes"))));
+		else
+			sync.syncAll();
+	}
+
+	/**
+	 * Moves all --name=value arguments into the options map.
+	 * 
+	 * @return the remaining positional arguments
+	 */
+	static String[] parseOptions(String[] args, Map<String, String> options) {
+		List<String> params = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				int eq = arg.indexOf('=');
+				if (eq < 0)
+					options.put(arg.substring(2), "true");
+				else
+					options.put(arg.substring(2, eq), arg.substring(eq + 1));
+			} else {
+				params.add(arg);
+			}
+		}
+		return params.toArray(new String[params.size()]);
+	}
+
+	/**
+	 * Applies the command line options understood by a sync.
+	 */
+	public void configure(Map<String, String> options) {
+		if (options.containsKey("batch-size"))
+			setBatchSize(Integer.parseInt(options.get("batch-size")));
+		if (options.containsKey("workers"))
+			setWorkers(Integer.parseInt(options.get("workers")));
+		if (options.containsKey("rate-limit"))
+			setRateLimit(Double.parseDouble(options.get("rate-limit")));
+		if (options.containsKey("parse-threads"))
+			setParseThreads(Integer.parseInt(options.get("parse-threads")));
+		if (options.containsKey("parse-cache"))
+			setParseCache(Boolean.parseBoolean(options.get("parse-cache")));
+		if (options.containsKey("sync-state"))
+			setSyncState(Boolean.parseBoolean(options.get("sync-state")));
+		if (options.containsKey("prefetch-pages"))
+			setPrefetchPages(Integer.parseInt(options.get("prefetch-pages")));
+		if (options.containsKey("full-fetch-hours"))
+			setFullFetchInterval(TimeUnit.HOURS.toMillis(Long.parseLong(options.get("full-fetch-hours"))));
+		if (options.containsKey("journal"))
+			setJournal(Boolean.parseBoolean(options.get("journal")));
+		if (options.containsKey("retries"))
+			setRetries(Integer.parseInt(options.get("retries")));
+		if (options.containsKey("metrics-json"))
+			setMetricsJson(Paths.get(options.get("metrics-json")));
+		if (options.containsKey("metrics-prom"))
+			setMetricsPrometheus(Paths.get(options.get("metrics-prom")));
+	}
+	
 	public void deleteEntry(Post<BibTex> post) throws Exception{
 		String intraHash = post.getResource().getIntraHash();
 		logic.deletePosts(username, Collections.<String>singletonList(intraHash));
@@ -109,13 +252,13 @@ public class BibUpdater {
 		// load entries
 		List<Post<BibTex>> fileEntries = loadEntriesFromFile();
 
-		// get all previously posted entries
-		List<Post<BibTex>> accountEntries = loadEntriesFromAccount();
-
-		// and delete them
-		for (Post<BibTex> post : accountEntries) {
-			deleteEntry(post);
-			log.info(post.getResource().getTitle() + " deleted");
+		// get all previously posted entries and delete them
+		try (Stream<Post<BibTex>> accountEntries = streamEntriesFromAccount()) {
+			// collected first, deleting while paging would shift the pages
+			for (Post<BibTex> post : accountEntries.collect(Collectors.toList())) {
+				deleteEntry(post);
+				log.info(post.getResource().getTitle() + " deleted");
+			}
 		}
 
 		// upload them
@@ -128,52 +271,98 @@ public class BibUpdater {
 
 	public List<Post<BibTex>> loadEntriesFromFile() throws Exception {
 
-		String bibtexString = IOUtils.toString(new FileInputStream(
-				this.fileLocation), "UTF-8");
-
-		PostBibTeXParser parser = new PostBibTeXParser();
+		if (parseCache) {
+			ParseCache cache = ParseCache.load(getParseCachePath());
+			List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+			try (BibTeXPostIterator iterator = new BibTeXPostIterator(Paths.get(this.fileLocation))) {
+				iterator.setCache(cache);
+				while (iterator.hasNext()) {
+					posts.add(iterator.next());
+				}
+			}
+			log.info("Parsed " + cache.getMisses() + " entries, " + cache.getHits() + " were cached");
+			// before the posts are prepared for upload
+			cache.save();
+			return posts;
+		}
 
-		List<Post<BibTex>> posts = parser.parseBibTeXPosts(bibtexString);
+		if (parseThreads > 1)
+			return new ParallelBibTeXLoader(parseThreads).load(Paths.get(this.fileLocation));
 
-		for (Post<BibTex> post : posts) {
-			post.getResource().recalculateHashes();
+		try (Stream<Post<BibTex>> posts = streamEntriesFromFile()) {
+			return posts.collect(Collectors.toCollection(ArrayList::new));
 		}
 
-		return posts;
+	}
+
+	/**
+	 * Parses the file entry by entry while the stream is consumed, the stream
+	 * has to be closed to release the file.
+	 */
+	public Stream<Post<BibTex>> streamEntriesFromFile() throws IOException {
+
+		BibTeXPostIterator posts = new BibTeXPostIterator(Paths.get(this.fileLocation));
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(posts,
+				Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+			try {
+				posts.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
 
 	}
 
+	/**
+	 * Loads only the first 1000 posts, see {@link #streamEntriesFromAccount()}
+	 * for the whole account.
+	 */
 	public List<Post<BibTex>> loadEntriesFromAccount() throws Exception {
 
 		List<Post<BibTex>> publications = logic.getPosts(BibTex.class, GroupingEntity.USER, username, null, null, null, null, null, Order.ADDED, null, null, 0, 1000);
+		if (publications.size() == AccountPageFetcher.PAGE_SIZE)
+			log.warn("Only the first " + publications.size() + " posts of the account were loaded");
 		return publications;
 
 	}
 
+	/**
+	 * Pages through the account while the stream is consumed, the stream has
+	 * to be closed if it is not consumed to its end.
+	 */
+	public Stream<Post<BibTex>> streamEntriesFromAccount() {
+
+		AccountPageFetcher.PostIterator posts = new AccountPageFetcher(logic, username, prefetchPages).iterator();
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(posts,
+				Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(posts::close);
+
+	}
+
 	public List<String> uploadEntry(Post<BibTex> entry) {
 
+		prepareUpload(entry);
+		
+		return logic.createPosts(Collections.<Post<? extends Resource>>singletonList(entry));
+		
+	}
+
+	private void prepareUpload(Post<BibTex> entry) {
 		entry.setUser(new User(this.username));
 		
 		if(entry.getTags()==null||entry.getTags().isEmpty()){
 			entry.addTag("nokeyword");
 			log.warn("Please add keywords for entry: " +  entry.getResource().getTitle());
 		}
-		
-		return logic.createPosts(Collections.<Post<? extends Resource>>singletonList(entry));
-		
 	}
 
 	public void diffUpdate() throws Exception {
 
-		// get all previously posted entries
-
-		List<Post<BibTex>> accountEntries = loadEntriesFromAccount();
-
-		// store the hashes conveniently
-		List<String> accountHashes = new ArrayList<String>();
-
-		for (Post<BibTex> post : accountEntries) {
-			accountHashes.add(post.getResource().getIntraHash());
+		// get all previously posted entries, store the hashes conveniently
+		Set<String> accountHashes;
+		try (Stream<Post<BibTex>> accountEntries = streamEntriesFromAccount()) {
+			accountHashes = accountEntries.map(p -> p.getResource().getIntraHash()).collect(Collectors.toSet());
 		}
 
 		List<Post<BibTex>> fileEntries = loadEntriesFromFile();
@@ -192,17 +381,32 @@ public class BibUpdater {
 	
 	/**
 	 * Updates the account entries (B) based on the file entries (F)
+	 * @return the summary of the changes made
 	 * @throws Exception
 	 */
-	private void updateAccount() throws Exception {
-		// load entries
-		List<Post<BibTex>> fileEntries = loadEntriesFromFile();
-		
-		// get all previously posted entries
-		List<Post<BibTex>> accountEntries = loadAllEntriesFromAccount();
-		
+	public Summary updateAccount() throws Exception {
 		Summary summary = new Summary();
-		
+		// load entries
+		List<Post<BibTex>> fileEntries = summary.getMetrics().time(SyncMetrics.PARSE, this::loadEntriesFromFile);
+		return updateAccount(fileEntries, summary);
+	}
+
+	/**
+	 * Updates the account entries based on file entries loaded by the caller,
+	 * e.g. the {@link BibWatcher}.
+	 * 
+	 * @param fileEntries
+	 *            the posts of the file, the list is not modified
+	 * @return the summary of the changes made
+	 */
+	Summary updateAccount(List<Post<BibTex>> fileEntries) throws Exception {
+		return updateAccount(new ArrayList<Post<BibTex>>(fileEntries), new Summary());
+	}
+
+	private Summary updateAccount(List<Post<BibTex>> fileEntries, Summary summary) throws Exception {
+		SyncMetrics metrics = summary.getMetrics();
+		LogicInterface logic = metrics.instrument(this.logic);
+
 		//remove duplicates from file and identifies posts with missing keywords
 		Set<String> seen = new HashSet<String>();
 		Iterator<Post<BibTex>> iter = fileEntries.iterator();
@@ -217,76 +421,394 @@ public class BibUpdater {
 			}
 		}
 		
+		SyncStateStore store = syncState ? SyncStateStore.load(getSyncStatePath()) : null;
+		OperationJournal journal = this.journal ? OperationJournal.open(getJournalPath()) : null;
+		SyncPlan resumed = journal != null ? resume(journal, fileEntries, store) : null;
+		if (resumed != null) {
+			// every planned post is still in the file as planned, so the
+			// account is in sync once the remaining operations are done;
+			// other changes of the file are left to the next sync
+			log.info(resumed.toString());
+			return execute(resumed, summary, logic, store, journal, 0);
+		}
+		// the sync state misses what an interrupted sync did
+		boolean interrupted = journal != null && journal.hasPending(username);
+		boolean fromStore = store != null && !interrupted
+				&& !store.isStale(username, fullFetchInterval);
+		// the store is only trusted again once a full fetch was synced without failures
+		long fullFetch = !fromStore ? System.currentTimeMillis() : 0;
+		SyncPlan plan = metrics.time(SyncMetrics.RECONCILE, () -> {
+			if (fromStore) {
+				log.info("Planning from the sync state of " + store.size() + " posts");
+				return store.plan(fileEntries);
+			}
+			Reconciler reconciler = new Reconciler((account, file) -> {
+				long start = System.nanoTime();
+				try {
+					return isSame(account, file);
+				} finally {
+					metrics.addPhaseTime(SyncMetrics.COMPARE, System.nanoTime() - start);
+				}
+			});
+			if (store != null) {
+				// every account post is recorded, a failed write leaves it as it is
+				store.reset(username);
+				reconciler.setAccountListener(store::record);
+			}
+			// get all previously posted entries, page by page
+			try (AccountPageFetcher.PostIterator accountEntries = new AccountPageFetcher(logic, username, prefetchPages).iterator()) {
+				return reconciler.reconcile(fileEntries, accountEntries);
+			}
+		});
+		log.info(plan.toString());
+
+		if (store != null) {
+			for (Post<BibTex> post : plan.getUnchanged()) {
+				store.record(post);
+			}
+		}
+		if (journal != null) {
+			// a resumed sync has to find the state the journal starts from
+			if (store != null)
+				store.save();
+			journal.begin(username, plan);
+		}
+		return execute(plan, summary, logic, store, journal, fullFetch);
+	}
+
+	/**
+	 * Pushes a plan computed elsewhere, e.g. by the {@link BibWatcher}.
+	 * 
+	 * @return the summary of the changes made
+	 */
+	Summary push(SyncPlan plan) throws IOException {
+		Summary summary = new Summary();
+		LogicInterface logic = summary.getMetrics().instrument(this.logic);
+		SyncStateStore store = syncState ? SyncStateStore.load(getSyncStatePath()) : null;
+		log.info(plan.toString());
+		return execute(plan, summary, logic, store, null, 0);
+	}
+
+	/**
+	 * @param fullFetch
+	 *            the time the account was fetched for the plan, or 0 if the
+	 *            plan was not based on a full fetch
+	 */
+	private Summary execute(SyncPlan plan, Summary summary, LogicInterface logic, SyncStateStore store,
+			OperationJournal journal, long fullFetch) throws IOException {
+		boolean completed = false;
+		try {
+			write(plan, summary, logic, store, journal);
+			completed = summary.getFailedAdditions() == 0 && summary.getFailedUpdates() == 0;
+		} finally {
+			if (store != null) {
+				if (completed && fullFetch > 0)
+					store.setLastFullFetch(fullFetch);
+				store.save();
+			}
+			summary.exportCounts();
+			exportMetrics(summary.getMetrics());
+		}
+		log.info("Summary of " + username + ":" + summary);
+		return summary;
+	}
+
+	/**
+	 * Runs the plan and finishes the journal, if any.
+	 */
+	private void write(SyncPlan plan, Summary summary, LogicInterface logic, SyncStateStore store,
+			OperationJournal journal) throws IOException {
+		ExecutorService executor = workers > 1 ? WriteExecutors.create(workers) : null;
+		long writeStart = System.nanoTime();
+		try {
+			runPlan(plan, summary, logic, executor, store, journal);
+		} finally {
+			summary.getMetrics().addPhaseTime(SyncMetrics.WRITE, System.nanoTime() - writeStart);
+			if (executor != null)
+				executor.shutdown();
+			if (journal != null)
+				journal.finish();
+		}
+	}
+
+	/**
+	 * @return the remaining operations of an interrupted sync, or null if
+	 *         there are none or the file changed since
+	 */
+	private SyncPlan resume(OperationJournal journal, List<Post<BibTex>> fileEntries, SyncStateStore store) throws IOException {
+		if (!journal.hasPending(username))
+			return null;
+		SyncPlan plan = journal.resume(fileEntries);
+		if (plan == null) {
+			log.info("The file changed since the interrupted sync, planning a new one");
+			return null;
+		}
+		log.info("Resuming an interrupted sync with " + journal.getPendingCount() + " remaining operations");
+		if (store != null)
+			journal.replayDone(store);
+		journal.reopen();
+		return plan;
+	}
+
+	private void exportMetrics(SyncMetrics metrics) {
+		try {
+			if (metricsJson != null)
+				metrics.writeJson(metricsJson);
+			if (metricsPrometheus != null)
+				metrics.writePrometheus(metricsPrometheus, username);
+		} catch (IOException e) {
+			log.warn("Could not write the metrics", e);
+		}
+	}
+
+	private void runPlan(SyncPlan plan, Summary summary, LogicInterface logic, ExecutorService executor,
+			SyncStateStore store, OperationJournal journal) {
+		BatchSubmitter submitter = newSubmitter(logic, executor);
+		
 		// present in B and in F, updates based on file entry if different
-		List<Post<BibTex>> intersection = getPaperIntersection(fileEntries, accountEntries);
-		for(Post<BibTex> post:intersection) {
-			Post<BibTex> matchingPost = accountEntries.stream().filter(a -> a.getResource().getIntraHash().equals(post.getResource().getIntraHash()))
-					.findFirst().orElse(null);
-			if(!(matchingPost != null && isSame(matchingPost, post))) {
-				updateEntry(post);
+		User authenticatedUser = logic.getAuthenticatedUser();
+		for(Post<BibTex> post:plan.getUpdate()) {
+			post.setUser(authenticatedUser);
+		}
+		submitter.updatePosts(plan.getUpdate(), new SubmitListener() {
+			@Override
+			public void succeeded(Post<BibTex> post) {
 				summary.addUpdate();
+				if (store != null)
+					store.record(post);
+				if (journal != null)
+					journal.done(post.getResource().getIntraHash());
 			}
-		}
+
+			@Override
+			public void failed(Post<BibTex> post, Exception cause) {
+				log.warn(post.getResource().getTitle() + " failed to update", cause);
+				summary.addFailUpdate();
+				summary.addFailedPost(post.getResource().getIntraHash());
+				// rejected or out of retries, left to the next plan
+				if (journal != null)
+					journal.failed(post.getResource().getIntraHash());
+			}
+		});
 		
 		// present in B, not in F, is removed
-		List<Post<BibTex>> removeEntries = getExclusive(accountEntries, intersection);
-		deleteEntries(removeEntries);
-		summary.setRemoved(removeEntries.size());
+		List<Post<BibTex>> removeEntries = plan.getDelete();
+		AtomicInteger removed = new AtomicInteger();
+		submitter.deletePosts(removeEntries.stream().map(p -> p.getResource().getIntraHash()).collect(Collectors.toList()), hashes -> {
+			removed.addAndGet(hashes.size());
+			for (String hash : hashes) {
+				if (store != null)
+					store.forget(hash);
+				if (journal != null)
+					journal.done(hash);
+			}
+		}, (hashes, cause) -> {
+			log.warn(hashes.size() + " posts failed to delete", cause);
+			for (String hash : hashes) {
+				summary.addFailedPost(hash);
+				if (journal != null)
+					journal.failed(hash);
+			}
+		});
+		summary.setRemoved(summary.getRemoved() + removed.get());
 		
 		//present in F, not in B, is added
-		List<Post<BibTex>> addEntries = getExclusive(fileEntries, intersection);
-		for (Post<BibTex> post : addEntries) {
-			String postTitle = post.getResource().getTitle();
-			if(uploadEntry(post).isEmpty()) {
-				log.warn(postTitle+" failed to upload");
-				summary.addFailAdd(postTitle);
-			} else {
-				summary.addSucAdd();
-				log.info(postTitle + " uploaded");
-			}			
+		for (Post<BibTex> post : plan.getAdd()) {
+			prepareUpload(post);
 		}
-		log.info(summary.toString());
+		submitter.createPosts(plan.getAdd(), new SubmitListener() {
+			@Override
+			public void succeeded(Post<BibTex> post) {
+				summary.addSucAdd();
+				log.info(post.getResource().getTitle() + " uploaded");
+				if (store != null)
+					store.record(post);
+				if (journal != null)
+					journal.done(post.getResource().getIntraHash());
+			}
+
+			@Override
+			public void failed(Post<BibTex> post, Exception cause) {
+				String postTitle = post.getResource().getTitle();
+				log.warn(postTitle+" failed to upload", cause);
+				summary.addFailAdd(postTitle);
+				summary.addFailedPost(post.getResource().getIntraHash());
+				if (journal != null)
+					journal.failed(post.getResource().getIntraHash());
+			}
+		});
+	}
+
+	private BatchSubmitter newSubmitter(LogicInterface logic, ExecutorService executor) {
+		BatchSubmitter submitter = new BatchSubmitter(logic, username, batchSize);
+		submitter.setExecutor(executor);
+		if (rateLimit > 0)
+			submitter.setRateLimit(new TokenBucket(rateLimit, Math.max(1, workers)));
+		if (retries > 0)
+			submitter.setRetry(new Backoff(retries, 500, TimeUnit.SECONDS.toMillis(30)));
+		return submitter;
 	}
 	
 	public List<Post<BibTex>> loadAllEntriesFromAccount() throws Exception {
-		int cur = 0;
-		final int max_entries = 1000;
 		
 		// it can only retrieve 1000 posts at a time
-		List<Post<BibTex>> publications = logic.getPosts(BibTex.class, GroupingEntity.USER, username, null, null, null, null, null, Order.ADDED, null, null, cur, cur+max_entries);
-		while(publications.size()==cur+max_entries) {
-			cur += max_entries;
-			List<Post<BibTex>> posts = logic.getPosts(BibTex.class, GroupingEntity.USER, username, null, null, null, null, null, Order.ADDED, null, null, cur, cur+max_entries);
-			if(posts.isEmpty())
-				break;
-			publications.addAll(posts);
-			
-		}
-		return publications;
+		return new AccountPageFetcher(logic, username, prefetchPages).fetchAll();
 
 	}
 	
-	private void updateEntry(Post<BibTex> entry) {
-		entry.setUser(logic.getAuthenticatedUser());
-		List<Post<? extends Resource>> post = Collections.<Post<? extends Resource>>singletonList(entry);
-		logic.updatePosts(post, PostUpdateOperation.UPDATE_ALL);
-		
+	public int getBatchSize() {
+		return batchSize;
 	}
-	
-	private void deleteEntries(List<Post<BibTex>> posts) {
-		logic.deletePosts(username, posts.stream().map(p -> p.getResource().getIntraHash()).collect(Collectors.toList()));
+
+	/**
+	 * Sets the number of posts sent to the server in a single create, update
+	 * or delete call.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
 	}
-	
-	private List<Post<BibTex>> getPaperIntersection(List<Post<BibTex>> lista, List<Post<BibTex>> listb) {
-		 return lista.stream()
-		        .filter(f -> listb.stream().anyMatch(b -> b.getResource().getIntraHash().equals(f.getResource().getIntraHash())))
-		        .collect(Collectors.toList());
+
+	public int getWorkers() {
+		return workers;
 	}
-	
-	private List<Post<BibTex>> getExclusive(List<Post<BibTex>> list, List<Post<BibTex>> intersection) {
-		 return list.stream()
-				.filter(b -> intersection.stream().noneMatch(i -> i.getResource().getIntraHash().equals(b.getResource().getIntraHash())))
-				.collect(Collectors.toList());
+
+	/**
+	 * Sets the number of batches written to the server concurrently.
+	 */
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public double getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * Sets the maximum number of server calls per second made while writing,
+	 * 0 disables the limit.
+	 */
+	public void setRateLimit(double rateLimit) {
+		this.rateLimit = rateLimit;
+	}
+
+	public int getParseThreads() {
+		return parseThreads;
+	}
+
+	/**
+	 * Sets the number of threads parsing the file, with more than one the file
+	 * is parsed in chunks on a fork-join pool instead of being streamed.
+	 */
+	public void setParseThreads(int parseThreads) {
+		this.parseThreads = parseThreads;
+	}
+
+	public boolean isParseCache() {
+		return parseCache;
+	}
+
+	/**
+	 * Enables the cache of parsed entries, with which only new or changed
+	 * entries are parsed. The cached entries are loaded on the calling thread.
+	 */
+	public void setParseCache(boolean parseCache) {
+		this.parseCache = parseCache;
+	}
+
+	public Path getParseCachePath() {
+		return Paths.get(fileLocation + ".parsecache");
+	}
+
+	public boolean isSyncState() {
+		return syncState;
+	}
+
+	/**
+	 * Enables the local sync state next to the file, which lets a sync skip
+	 * downloading the account until the full fetch interval has passed.
+	 */
+	public void setSyncState(boolean syncState) {
+		this.syncState = syncState;
+	}
+
+	public long getFullFetchInterval() {
+		return fullFetchInterval;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which the sync state is no longer
+	 * trusted and the whole account is fetched again.
+	 */
+	public void setFullFetchInterval(long fullFetchInterval) {
+		this.fullFetchInterval = fullFetchInterval;
+	}
+
+	public int getPrefetchPages() {
+		return prefetchPages;
+	}
+
+	/**
+	 * Sets the number of account pages requested concurrently while
+	 * downloading the account.
+	 */
+	public void setPrefetchPages(int prefetchPages) {
+		this.prefetchPages = prefetchPages;
+	}
+
+	public Path getMetricsJson() {
+		return metricsJson;
+	}
+
+	/**
+	 * Sets the file the timings of each sync are written to as JSON, null
+	 * writes none.
+	 */
+	public void setMetricsJson(Path metricsJson) {
+		this.metricsJson = metricsJson;
+	}
+
+	public Path getMetricsPrometheus() {
+		return metricsPrometheus;
+	}
+
+	/**
+	 * Sets the file the timings of each sync are written to in the Prometheus
+	 * text format, null writes none.
+	 */
+	public void setMetricsPrometheus(Path metricsPrometheus) {
+		this.metricsPrometheus = metricsPrometheus;
+	}
+
+	public Path getSyncStatePath() {
+		return Paths.get(fileLocation + ".syncstate");
+	}
+
+	public boolean isJournal() {
+		return journal;
+	}
+
+	/**
+	 * Enables the journal of planned writes, from which an interrupted sync is
+	 * resumed.
+	 */
+	public void setJournal(boolean journal) {
+		this.journal = journal;
+	}
+
+	public Path getJournalPath() {
+		return Paths.get(fileLocation + ".journal");
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * Sets how often a failed write is retried, with exponential backoff
+	 * starting at half a second.
+	 */
+	public void setRetries(int retries) {
+		this.retries = retries;
 	}
 	
 	public boolean isSame(Post<BibTex> accountEntry, Post<BibTex> filePost) {
@@ -294,35 +816,7 @@ public class BibUpdater {
 		if(filePost.getTags()==null||filePost.getTags().isEmpty())
 			filePost.addTag("nokeyword");
 		
-		Javers javers = JaversBuilder.javers().build();
-		Diff diff = javers.compare(accountEntry, filePost);
-		
-		List<Change> changes = diff.getChanges();
-		
-		// Two papers are the same if only these changes occur
-		for (Change curChange : changes) {
-			String typeName = curChange.getAffectedGlobalId().getTypeName();
-			if (curChange instanceof ObjectRemoved) {
-				if(!(typeName.equals("org.bibsonomy.model.Group") || typeName.equals("org.bibsonomy.model.User"))) 
-					return false;
-			} else if (curChange instanceof ValueChange) {
-				String propertyName = ((ValueChange) curChange).getPropertyName();
-				if(!(typeName.equals("org.bibsonomy.model.Post") && (propertyName.equals("resource") || propertyName.equals("changeDate") || propertyName.equals("date")))) 
-					return false;
-			} else if (curChange instanceof ReferenceChange) {
-				String propertyName = ((ReferenceChange) curChange).getPropertyName();
-				if(!(typeName.equals("org.bibsonomy.model.Post") && propertyName.equals("user"))) 
-					return false;
-			} else if (curChange instanceof SetChange) {
-				String propertyName = ((SetChange) curChange).getPropertyName();
-				if(!(typeName.equals("org.bibsonomy.model.Post") && propertyName.equals("groups"))) 
-					return false;
-			} else {
-				// something else differs
-				return false;
-			}
-		}
-		return true;
+		return comparator.isSame(accountEntry, filePost);
 	}
 
 }
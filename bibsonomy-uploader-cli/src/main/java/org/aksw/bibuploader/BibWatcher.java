@@ -0,0 +1,171 @@
+package org.aksw.bibuploader;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Keeps an account in sync with a bibliography while it is edited. After an
+ * initial full sync the file is watched, and once a burst of saves has been
+ * quiet for the debounce time only the changed entries are parsed again. The
+ * new posts are compared with the posts of the previous version of the file,
+ * which the account is known to hold, and just the differences are pushed.
+ *
+ * A full sync is repeated once the last one is older than the full fetch
+ * interval of the {@link BibUpdater}, or after a sync failed, so changes made
+ * to the account by other means are eventually corrected. Posts which could
+ * not be pushed keep their previous version, so they are pushed again by the
+ * next sync.
+ */
+public class BibWatcher {
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+	private static Log log = LogFactory.getLog(BibWatcher.class);
+
+	private final BibUpdater updater;
+
+	private final Path file;
+
+	private final long debounceMillis;
+
+	private final IncrementalBibTeXLoader loader = new IncrementalBibTeXLoader();
+
+	// the posts the account is known to hold, without duplicates
+	private List<Post<BibTex>> pushed;
+
+	private long lastFullSync = 0;
+
+	public BibWatcher(BibUpdater updater, Path file, long debounceMillis) {
+		this.updater = updater;
+		this.file = file.toAbsolutePath();
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Syncs the whole account, then watches the file until the thread is
+	 * interrupted.
+	 */
+	public void run() throws Exception {
+		fullSync();
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			// editors often save by replacing the file, so its directory is watched
+			file.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+			log.info("Watching " + file);
+			while (!Thread.currentThread().isInterrupted()) {
+				if (!isChange(watcher.take()))
+					continue;
+
+				long quietUntil = System.currentTimeMillis() + debounceMillis;
+				long remaining;
+				while ((remaining = quietUntil - System.currentTimeMillis()) > 0) {
+					WatchKey key = watcher.poll(remaining, TimeUnit.MILLISECONDS);
+					if (key != null && isChange(key))
+						quietUntil = System.currentTimeMillis() + debounceMillis;
+				}
+
+				try {
+					sync();
+				} catch (Exception e) {
+					log.error("Sync failed, the next one will be a full sync:", e);
+					lastFullSync = 0;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.info("Stopped watching " + file);
+		}
+	}
+
+	private boolean isChange(WatchKey key) throws IOException {
+		boolean change = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW || file.getFileName().equals(event.context()))
+				change = true;
+		}
+		if (!key.reset())
+			throw new IOException("Cannot watch " + file.getParent() + " any longer");
+		return change;
+	}
+
+	/**
+	 * Pushes the changes made to the file since the previous sync.
+	 *
+	 * @return the summary of the changes made, or null if there were none
+	 */
+	Summary sync() throws Exception {
+		if (pushed == null || System.currentTimeMillis() - lastFullSync >= updater.getFullFetchInterval())
+			return fullSync();
+
+		List<Post<BibTex>> posts = loader.load(file);
+		log.info("Parsed " + loader.getLastParsed() + " changed entries, kept "
+				+ loader.getLastReused());
+
+		SyncPlan plan = new Reconciler(updater::isSame).reconcile(posts, pushed.iterator());
+		if (plan.getAdd().isEmpty() && plan.getUpdate().isEmpty() && plan.getDelete().isEmpty()) {
+			log.info("No changes to push");
+			pushed = withoutDuplicates(posts);
+			return null;
+		}
+		Summary summary = updater.push(plan);
+		pushed = pushed(posts, summary.getFailedPosts());
+		return summary;
+	}
+
+	private Summary fullSync() throws Exception {
+		// loaded once, so a save during the sync is pushed by the next one
+		List<Post<BibTex>> posts = loader.load(file);
+		lastFullSync = System.currentTimeMillis();
+		Summary summary = updater.updateAccount(posts);
+		pushed = withoutDuplicates(posts);
+		if (!summary.getFailedPosts().isEmpty()) {
+			// the account version of the failed posts is not known here
+			log.info("Some posts could not be pushed, the next sync will be a full sync");
+			lastFullSync = 0;
+		}
+		return summary;
+	}
+
+	/**
+	 * @return the new posts, but the previous version of those which failed
+	 */
+	private List<Post<BibTex>> pushed(List<Post<BibTex>> posts, Set<String> failed) {
+		List<Post<BibTex>> held = new ArrayList<Post<BibTex>>();
+		for (Post<BibTex> post : withoutDuplicates(posts)) {
+			if (!failed.contains(post.getResource().getIntraHash()))
+				held.add(post);
+		}
+		for (Post<BibTex> post : pushed) {
+			if (failed.contains(post.getResource().getIntraHash()))
+				held.add(post);
+		}
+		return held;
+	}
+
+	// first occurrence wins, as in a sync
+	private static List<Post<BibTex>> withoutDuplicates(List<Post<BibTex>> posts) {
+		Set<String> seen = new HashSet<String>();
+		List<Post<BibTex>> unique = new ArrayList<Post<BibTex>>(posts.size());
+		for (Post<BibTex> post : posts) {
+			if (seen.add(post.getResource().getIntraHash()))
+				unique.add(post);
+		}
+		return unique;
+	}
+}
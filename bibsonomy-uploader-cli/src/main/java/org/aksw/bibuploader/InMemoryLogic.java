@@ -0,0 +1,259 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.Resource;
+import org.bibsonomy.model.User;
+import org.bibsonomy.model.logic.LogicInterface;
+
+/**
+ * An in-process stand-in for the BibSonomy REST API, holding the posts of a
+ * single account in memory. It answers the calls BibUpdater makes
+ * (<code>getPosts</code> paging, <code>createPosts</code>,
+ * <code>updatePosts</code>, <code>deletePosts</code> and
+ * <code>getAuthenticatedUser</code>); every other method of
+ * {@link LogicInterface} throws an {@link UnsupportedOperationException}.
+ *
+ * To measure whole syncs offline, every call can be slowed down by a fixed
+ * latency, fail at random and be rejected when too many calls run at once,
+ * like a throttling server does. These failures are thrown as an
+ * {@link UncheckedIOException}, like a dropped connection, as they are
+ * transient and worth a retry. A post the account cannot take is rejected
+ * by leaving it out of the answer, or with an exception set by
+ * {@link #setRejected(Predicate)}.
+ */
+public class InMemoryLogic implements InvocationHandler {
+
+	private final String username;
+
+	// insertion order stands in for Order.ADDED
+	private final Map<String, Post<BibTex>> posts = new LinkedHashMap<String, Post<BibTex>>();
+
+	private final Map<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final Random random = new Random(42);
+
+	private volatile long latencyMillis = 0;
+
+	private volatile double failureRate = 0;
+
+	private volatile Semaphore concurrentCalls = null;
+
+	private volatile Predicate<Post<BibTex>> rejected = null;
+
+	public InMemoryLogic(String username) {
+		this.username = username;
+	}
+
+	/**
+	 * @return a {@link LogicInterface} backed by this instance
+	 */
+	public LogicInterface logic() {
+		return (LogicInterface) Proxy.newProxyInstance(
+				LogicInterface.class.getClassLoader(),
+				new Class<?>[] { LogicInterface.class }, this);
+	}
+
+	/**
+	 * Every call sleeps for the given time before it is answered.
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * @param failureRate
+	 *            the probability, between 0 and 1, of a call failing in
+	 *            transport before it changes anything
+	 */
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * @param rejected
+	 *            the posts a call to createPosts or updatePosts fails for as a
+	 *            whole with an {@link IllegalStateException}, like a server
+	 *            rejecting an invalid post, or null to accept all
+	 */
+	public void setRejected(Predicate<Post<BibTex>> rejected) {
+		this.rejected = rejected;
+	}
+
+	/**
+	 * @param maxConcurrentCalls
+	 *            the number of calls answered at once, further calls are
+	 *            rejected as throttled; 0 disables the limit
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.concurrentCalls = maxConcurrentCalls > 0 ? new Semaphore(
+				maxConcurrentCalls) : null;
+	}
+
+	/**
+	 * @return the number of calls made to the given method, e.g. "createPosts"
+	 */
+	public long getCalls(String method) {
+		AtomicLong count = calls.get(method);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return a copy of the posts currently in the account
+	 */
+	public synchronized List<Post<BibTex>> getPosts() {
+		return new ArrayList<Post<BibTex>>(posts.values());
+	}
+
+	/**
+	 * Puts posts into the account without counting a call.
+	 */
+	public synchronized void addPosts(List<Post<BibTex>> initial) {
+		for (Post<BibTex> post : initial) {
+			posts.put(post.getResource().getIntraHash(), post);
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			try {
+				return method.invoke(this, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		String name = method.getName();
+		calls.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+
+		Semaphore limit = concurrentCalls;
+		if (limit != null && !limit.tryAcquire())
+			throw new UncheckedIOException(new IOException("429 Too Many Requests: " + name + " was throttled"));
+		try {
+			if (latencyMillis > 0)
+				TimeUnit.MILLISECONDS.sleep(latencyMillis);
+			if (failureRate > 0 && nextDouble() < failureRate)
+				throw new UncheckedIOException(new IOException("500 Internal Server Error: injected failure of " + name));
+
+			switch (name) {
+			case "getPosts":
+				// start and end are the last two parameters
+				return getPosts((Integer) args[args.length - 2], (Integer) args[args.length - 1]);
+			case "createPosts":
+				return createPosts(checkRejected(resourcePosts(args[0])));
+			case "updatePosts":
+				return updatePosts(checkRejected(resourcePosts(args[0])));
+			case "deletePosts":
+				deletePosts(strings(args[1]));
+				return null;
+			case "getAuthenticatedUser":
+				return new User(username);
+			default:
+				throw new UnsupportedOperationException(name + " is not supported by " + toString());
+			}
+		} finally {
+			if (limit != null)
+				limit.release();
+		}
+	}
+
+	private List<Post<BibTex>> checkRejected(List<Post<BibTex>> posts) {
+		Predicate<Post<BibTex>> rejected = this.rejected;
+		if (rejected != null) {
+			for (Post<BibTex> post : posts) {
+				if (rejected.test(post))
+					throw new IllegalStateException("400 Bad Request: "
+							+ post.getResource().getIntraHash() + " was rejected");
+			}
+		}
+		return posts;
+	}
+
+	private synchronized double nextDouble() {
+		return random.nextDouble();
+	}
+
+	private synchronized List<Post<BibTex>> getPosts(int start, int end) {
+		List<Post<BibTex>> all = new ArrayList<Post<BibTex>>(posts.values());
+		if (start >= all.size())
+			return new ArrayList<Post<BibTex>>();
+		return new ArrayList<Post<BibTex>>(all.subList(start, Math.min(end, all.size())));
+	}
+
+	/**
+	 * Posts already in the account are rejected, i.e. left out of the returned
+	 * hashes.
+	 */
+	private synchronized List<String> createPosts(List<Post<BibTex>> created) {
+		List<String> hashes = new ArrayList<String>();
+		for (Post<BibTex> post : created) {
+			String hash = post.getResource().getIntraHash();
+			if (!posts.containsKey(hash)) {
+				posts.put(hash, post);
+				hashes.add(hash);
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * Posts not in the account are rejected, i.e. left out of the returned
+	 * hashes.
+	 */
+	private synchronized List<String> updatePosts(List<Post<BibTex>> updated) {
+		List<String> hashes = new ArrayList<String>();
+		for (Post<BibTex> post : updated) {
+			String hash = post.getResource().getIntraHash();
+			if (posts.containsKey(hash)) {
+				posts.put(hash, post);
+				hashes.add(hash);
+			}
+		}
+		return hashes;
+	}
+
+	private synchronized void deletePosts(List<String> hashes) {
+		for (String hash : hashes) {
+			posts.remove(hash);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Post<BibTex>> resourcePosts(Object arg) {
+		List<Post<BibTex>> result = new ArrayList<Post<BibTex>>();
+		for (Post<? extends Resource> post : (List<Post<? extends Resource>>) arg) {
+			if (!(post.getResource() instanceof BibTex))
+				throw new UnsupportedOperationException("only publications are supported");
+			result.add((Post<BibTex>) post);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> strings(Object arg) {
+		return (List<String>) arg;
+	}
+
+	public String toString() {
+		return "InMemoryLogic[" + username + "]";
+	}
+}
@@ -0,0 +1,82 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Loads a BibTeX file repeatedly, parsing only the entries whose raw text
+ * changed since the previous load. The posts of an unchanged entry are
+ * returned as the very same objects as before; an entry counts as changed if
+ * its text or its context changed, i.e. the definitions it uses or the entry
+ * it cross references, see {@link BibTeXEntryParser}.
+ *
+ * The hashes of the returned posts are already recalculated.
+ */
+public class IncrementalBibTeXLoader {
+
+	// posts by context and entry text, as of the previous load
+	private Map<String, Map<String, List<Post<BibTex>>>> parsed = new HashMap<String, Map<String, List<Post<BibTex>>>>();
+
+	private int lastParsed;
+
+	private int lastReused;
+
+	public List<Post<BibTex>> load(Path file) throws IOException {
+		Map<String, Map<String, List<Post<BibTex>>>> current = new HashMap<String, Map<String, List<Post<BibTex>>>>();
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		BibTeXEntryParser parser = BibTeXEntryParser.forFile(file);
+		int parsedEntries = 0;
+		int reusedEntries = 0;
+
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(file)) {
+			BibTeXEntryReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (entry.isDefinition()) {
+					parser.define(entry);
+					continue;
+				}
+				if (entry.isComment())
+					continue;
+
+				String context = parser.context(entry);
+				Map<String, List<Post<BibTex>>> previous = parsed.get(context);
+				List<Post<BibTex>> entryPosts = previous == null ? null : previous.get(entry.getText());
+				if (entryPosts == null) {
+					entryPosts = parser.parse(entry, context);
+					parsedEntries++;
+				} else {
+					reusedEntries++;
+				}
+				current.computeIfAbsent(context, key -> new HashMap<String, List<Post<BibTex>>>())
+						.put(entry.getText(), entryPosts);
+				posts.addAll(entryPosts);
+			}
+		}
+
+		parsed = current;
+		lastParsed = parsedEntries;
+		lastReused = reusedEntries;
+		return posts;
+	}
+
+	/**
+	 * @return the number of entries parsed by the last load
+	 */
+	public int getLastParsed() {
+		return lastParsed;
+	}
+
+	/**
+	 * @return the number of entries the last load took from the previous one
+	 */
+	public int getLastReused() {
+		return lastReused;
+	}
+}
@@ -0,0 +1,281 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.model.logic.LogicInterface;
+import org.bibsonomy.rest.client.RestLogicFactory;
+
+/**
+ * Syncs many accounts in one process, at most a given number at a time. The
+ * accounts are read from a config file with one account per line:
+ *
+ * <pre>
+ * # username apikey apiurl file [--option=value ...]
+ * aksw  0123abcd  http://www.bibsonomy.org/api  /data/aksw.bib  --workers=4
+ * </pre>
+ *
+ * Options given on a line override the ones given for all accounts. One
+ * {@link RestLogicFactory} is shared by all accounts of an API url. A failing
+ * account does not affect the others.
+ *
+ * The metrics files given for all accounts are written once per round,
+ * holding the metrics of every account synced; given on the line of an
+ * account, they hold that account alone.
+ */
+public class MultiAccountSync {
+
+	private static Log log = LogFactory.getLog(MultiAccountSync.class);
+
+	public static class Account {
+
+		private final String username;
+
+		private final String apikey;
+
+		private final String apiurl;
+
+		private final String file;
+
+		private final Map<String, String> options;
+
+		public Account(String username, String apikey, String apiurl, String file,
+				Map<String, String> options) {
+			this.username = username;
+			this.apikey = apikey;
+			this.apiurl = apiurl;
+			this.file = file;
+			this.options = options;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public String getApiurl() {
+			return apiurl;
+		}
+
+		public String getFile() {
+			return file;
+		}
+
+		public Map<String, String> getOptions() {
+			return options;
+		}
+
+		public String toString() {
+			return username + " (" + file + ")";
+		}
+	}
+
+	/**
+	 * The outcome of syncing one account: its summary, or the failure which
+	 * stopped it.
+	 */
+	public static class Result {
+
+		private final Account account;
+
+		private final Summary summary;
+
+		private final Exception failure;
+
+		private Result(Account account, Summary summary, Exception failure) {
+			this.account = account;
+			this.summary = summary;
+			this.failure = failure;
+		}
+
+		public Account getAccount() {
+			return account;
+		}
+
+		public Summary getSummary() {
+			return summary;
+		}
+
+		public Exception getFailure() {
+			return failure;
+		}
+	}
+
+	/**
+	 * Creates the logic an account is synced through.
+	 */
+	public interface LogicSource {
+		LogicInterface getLogic(Account account);
+	}
+
+	private final List<Account> accounts;
+
+	private final int concurrency;
+
+	private final Map<String, String> defaults;
+
+	private final LogicSource logicSource;
+
+	private final Path metricsJson;
+
+	private final Path metricsPrometheus;
+
+	/**
+	 * @param defaults
+	 *            the options applied to all accounts
+	 * @param concurrency
+	 *            the number of accounts synced at a time
+	 */
+	public MultiAccountSync(List<Account> accounts, Map<String, String> defaults,
+			int concurrency) {
+		this(accounts, defaults, concurrency, sharedFactories());
+	}
+
+	public MultiAccountSync(List<Account> accounts, Map<String, String> defaults,
+			int concurrency, LogicSource logicSource) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+		this.accounts = accounts;
+		this.defaults = new HashMap<String, String>(defaults);
+		this.concurrency = concurrency;
+		this.logicSource = logicSource;
+		// written by syncAll() for all accounts at once
+		String json = this.defaults.remove("metrics-json");
+		String prometheus = this.defaults.remove("metrics-prom");
+		this.metricsJson = json == null ? null : Paths.get(json);
+		this.metricsPrometheus = prometheus == null ? null : Paths.get(prometheus);
+	}
+
+	/**
+	 * @return a source sharing one factory per API url
+	 */
+	static LogicSource sharedFactories() {
+		Map<String, RestLogicFactory> factories = new HashMap<String, RestLogicFactory>();
+		return account -> {
+			RestLogicFactory factory;
+			synchronized (factories) {
+				factory = factories.computeIfAbsent(account.getApiurl(), BibUpdater::newLogicFactory);
+			}
+			return factory.getLogicAccess(account.username, account.apikey);
+		};
+	}
+
+	/**
+	 * Reads the accounts from the given config file. Empty lines and lines
+	 * starting with # are skipped.
+	 */
+	public static List<Account> readConfig(Path config) throws IOException {
+		List<Account> accounts = new ArrayList<Account>();
+		int lineNumber = 0;
+		for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			Map<String, String> options = new HashMap<String, String>();
+			String[] fields = BibUpdater.parseOptions(line.split("\\s+"), options);
+			if (fields.length != 4)
+				throw new IOException(config + ":" + lineNumber
+						+ ": expected username apikey apiurl file, found " + fields.length + " fields");
+			accounts.add(new Account(fields[0], fields[1], fields[2], fields[3], options));
+		}
+		return accounts;
+	}
+
+	/**
+	 * Syncs all accounts once.
+	 *
+	 * @return the results in the order of the accounts
+	 */
+	public List<Result> syncAll() throws InterruptedException {
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "bibuploader-account-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (Account account : accounts) {
+				futures.add(executor.submit(() -> sync(account)));
+			}
+			List<Result> results = new ArrayList<Result>();
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// sync catches everything but errors
+					throw new IllegalStateException("Error occured:" + e.getCause().getMessage(), e.getCause());
+				}
+			}
+			exportMetrics(results);
+			return Collections.unmodifiableList(results);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Result sync(Account account) {
+		try {
+			BibUpdater updater = new BibUpdater(logicSource.getLogic(account),
+					account.getUsername(), account.getFile());
+			updater.configure(defaults);
+			updater.configure(account.getOptions());
+			return new Result(account, updater.updateAccount(), null);
+		} catch (Exception e) {
+			log.error("Sync of " + account + " failed:", e);
+			return new Result(account, null, e);
+		}
+	}
+
+	private void exportMetrics(List<Result> results) {
+		if (metricsJson == null && metricsPrometheus == null)
+			return;
+		Map<String, SyncMetrics> metrics = new LinkedHashMap<String, SyncMetrics>();
+		for (Result result : results) {
+			if (result.getSummary() != null)
+				metrics.putIfAbsent(result.getAccount().getUsername(), result.getSummary().getMetrics());
+		}
+		try {
+			if (metricsJson != null)
+				SyncMetrics.writeJson(metricsJson, metrics);
+			if (metricsPrometheus != null)
+				SyncMetrics.writePrometheus(metricsPrometheus, metrics);
+		} catch (IOException e) {
+			log.warn("Could not write the metrics", e);
+		}
+	}
+
+	/**
+	 * Syncs all accounts every interval until the thread is interrupted.
+	 */
+	public void run(long intervalMillis) throws InterruptedException {
+		while (true) {
+			long start = System.currentTimeMillis();
+			int failed = 0;
+			for (Result result : syncAll()) {
+				if (result.getFailure() != null)
+					failed++;
+			}
+			log.info("Synced " + accounts.size() + " accounts, " + failed + " failed, in "
+					+ (System.currentTimeMillis() - start) + "ms");
+			TimeUnit.MILLISECONDS.sleep(Math.max(0, start + intervalMillis - System.currentTimeMillis()));
+		}
+	}
+}
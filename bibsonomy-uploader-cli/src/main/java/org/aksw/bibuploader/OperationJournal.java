@@ -0,0 +1,334 @@
+package org.aksw.bibuploader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * A write-ahead journal of the creates, updates and deletes of a sync. The
+ * whole plan is written and forced to disk before the first write, and every
+ * operation is marked off once the server confirmed it. A sync interrupted by
+ * a crash leaves the journal behind, and the next sync resumes its remaining
+ * operations without downloading or comparing the account again, and does
+ * nothing else; other changes of the bibliography are synced by the run after
+ * it. An operation the server rejected, or which failed after all retries, is
+ * marked as failed, so it is not resumed but left to the next plan.
+ *
+ * Operations are keyed by the intraHash of their post; creates and updates
+ * also record the {@link PostFingerprint} of the planned post, so a resumed
+ * sync only picks up posts the bibliography still holds unchanged.
+ *
+ * Marks reach the operating system at once and so survive a crash of the JVM.
+ * They are not forced to disk, a crash of the machine may repeat the last
+ * operations: updates and deletes are idempotent, repeated creates are
+ * rejected by the server and reported as failed.
+ */
+public class OperationJournal implements Closeable {
+
+	public enum Operation {
+		CREATE, UPDATE, DELETE
+	}
+
+	private static final int MAGIC = 0x42494f4a; // "BIOJ"
+
+	private static final int VERSION = 3;
+
+	private static final byte PLANNED = 'P';
+
+	private static final byte DONE = 'D';
+
+	private static final byte FAILED = 'F';
+
+	private static Log log = LogFactory.getLog(OperationJournal.class);
+
+	private final Path file;
+
+	private String username;
+
+	// planned operations by intraHash, in plan order
+	private final Map<String, Planned> planned = new LinkedHashMap<String, Planned>();
+
+	private final Map<String, Planned> pending = new ConcurrentHashMap<String, Planned>();
+
+	private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+	private FileChannel channel;
+
+	// the length of the complete records read by open(..)
+	private long length;
+
+	private OperationJournal(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the journal kept in the given file, without operations if the
+	 *         file does not exist or cannot be read. A record torn by a crash
+	 *         at the end of the file is ignored.
+	 */
+	public static OperationJournal open(Path file) {
+		OperationJournal journal = new OperationJournal(file);
+		try {
+			byte[] bytes = Files.readAllBytes(file);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warn("Ignoring journal of unknown format: " + file);
+				return journal;
+			}
+			journal.username = in.readUTF();
+			try {
+				while (true) {
+					journal.length = bytes.length - in.available();
+					byte type = in.readByte();
+					String hash = in.readUTF();
+					if (type == PLANNED) {
+						Operation operation = Operation.values()[in.readByte()];
+						Planned op = new Planned(operation, hash, in.readUTF());
+						journal.planned.put(hash, op);
+						journal.pending.put(hash, op);
+					} else if (type == DONE) {
+						journal.pending.remove(hash);
+					} else if (type == FAILED) {
+						if (journal.pending.remove(hash) != null)
+							journal.failed.add(hash);
+					} else {
+						throw new IOException("unknown record type " + type);
+					}
+				}
+			} catch (EOFException e) {
+				// end of the journal, possibly within a torn record
+			}
+		} catch (NoSuchFileException e) {
+			log.debug("No journal found at " + file);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Ignoring unreadable journal: " + file, e);
+			journal.username = null;
+			journal.planned.clear();
+			journal.pending.clear();
+			journal.failed.clear();
+		}
+		return journal;
+	}
+
+	/**
+	 * @return true if an interrupted sync of the given user left operations
+	 */
+	public boolean hasPending(String username) {
+		return username.equals(this.username) && !pending.isEmpty();
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the intraHashes of the operations marked as failed
+	 */
+	public Set<String> getFailed() {
+		return Collections.unmodifiableSet(failed);
+	}
+
+	/**
+	 * Computes the plan of the remaining operations. The delete bucket holds
+	 * posts which only carry their intraHash.
+	 *
+	 * @return the plan, or null if a post to create or update is no longer in
+	 *         the file entries as it was planned
+	 */
+	public SyncPlan resume(List<Post<BibTex>> fileEntries) {
+		Map<String, Post<BibTex>> fileIndex = new HashMap<String, Post<BibTex>>();
+		for (Post<BibTex> post : fileEntries) {
+			fileIndex.putIfAbsent(post.getResource().getIntraHash(), post);
+		}
+
+		SyncPlan plan = new SyncPlan();
+		for (Planned op : planned.values()) {
+			if (!pending.containsKey(op.hash))
+				continue;
+			if (op.operation == Operation.DELETE) {
+				BibTex bibtex = new BibTex();
+				bibtex.setIntraHash(op.hash);
+				Post<BibTex> post = new Post<BibTex>();
+				post.setResource(bibtex);
+				plan.getDelete().add(post);
+				continue;
+			}
+
+			Post<BibTex> post = fileIndex.get(op.hash);
+			if (post == null || !PostFingerprint.of(post).equals(op.fingerprint))
+				return null;
+			if (op.operation == Operation.CREATE)
+				plan.getAdd().add(post);
+			else
+				plan.getUpdate().add(post);
+		}
+		return plan;
+	}
+
+	/**
+	 * Records the operations completed before the interruption in the store.
+	 */
+	public void replayDone(SyncStateStore store) {
+		for (Planned op : planned.values()) {
+			if (pending.containsKey(op.hash) || failed.contains(op.hash))
+				continue;
+			if (op.operation == Operation.DELETE)
+				store.forget(op.hash);
+			else
+				store.record(op.hash, op.fingerprint);
+		}
+	}
+
+	/**
+	 * Replaces the journal by the operations of the given plan and forces it to
+	 * disk.
+	 */
+	public synchronized void begin(String username, SyncPlan plan) throws IOException {
+		close();
+		this.username = username;
+		planned.clear();
+		pending.clear();
+		failed.clear();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(username);
+		for (Post<BibTex> post : plan.getAdd()) {
+			plan(out, Operation.CREATE, post.getResource().getIntraHash(), PostFingerprint.of(post));
+		}
+		for (Post<BibTex> post : plan.getUpdate()) {
+			plan(out, Operation.UPDATE, post.getResource().getIntraHash(), PostFingerprint.of(post));
+		}
+		for (Post<BibTex> post : plan.getDelete()) {
+			plan(out, Operation.DELETE, post.getResource().getIntraHash(), "");
+		}
+		out.flush();
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		write(bytes.toByteArray());
+		channel.force(true);
+	}
+
+	/**
+	 * Continues the journal read by {@link #open(Path)}, after dropping a torn
+	 * record at its end.
+	 */
+	public synchronized void reopen() throws IOException {
+		close();
+		channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		channel.truncate(length);
+		channel.position(length);
+	}
+
+	private void plan(DataOutputStream out, Operation operation, String hash,
+			String fingerprint) throws IOException {
+		out.writeByte(PLANNED);
+		out.writeUTF(hash);
+		out.writeByte(operation.ordinal());
+		out.writeUTF(fingerprint);
+		Planned op = new Planned(operation, hash, fingerprint);
+		planned.put(hash, op);
+		pending.put(hash, op);
+	}
+
+	/**
+	 * Marks the operation on the post with the given intraHash as completed.
+	 */
+	public void done(String intraHash) {
+		if (pending.remove(intraHash) != null)
+			mark(DONE, intraHash);
+	}
+
+	/**
+	 * Marks the operation on the post with the given intraHash as given up,
+	 * it is not resumed.
+	 */
+	public void failed(String intraHash) {
+		if (pending.remove(intraHash) == null)
+			return;
+		failed.add(intraHash);
+		mark(FAILED, intraHash);
+	}
+
+	private void mark(byte type, String intraHash) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(type);
+			out.writeUTF(intraHash);
+			out.flush();
+			synchronized (this) {
+				write(bytes.toByteArray());
+			}
+		} catch (IOException e) {
+			// the operation is repeated by a resumed sync
+			log.warn("Could not mark " + intraHash + " in " + file, e);
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Closes the journal and deletes it if all operations are done.
+	 */
+	public synchronized void finish() throws IOException {
+		close();
+		if (pending.isEmpty())
+			Files.deleteIfExists(file);
+		else
+			log.info(pending.size() + " operations remain in " + file + " for the next sync");
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private static final class Planned {
+
+		private final Operation operation;
+
+		private final String hash;
+
+		private final String fingerprint;
+
+		private Planned(Operation operation, String hash, String fingerprint) {
+			this.operation = operation;
+			this.hash = hash;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Loads a BibTeX file by splitting it into chunks of entries, which are
+ * parsed and hashed on a fork-join pool. The contexts of the entries, i.e.
+ * the definitions they use and the entries they cross reference, are taken
+ * while splitting, see {@link BibTeXEntryParser}, so cross references are
+ * resolved across chunks. The posts are returned in file order and are the
+ * same as with a sequential load.
+ */
+public class ParallelBibTeXLoader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64;
+
+	/**
+	 * Entries with the contexts they are parsed with.
+	 */
+	private static class Chunk {
+
+		private final List<BibTeXEntryReader.Entry> entries = new ArrayList<BibTeXEntryReader.Entry>();
+
+		private final List<String> contexts = new ArrayList<String>();
+	}
+
+	private final int parallelism;
+
+	private final int chunkSize;
+
+	public ParallelBibTeXLoader(int parallelism, int chunkSize) {
+		if (parallelism < 1 || chunkSize < 1)
+			throw new IllegalArgumentException(
+					"parallelism and chunk size must be positive");
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+	}
+
+	public ParallelBibTeXLoader(int parallelism) {
+		this(parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	public List<Post<BibTex>> load(Path file) throws IOException {
+		BibTeXEntryParser parser = BibTeXEntryParser.forFile(file);
+		List<Chunk> chunks = split(file, parser);
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			// a parallel stream keeps the encounter order when collecting
+			List<List<Post<BibTex>>> parsed = pool.submit(
+					() -> chunks.parallelStream().map(chunk -> parse(parser, chunk))
+							.collect(Collectors.toList())).get();
+
+			List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+			for (List<Post<BibTex>> chunkPosts : parsed) {
+				posts.addAll(chunkPosts);
+			}
+			return posts;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while parsing " + file, e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error occured:" + e.getCause().getMessage(),
+					e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private List<Chunk> split(Path file, BibTeXEntryParser parser) throws IOException {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		Chunk chunk = null;
+
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(file)) {
+			BibTeXEntryReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (entry.isComment())
+					continue;
+				if (entry.isDefinition()) {
+					parser.define(entry);
+					continue;
+				}
+				if (chunk == null || chunk.entries.size() == chunkSize) {
+					chunk = new Chunk();
+					chunks.add(chunk);
+				}
+				chunk.entries.add(entry);
+				chunk.contexts.add(parser.context(entry));
+			}
+		}
+		return chunks;
+	}
+
+	private static List<Post<BibTex>> parse(BibTeXEntryParser parser, Chunk chunk) {
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		for (int i = 0; i < chunk.entries.size(); i++) {
+			posts.addAll(parser.parse(chunk.entries.get(i), chunk.contexts.get(i)));
+		}
+		return posts;
+	}
+}
@@ -0,0 +1,407 @@
+package org.aksw.bibuploader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.bibtex.parser.PostBibTeXParser;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Group;
+import org.bibsonomy.model.PersonName;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.Tag;
+
+/**
+ * Remembers the posts parsed from each BibTeX entry, keyed by the SHA-1 of the
+ * entry's text and of the context it is parsed with, i.e. the definitions it
+ * uses and the entry it cross references, both with whitespace runs collapsed.
+ * A load of the bibliography then only parses new or changed entries.
+ *
+ * The cache is kept in a binary file, usually next to the bibliography: a
+ * header, then the 20 byte key and the posts of every entry. A post is written
+ * field by field: its description, tags and groups, then the fields of its
+ * {@link BibTex} in the order of {@link #FIELDS}, the persons and the misc
+ * fields. A cache written by another version of the parser is discarded.
+ *
+ * Cached posts are handed out once per load; a second entry with the same key
+ * is parsed again, so no two entries share post objects.
+ */
+public class ParseCache {
+
+	private static final int MAGIC = 0x42495043; // "BIPC"
+
+	private static final int VERSION = 2;
+
+	/**
+	 * The string fields of a {@link BibTex} as written to the cache.
+	 */
+	private static final List<StringField> FIELDS = Arrays.asList(
+			new StringField(BibTex::getIntraHash, BibTex::setIntraHash),
+			new StringField(BibTex::getInterHash, BibTex::setInterHash),
+			new StringField(BibTex::getEntrytype, BibTex::setEntrytype),
+			new StringField(BibTex::getBibtexKey, BibTex::setBibtexKey),
+			new StringField(BibTex::getTitle, BibTex::setTitle),
+			new StringField(BibTex::getYear, BibTex::setYear),
+			new StringField(BibTex::getMonth, BibTex::setMonth),
+			new StringField(BibTex::getDay, BibTex::setDay),
+			new StringField(BibTex::getJournal, BibTex::setJournal),
+			new StringField(BibTex::getBooktitle, BibTex::setBooktitle),
+			new StringField(BibTex::getSeries, BibTex::setSeries),
+			new StringField(BibTex::getVolume, BibTex::setVolume),
+			new StringField(BibTex::getNumber, BibTex::setNumber),
+			new StringField(BibTex::getChapter, BibTex::setChapter),
+			new StringField(BibTex::getPages, BibTex::setPages),
+			new StringField(BibTex::getEdition, BibTex::setEdition),
+			new StringField(BibTex::getPublisher, BibTex::setPublisher),
+			new StringField(BibTex::getAddress, BibTex::setAddress),
+			new StringField(BibTex::getOrganization, BibTex::setOrganization),
+			new StringField(BibTex::getInstitution, BibTex::setInstitution),
+			new StringField(BibTex::getSchool, BibTex::setSchool),
+			new StringField(BibTex::getHowpublished, BibTex::setHowpublished),
+			new StringField(BibTex::getType, BibTex::setType),
+			new StringField(BibTex::getKey, BibTex::setKey),
+			new StringField(BibTex::getCrossref, BibTex::setCrossref),
+			new StringField(BibTex::getNote, BibTex::setNote),
+			new StringField(BibTex::getAnnote, BibTex::setAnnote),
+			new StringField(BibTex::getPrivnote, BibTex::setPrivnote),
+			new StringField(BibTex::getUrl, BibTex::setUrl),
+			new StringField(BibTex::getAbstract, BibTex::setAbstract),
+			new StringField(BibTex::getMisc, BibTex::setMisc));
+
+	private static Log log = LogFactory.getLog(ParseCache.class);
+
+	private final Path file;
+
+	// posts by key, as read from the file
+	private final Map<String, List<Post<BibTex>>> cached = new HashMap<String, List<Post<BibTex>>>();
+
+	// posts by key, as seen by this load
+	private final Map<String, List<Post<BibTex>>> current = new LinkedHashMap<String, List<Post<BibTex>>>();
+
+	private int hits;
+
+	private int misses;
+
+	private ParseCache(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the cache kept in the given file, which is empty if the file does
+	 *         not exist or cannot be read
+	 */
+	public static ParseCache load(Path file) {
+		ParseCache cache = new ParseCache(file);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| !parserVersion().equals(in.readUTF())) {
+				log.info("Ignoring parse cache of another format or parser: " + file);
+				return cache;
+			}
+			int size = in.readInt();
+			byte[] key = new byte[20];
+			for (int i = 0; i < size; i++) {
+				in.readFully(key);
+				int count = in.readInt();
+				List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>(count);
+				for (int j = 0; j < count; j++) {
+					posts.add(readPost(in));
+				}
+				cache.cached.put(hex(key), posts);
+			}
+		} catch (NoSuchFileException e) {
+			log.info("No parse cache found at " + file);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Ignoring unreadable parse cache: " + file, e);
+			cache.cached.clear();
+		}
+		return cache;
+	}
+
+	/**
+	 * @return the posts of the entry, or null if it has to be parsed
+	 */
+	public List<Post<BibTex>> get(String key) {
+		if (current.containsKey(key)) {
+			misses++;
+			return null;
+		}
+		List<Post<BibTex>> posts = cached.remove(key);
+		if (posts == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		current.put(key, posts);
+		return posts;
+	}
+
+	/**
+	 * Records the freshly parsed posts of an entry. They are written as they
+	 * are by the next {@link #save()}.
+	 */
+	public void put(String key, List<Post<BibTex>> posts) {
+		current.putIfAbsent(key, posts);
+	}
+
+	/**
+	 * Writes the entries seen since the cache was loaded, dropping the others.
+	 * The posts must not have been modified since, so the cache is best saved
+	 * right after loading the bibliography.
+	 */
+	public void save() throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(parserVersion());
+			out.writeInt(current.size());
+			for (Map.Entry<String, List<Post<BibTex>>> entry : current.entrySet()) {
+				out.write(unhex(entry.getKey()));
+				out.writeInt(entry.getValue().size());
+				for (Post<BibTex> post : entry.getValue()) {
+					writePost(out, post);
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writePost(DataOutputStream out, Post<BibTex> post) throws IOException {
+		writeString(out, post.getDescription());
+		List<String> names = new ArrayList<String>();
+		if (post.getTags() != null) {
+			for (Tag tag : post.getTags()) {
+				names.add(tag.getName());
+			}
+		}
+		writeStrings(out, names);
+		names.clear();
+		if (post.getGroups() != null) {
+			for (Group group : post.getGroups()) {
+				names.add(group.getName());
+			}
+		}
+		writeStrings(out, names);
+
+		BibTex bibtex = post.getResource();
+		for (StringField field : FIELDS) {
+			writeString(out, field.get.apply(bibtex));
+		}
+		writePersons(out, bibtex.getAuthor());
+		writePersons(out, bibtex.getEditor());
+		Map<String, String> misc = bibtex.getMiscFields() == null
+				? Collections.<String, String> emptyMap() : bibtex.getMiscFields();
+		out.writeInt(misc.size());
+		for (Map.Entry<String, String> field : misc.entrySet()) {
+			writeString(out, field.getKey());
+			writeString(out, field.getValue());
+		}
+	}
+
+	private static Post<BibTex> readPost(DataInputStream in) throws IOException {
+		Post<BibTex> post = new Post<BibTex>();
+		post.setDescription(readString(in));
+		for (String tag : readStrings(in)) {
+			post.addTag(tag);
+		}
+		Set<Group> groups = new HashSet<Group>();
+		for (String group : readStrings(in)) {
+			groups.add(new Group(group));
+		}
+		post.setGroups(groups);
+
+		BibTex bibtex = new BibTex();
+		for (StringField field : FIELDS) {
+			field.set.accept(bibtex, readString(in));
+		}
+		bibtex.setAuthor(readPersons(in));
+		bibtex.setEditor(readPersons(in));
+		int size = in.readInt();
+		if (size > 0) {
+			Map<String, String> misc = new LinkedHashMap<String, String>();
+			for (int i = 0; i < size; i++) {
+				misc.put(readString(in), readString(in));
+			}
+			bibtex.setMiscFields(misc);
+		}
+		post.setResource(bibtex);
+		return post;
+	}
+
+	private static void writePersons(DataOutputStream out, List<PersonName> persons) throws IOException {
+		if (persons == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(persons.size());
+		for (PersonName person : persons) {
+			writeString(out, person.getFirstName());
+			writeString(out, person.getLastName());
+		}
+	}
+
+	private static List<PersonName> readPersons(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		if (size < 0)
+			return null;
+		List<PersonName> persons = new ArrayList<PersonName>(size);
+		for (int i = 0; i < size; i++) {
+			PersonName person = new PersonName();
+			person.setFirstName(readString(in));
+			person.setLastName(readString(in));
+			persons.add(person);
+		}
+		return persons;
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String string : strings) {
+			writeString(out, string);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<String> strings = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			strings.add(readString(in));
+		}
+		return strings;
+	}
+
+	// length prefixed UTF-8, as writeUTF is limited to 64k, -1 for null
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the key of the context of an entry, see
+	 *         {@link BibTeXEntryParser#context(BibTeXEntryReader.Entry)}
+	 */
+	public static String scope(CharSequence definitions) {
+		return hex(sha1(normalize(definitions)));
+	}
+
+	/**
+	 * @return the key of an entry parsed with the definitions of the given
+	 *         {@link #scope(CharSequence)} in scope
+	 */
+	public static String key(String scope, String entryText) {
+		return hex(sha1(scope + '\0' + normalize(entryText)));
+	}
+
+	private static byte[] sha1(String text) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	private static String normalize(CharSequence text) {
+		StringBuilder normalized = new StringBuilder(text.length());
+		boolean space = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = normalized.length() > 0;
+			} else {
+				if (space)
+					normalized.append(' ');
+				space = false;
+				normalized.append(c);
+			}
+		}
+		return normalized.toString();
+	}
+
+	private static String parserVersion() {
+		String version = PostBibTeXParser.class.getPackage() == null ? null
+				: PostBibTeXParser.class.getPackage().getImplementationVersion();
+		return version == null ? "unknown" : version;
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] unhex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static final class StringField {
+
+		private final Function<BibTex, String> get;
+
+		private final BiConsumer<BibTex, String> set;
+
+		private StringField(Function<BibTex, String> get, BiConsumer<BibTex, String> set) {
+			this.get = get;
+			this.set = set;
+		}
+	}
+
+	/**
+	 * @return the number of entries taken from the cache so far
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of entries which had to be parsed so far
+	 */
+	public int getMisses() {
+		return misses;
+	}
+}
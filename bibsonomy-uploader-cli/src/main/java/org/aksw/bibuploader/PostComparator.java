@@ -0,0 +1,28 @@
+package org.aksw.bibuploader;
+
+import java.util.function.BiPredicate;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Decides whether an account post is up to date with a file post by comparing
+ * their canonical forms as built by {@link PostFingerprint}: the bibtex
+ * fields, the tags and the description, normalized as the server keeps them.
+ * Groups, user, dates and the identity of the resource objects are not part
+ * of the comparison.
+ */
+public class PostComparator implements BiPredicate<Post<BibTex>, Post<BibTex>> {
+
+	@Override
+	public boolean test(Post<BibTex> accountEntry, Post<BibTex> filePost) {
+		return isSame(accountEntry, filePost);
+	}
+
+	public boolean isSame(Post<BibTex> accountEntry, Post<BibTex> filePost) {
+		if (accountEntry == filePost)
+			return true;
+		return PostFingerprint.canonicalForm(accountEntry).equals(
+				PostFingerprint.canonicalForm(filePost));
+	}
+}
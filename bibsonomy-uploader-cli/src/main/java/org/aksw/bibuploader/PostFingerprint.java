@@ -0,0 +1,272 @@
+package org.aksw.bibuploader;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.PersonName;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.Tag;
+
+/**
+ * Builds a stable textual form of the content of a post, i.e. its tags, its
+ * description, the fields of its {@link BibTex} in {@link #FIELDS}, its
+ * authors, editors and misc fields, and a fingerprint hashed from it. Two
+ * posts with the same content have the same fingerprint no matter which
+ * groups, user or dates they carry.
+ *
+ * The form is that of the post as the server keeps it: whitespace runs in
+ * values are collapsed, system tags are left out and the misc fields are
+ * compared one by one, without those the server generates on export.
+ *
+ * Fields of the model not listed are not part of the form, so a newer model
+ * does not change the fingerprints kept by {@link SyncStateStore} and
+ * {@link OperationJournal}; a change of the form has to bump their versions.
+ */
+public final class PostFingerprint {
+
+	/**
+	 * The fields of a {@link BibTex} compared, leaving out its hashes, which
+	 * the server computes from them, and the misc string, which is compared
+	 * as the fields of {@link #miscFields(BibTex)}.
+	 */
+	private static final List<ContentField> FIELDS = Arrays.asList(
+			new ContentField("entrytype", BibTex::getEntrytype),
+			new ContentField("bibtexKey", BibTex::getBibtexKey),
+			new ContentField("title", BibTex::getTitle),
+			new ContentField("year", BibTex::getYear),
+			new ContentField("month", BibTex::getMonth),
+			new ContentField("day", BibTex::getDay),
+			new ContentField("journal", BibTex::getJournal),
+			new ContentField("booktitle", BibTex::getBooktitle),
+			new ContentField("series", BibTex::getSeries),
+			new ContentField("volume", BibTex::getVolume),
+			new ContentField("number", BibTex::getNumber),
+			new ContentField("chapter", BibTex::getChapter),
+			new ContentField("pages", BibTex::getPages),
+			new ContentField("edition", BibTex::getEdition),
+			new ContentField("publisher", BibTex::getPublisher),
+			new ContentField("address", BibTex::getAddress),
+			new ContentField("organization", BibTex::getOrganization),
+			new ContentField("institution", BibTex::getInstitution),
+			new ContentField("school", BibTex::getSchool),
+			new ContentField("howpublished", BibTex::getHowpublished),
+			new ContentField("type", BibTex::getType),
+			new ContentField("key", BibTex::getKey),
+			new ContentField("crossref", BibTex::getCrossref),
+			new ContentField("note", BibTex::getNote),
+			new ContentField("annote", BibTex::getAnnote),
+			new ContentField("privnote", BibTex::getPrivnote),
+			new ContentField("url", BibTex::getUrl),
+			new ContentField("abstract", BibTex::getAbstract));
+
+	/**
+	 * Misc fields the server adds to every exported entry and drops on import.
+	 */
+	private static final Set<String> SERVER_MISC_FIELDS = new HashSet<String>(
+			Arrays.asList("biburl", "intrahash", "interhash", "added-at",
+					"timestamp", "keywords", "description"));
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private PostFingerprint() {
+	}
+
+	/**
+	 * @return the SHA-1 of the canonical form as hex string
+	 */
+	public static String of(Post<BibTex> post) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(canonicalForm(post).getBytes(
+					StandardCharsets.UTF_8));
+			char[] hex = new char[hash.length * 2];
+			for (int i = 0; i < hash.length; i++) {
+				hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[hash[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	public static String canonicalForm(Post<BibTex> post) {
+		StringBuilder out = new StringBuilder(512);
+
+		List<String> tags = new ArrayList<String>();
+		if (post.getTags() != null) {
+			for (Tag tag : post.getTags()) {
+				// actions run by the server, which may add or consume them
+				if (!isSystemTag(tag.getName()))
+					tags.add(tag.getName());
+			}
+		}
+		// posts without tags are uploaded with this tag
+		if (tags.isEmpty())
+			tags.add("nokeyword");
+		Collections.sort(tags);
+		out.append("tags");
+		appendStrings(out, tags);
+		out.append("description");
+		appendString(out, post.getDescription());
+
+		BibTex bibtex = post.getResource();
+		if (bibtex == null) {
+			out.append("resource-");
+			return out.toString();
+		}
+		for (ContentField field : FIELDS) {
+			out.append(field.name);
+			appendString(out, field.get.apply(bibtex));
+		}
+		out.append("author");
+		appendPersons(out, bibtex.getAuthor());
+		out.append("editor");
+		appendPersons(out, bibtex.getEditor());
+		out.append("misc");
+		Map<String, String> misc = miscFields(bibtex);
+		out.append('{').append(misc.size()).append(':');
+		for (Map.Entry<String, String> field : misc.entrySet()) {
+			appendString(out, field.getKey());
+			appendString(out, field.getValue());
+		}
+		return out.toString();
+	}
+
+	private static boolean isSystemTag(String name) {
+		String lower = name.toLowerCase(Locale.ENGLISH);
+		return lower.startsWith("sys:") || lower.startsWith("system:");
+	}
+
+	/**
+	 * @return the misc fields by lower case name, taken from the parsed map or
+	 *         else from the misc string, which the server formats its own way
+	 */
+	static Map<String, String> miscFields(BibTex bibtex) {
+		Map<String, String> fields = new TreeMap<String, String>();
+		if (bibtex.getMiscFields() != null && !bibtex.getMiscFields().isEmpty()) {
+			for (Map.Entry<String, String> field : bibtex.getMiscFields().entrySet()) {
+				fields.put(field.getKey().trim().toLowerCase(Locale.ENGLISH), field.getValue());
+			}
+		} else if (bibtex.getMisc() != null) {
+			parseMisc(bibtex.getMisc(), fields);
+		}
+		fields.keySet().removeAll(SERVER_MISC_FIELDS);
+		return fields;
+	}
+
+	/**
+	 * Reads <code>name = {value}</code> pairs separated by commas, the values
+	 * may also be quoted or bare.
+	 */
+	private static void parseMisc(String misc, Map<String, String> fields) {
+		int i = 0;
+		int length = misc.length();
+		while (i < length) {
+			int equals = misc.indexOf('=', i);
+			if (equals < 0)
+				return;
+			String name = misc.substring(i, equals).replace(",", "").trim()
+					.toLowerCase(Locale.ENGLISH);
+			i = equals + 1;
+			while (i < length && Character.isWhitespace(misc.charAt(i)))
+				i++;
+			int start = i;
+			String value;
+			if (i < length && misc.charAt(i) == '{') {
+				int depth = 0;
+				do {
+					char c = misc.charAt(i++);
+					if (c == '{')
+						depth++;
+					else if (c == '}')
+						depth--;
+				} while (depth > 0 && i < length);
+				value = misc.substring(start + 1, depth == 0 ? i - 1 : i);
+			} else if (i < length && misc.charAt(i) == '"') {
+				int end = misc.indexOf('"', i + 1);
+				if (end < 0)
+					end = length;
+				value = misc.substring(start + 1, end);
+				i = Math.min(end + 1, length);
+			} else {
+				while (i < length && misc.charAt(i) != ',')
+					i++;
+				value = misc.substring(start, i).trim();
+			}
+			if (!name.isEmpty())
+				fields.put(name, value);
+		}
+	}
+
+	private static void appendPersons(StringBuilder out, List<PersonName> persons) {
+		if (persons == null) {
+			out.append('-');
+			return;
+		}
+		// the order of the persons is part of the entry
+		out.append('[').append(persons.size()).append(':');
+		for (PersonName person : persons) {
+			appendString(out, person.getFirstName());
+			appendString(out, person.getLastName());
+		}
+	}
+
+	private static void appendStrings(StringBuilder out, List<String> values) {
+		out.append('[').append(values.size()).append(':');
+		for (String value : values) {
+			appendString(out, value);
+		}
+	}
+
+	private static void appendString(StringBuilder out, String value) {
+		if (value == null) {
+			out.append('-');
+			return;
+		}
+		value = collapseWhitespace(value);
+		// the length prefix keeps adjacent values apart
+		out.append('"').append(value.length()).append(':').append(value);
+	}
+
+	private static String collapseWhitespace(String value) {
+		StringBuilder collapsed = new StringBuilder(value.length());
+		boolean space = false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = collapsed.length() > 0;
+			} else {
+				if (space)
+					collapsed.append(' ');
+				space = false;
+				collapsed.append(c);
+			}
+		}
+		return collapsed.toString();
+	}
+
+	private static final class ContentField {
+
+		private final String name;
+
+		private final Function<BibTex, String> get;
+
+		private ContentField(String name, Function<BibTex, String> get) {
+			this.name = name;
+			this.get = get;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.aksw.bibuploader;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Computes a {@link SyncPlan} for the file entries (F) and the account entries
+ * (B) by indexing the file entries by their intraHash once and passing over the
+ * account entries, so the plan is built in time linear in |F| + |B|.
+ */
+public class Reconciler {
+
+	private final BiPredicate<Post<BibTex>, Post<BibTex>> sameCheck;
+
+	private Consumer<Post<BibTex>> accountListener;
+
+	/**
+	 * @param sameCheck
+	 *            decides whether an account post (first argument) is up to
+	 *            date with the file post sharing its intraHash (second
+	 *            argument)
+	 */
+	public Reconciler(BiPredicate<Post<BibTex>, Post<BibTex>> sameCheck) {
+		this.sameCheck = sameCheck;
+	}
+
+	/**
+	 * @param accountListener
+	 *            called with every account post as it is read, or null
+	 */
+	public void setAccountListener(Consumer<Post<BibTex>> accountListener) {
+		this.accountListener = accountListener;
+	}
+
+	/**
+	 * The file entries are expected to be free of duplicates, if an intraHash
+	 * occurs more than once only its first occurrence is considered.
+	 */
+	public SyncPlan reconcile(List<Post<BibTex>> fileEntries,
+			List<Post<BibTex>> accountEntries) {
+		return reconcile(fileEntries, accountEntries.iterator());
+	}
+
+	/**
+	 * Reconciles with an account which is read only once and never held in
+	 * memory as a whole, only the posts to delete are kept.
+	 */
+	public SyncPlan reconcile(List<Post<BibTex>> fileEntries,
+			Iterator<Post<BibTex>> accountEntries) {
+		SyncPlan plan = new SyncPlan();
+
+		// first occurrence wins on both sides
+		Map<String, Post<BibTex>> fileIndex = new HashMap<String, Post<BibTex>>(
+				capacity(fileEntries.size()));
+		for (Post<BibTex> post : fileEntries) {
+			fileIndex.putIfAbsent(intraHash(post), post);
+		}
+
+		Map<String, Boolean> same = new HashMap<String, Boolean>(
+				capacity(fileEntries.size()));
+		while (accountEntries.hasNext()) {
+			Post<BibTex> post = accountEntries.next();
+			if (accountListener != null)
+				accountListener.accept(post);
+			String hash = intraHash(post);
+			Post<BibTex> filePost = fileIndex.get(hash);
+			if (filePost == null) {
+				// present in B, not in F
+				plan.getDelete().add(post);
+			} else if (!same.containsKey(hash)) {
+				same.put(hash, sameCheck.test(post, filePost));
+			}
+		}
+
+		Set<String> planned = new HashSet<String>(capacity(fileEntries.size()));
+		for (Post<BibTex> post : fileEntries) {
+			String hash = intraHash(post);
+			if (!planned.add(hash))
+				continue;
+
+			Boolean isSame = same.get(hash);
+			if (isSame == null) {
+				// present in F, not in B
+				plan.getAdd().add(post);
+			} else if (isSame) {
+				plan.getUnchanged().add(post);
+			} else {
+				plan.getUpdate().add(post);
+			}
+		}
+
+		return plan;
+	}
+
+	private static String intraHash(Post<BibTex> post) {
+		return post.getResource().getIntraHash();
+	}
+
+	private static int capacity(int expectedSize) {
+		return Math.max(16, (int) (expectedSize / 0.75f) + 1);
+	}
+}
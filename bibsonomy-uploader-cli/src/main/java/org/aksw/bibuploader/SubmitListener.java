@@ -0,0 +1,20 @@
+package org.aksw.bibuploader;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Receives the outcome of every single post handed to a
+ * {@link BatchSubmitter}.
+ */
+public interface SubmitListener {
+
+	void succeeded(Post<BibTex> post);
+
+	/**
+	 * @param cause
+	 *            the exception thrown by the server, or null if the post was
+	 *            silently dropped from the response
+	 */
+	void failed(Post<BibTex> post, Exception cause);
+}
@@ -1,20 +1,29 @@
 package org.aksw.bibuploader;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Collects the outcome of a sync. All methods may be called concurrently by
+ * the write workers.
+ */
 public class Summary {
 	private Set<String> duplicates;
-	private int sucAdded;
+	private AtomicInteger sucAdded = new AtomicInteger();
 	private Set<String> failedAdditions;
-	private int noUpdated;
-	private int noRemoved;
+	private AtomicInteger noUpdated = new AtomicInteger();
+	private AtomicInteger failedUpdates = new AtomicInteger();
+	private volatile int noRemoved;
 	private Set<String> noTagEntries;
+	private Set<String> failedPosts;
+	private final SyncMetrics metrics = new SyncMetrics();
 
 	public Summary() {
-		duplicates = new HashSet<String>();
-		failedAdditions = new HashSet<String>();
-		noTagEntries = new HashSet<String>();
+		duplicates = ConcurrentHashMap.newKeySet();
+		failedAdditions = ConcurrentHashMap.newKeySet();
+		noTagEntries = ConcurrentHashMap.newKeySet();
+		failedPosts = ConcurrentHashMap.newKeySet();
 	}
 
 	public String toString() {
@@ -30,11 +39,12 @@ public class Summary {
 		builder.append("\nSummary:\n");
 		builder.append(duplicates.size()).append("\tDuplicates found in the given file (see titles above)\n");
 		builder.append(noTagEntries.size()).append("\tPosts without keywords in the given file (see titles above)\n");
-		builder.append(sucAdded).append("\tPapers were added to bibsonomy\n");
+		builder.append(sucAdded.get()).append("\tPapers were added to bibsonomy\n");
 		builder.append(failedAdditions.size()).append("\tPapers couldn't be added\n");
 		
 		builder.append(noRemoved).append("\tPapers were deleted from bibsonomy\n");
-		builder.append(noUpdated).append("\tPapers were updated\n\n");
+		builder.append(noUpdated.get()).append("\tPapers were updated\n");
+		builder.append(failedUpdates.get()).append("\tPapers couldn't be updated\n\n");
 
 		return builder.toString();
 	}
@@ -48,7 +58,7 @@ public class Summary {
 	}
 
 	public void addSucAdd() {
-		sucAdded++;
+		sucAdded.incrementAndGet();
 	}
 
 	public void addFailAdd(String failed) {
@@ -56,10 +66,71 @@ public class Summary {
 	}
 
 	public void addUpdate() {
-		noUpdated++;
+		noUpdated.incrementAndGet();
+	}
+
+	public void addFailUpdate() {
+		failedUpdates.incrementAndGet();
+	}
+
+	/**
+	 * Records the intraHash of a post which could not be added, updated or
+	 * deleted.
+	 */
+	public void addFailedPost(String intraHash) {
+		failedPosts.add(intraHash);
 	}
 
 	public void setRemoved(int removed) {
 		noRemoved = removed;
 	}
+
+	public int getAdded() {
+		return sucAdded.get();
+	}
+
+	public int getFailedAdditions() {
+		return failedAdditions.size();
+	}
+
+	public int getUpdated() {
+		return noUpdated.get();
+	}
+
+	public int getFailedUpdates() {
+		return failedUpdates.get();
+	}
+
+	public int getRemoved() {
+		return noRemoved;
+	}
+
+	/**
+	 * @return the intraHashes of the posts the account does not hold as
+	 *         planned
+	 */
+	public Set<String> getFailedPosts() {
+		return failedPosts;
+	}
+
+	/**
+	 * @return the timings of the sync
+	 */
+	public SyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Copies the counts into the metrics, so they are exported with the
+	 * timings.
+	 */
+	void exportCounts() {
+		metrics.setCount("added", sucAdded.get());
+		metrics.setCount("failed_additions", failedAdditions.size());
+		metrics.setCount("updated", noUpdated.get());
+		metrics.setCount("failed_updates", failedUpdates.get());
+		metrics.setCount("removed", noRemoved);
+		metrics.setCount("duplicates", duplicates.size());
+		metrics.setCount("without_keywords", noTagEntries.size());
+	}
 }
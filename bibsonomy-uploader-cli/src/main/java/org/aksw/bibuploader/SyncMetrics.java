@@ -0,0 +1,341 @@
+package org.aksw.bibuploader;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bibsonomy.model.logic.LogicInterface;
+
+/**
+ * Records where a sync spends its time: the wall time of each phase and a
+ * latency histogram per API call. The results are exported as JSON or in the
+ * Prometheus text format, e.g. for the textfile collector of the node
+ * exporter. All methods may be called concurrently by the write workers.
+ */
+public class SyncMetrics {
+
+	public static final String PARSE = "parse";
+
+	// downloading the account and comparing, which are interleaved
+	public static final String RECONCILE = "reconcile";
+
+	// the part of reconcile spent comparing posts
+	public static final String COMPARE = "compare";
+
+	public static final String WRITE = "write";
+
+	public static final List<String> CALLS = Collections.unmodifiableList(Arrays.asList(
+			"getPosts", "createPosts", "updatePosts", "deletePosts"));
+
+	// upper bounds in seconds, as used by Prometheus
+	private static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1,
+			0.25, 0.5, 1, 2.5, 5, 10, 30 };
+
+	private final Map<String, LongAdder> phases = Collections.synchronizedMap(new LinkedHashMap<String, LongAdder>());
+
+	private final Map<String, Histogram> calls = new ConcurrentHashMap<String, Histogram>();
+
+	private final Map<String, Long> counts = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	/**
+	 * Adds the time spent in the given phase, a phase may be entered several
+	 * times.
+	 */
+	public void addPhaseTime(String phase, long nanos) {
+		LongAdder adder;
+		synchronized (phases) {
+			adder = phases.computeIfAbsent(phase, key -> new LongAdder());
+		}
+		adder.add(nanos);
+	}
+
+	public <T> T time(String phase, Callable<T> task) throws Exception {
+		long start = System.nanoTime();
+		try {
+			return task.call();
+		} finally {
+			addPhaseTime(phase, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return the nanoseconds spent in the given phase so far
+	 */
+	public long getPhaseTime(String phase) {
+		LongAdder adder = phases.get(phase);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	public void recordCall(String call, long nanos, boolean failed) {
+		calls.computeIfAbsent(call, key -> new Histogram()).record(nanos, failed);
+	}
+
+	/**
+	 * @return the number of recorded calls of the given method
+	 */
+	public long getCallCount(String call) {
+		Histogram histogram = calls.get(call);
+		return histogram == null ? 0 : histogram.count.sum();
+	}
+
+	/**
+	 * Sets an outcome count exported along with the timings, e.g. the number of
+	 * added posts.
+	 */
+	public void setCount(String name, long value) {
+		counts.put(name, value);
+	}
+
+	/**
+	 * @return a logic timing each call of {@link #CALLS} into this
+	 */
+	public LogicInterface instrument(final LogicInterface logic) {
+		return (LogicInterface) Proxy.newProxyInstance(
+				LogicInterface.class.getClassLoader(),
+				new Class<?>[] { LogicInterface.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						boolean timed = CALLS.contains(method.getName());
+						long start = System.nanoTime();
+						boolean failed = true;
+						try {
+							Object result = method.invoke(logic, args);
+							failed = false;
+							return result;
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						} finally {
+							if (timed)
+								recordCall(method.getName(), System.nanoTime() - start, failed);
+						}
+					}
+				});
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+		String separator = "";
+		synchronized (phases) {
+			for (Map.Entry<String, LongAdder> phase : phases.entrySet()) {
+				json.append(separator).append("\n    \"").append(phase.getKey()).append("\": ")
+						.append(seconds(phase.getValue().sum()));
+				separator = ",";
+			}
+		}
+		json.append("\n  },\n  \"calls\": {");
+		separator = "";
+		for (String call : CALLS) {
+			Histogram histogram = calls.get(call);
+			if (histogram == null)
+				continue;
+			json.append(separator).append("\n    \"").append(call).append("\": {")
+					.append("\"count\": ").append(histogram.count.sum())
+					.append(", \"failed\": ").append(histogram.failed.sum())
+					.append(", \"sum\": ").append(seconds(histogram.sum.sum()))
+					.append(", \"buckets\": {");
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += histogram.buckets[i].sum();
+				json.append(i == 0 ? "" : ", ").append('"').append(BUCKETS[i]).append("\": ").append(cumulative);
+			}
+			json.append(", \"+Inf\": ").append(histogram.count.sum()).append("}}");
+			separator = ",";
+		}
+		json.append("\n  },\n  \"counts\": {");
+		separator = "";
+		synchronized (counts) {
+			for (Map.Entry<String, Long> count : counts.entrySet()) {
+				json.append(separator).append("\n    \"").append(count.getKey()).append("\": ").append(count.getValue());
+				separator = ",";
+			}
+		}
+		return json.append("\n  }\n}\n").toString();
+	}
+
+	/**
+	 * @param account
+	 *            the value of the <code>account</code> label on every sample
+	 */
+	public String toPrometheus(String account) {
+		return toPrometheus(Collections.singletonMap(account, this));
+	}
+
+	/**
+	 * @param accounts
+	 *            the metrics of each account by the value of its
+	 *            <code>account</code> label
+	 * @return the samples of all accounts, grouped by metric
+	 */
+	public static String toPrometheus(Map<String, SyncMetrics> accounts) {
+		StringBuilder prom = new StringBuilder();
+
+		prom.append("# HELP bibuploader_phase_seconds Wall time spent in each phase of the last sync.\n");
+		prom.append("# TYPE bibuploader_phase_seconds gauge\n");
+		for (Map.Entry<String, SyncMetrics> account : accounts.entrySet()) {
+			account.getValue().appendPhases(prom, label(account.getKey()));
+		}
+
+		prom.append("# HELP bibuploader_call_seconds Latency of the API calls of the last sync.\n");
+		prom.append("# TYPE bibuploader_call_seconds histogram\n");
+		for (Map.Entry<String, SyncMetrics> account : accounts.entrySet()) {
+			account.getValue().appendCalls(prom, label(account.getKey()));
+		}
+
+		prom.append("# HELP bibuploader_call_failures Failed API calls of the last sync.\n");
+		prom.append("# TYPE bibuploader_call_failures gauge\n");
+		for (Map.Entry<String, SyncMetrics> account : accounts.entrySet()) {
+			account.getValue().appendFailures(prom, label(account.getKey()));
+		}
+
+		prom.append("# HELP bibuploader_posts Outcome of the last sync in posts.\n");
+		prom.append("# TYPE bibuploader_posts gauge\n");
+		for (Map.Entry<String, SyncMetrics> account : accounts.entrySet()) {
+			account.getValue().appendCounts(prom, label(account.getKey()));
+		}
+		return prom.toString();
+	}
+
+	private static String label(String account) {
+		return "account=\"" + escape(account) + "\"";
+	}
+
+	private void appendPhases(StringBuilder prom, String label) {
+		synchronized (phases) {
+			for (Map.Entry<String, LongAdder> phase : phases.entrySet()) {
+				prom.append("bibuploader_phase_seconds{").append(label).append(",phase=\"")
+						.append(phase.getKey()).append("\"} ").append(seconds(phase.getValue().sum())).append('\n');
+			}
+		}
+	}
+
+	private void appendCalls(StringBuilder prom, String label) {
+		for (String call : CALLS) {
+			Histogram histogram = calls.get(call);
+			if (histogram == null)
+				continue;
+			String callLabel = label + ",call=\"" + call + "\"";
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += histogram.buckets[i].sum();
+				prom.append("bibuploader_call_seconds_bucket{").append(callLabel).append(",le=\"")
+						.append(BUCKETS[i]).append("\"} ").append(cumulative).append('\n');
+			}
+			prom.append("bibuploader_call_seconds_bucket{").append(callLabel).append(",le=\"+Inf\"} ")
+					.append(histogram.count.sum()).append('\n');
+			prom.append("bibuploader_call_seconds_sum{").append(callLabel).append("} ")
+					.append(seconds(histogram.sum.sum())).append('\n');
+			prom.append("bibuploader_call_seconds_count{").append(callLabel).append("} ")
+					.append(histogram.count.sum()).append('\n');
+		}
+	}
+
+	private void appendFailures(StringBuilder prom, String label) {
+		for (String call : CALLS) {
+			Histogram histogram = calls.get(call);
+			if (histogram != null)
+				prom.append("bibuploader_call_failures{").append(label).append(",call=\"").append(call)
+						.append("\"} ").append(histogram.failed.sum()).append('\n');
+		}
+	}
+
+	private void appendCounts(StringBuilder prom, String label) {
+		synchronized (counts) {
+			for (Map.Entry<String, Long> count : counts.entrySet()) {
+				prom.append("bibuploader_posts{").append(label).append(",outcome=\"").append(count.getKey())
+						.append("\"} ").append(count.getValue()).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * @return a JSON object holding the {@link #toJson()} of each account by
+	 *         its name
+	 */
+	public static String toJson(Map<String, SyncMetrics> accounts) {
+		StringBuilder json = new StringBuilder("{");
+		String separator = "";
+		for (Map.Entry<String, SyncMetrics> account : accounts.entrySet()) {
+			json.append(separator).append("\n  \"").append(escape(account.getKey())).append("\": ")
+					.append(account.getValue().toJson().trim().replace("\n", "\n  "));
+			separator = ",";
+		}
+		return json.append("\n}\n").toString();
+	}
+
+	public void writeJson(Path file) throws IOException {
+		write(file, toJson());
+	}
+
+	public void writePrometheus(Path file, String account) throws IOException {
+		write(file, toPrometheus(account));
+	}
+
+	public static void writeJson(Path file, Map<String, SyncMetrics> accounts) throws IOException {
+		write(file, toJson(accounts));
+	}
+
+	public static void writePrometheus(Path file, Map<String, SyncMetrics> accounts) throws IOException {
+		write(file, toPrometheus(accounts));
+	}
+
+	// the textfile collector must never read a half written file
+	private static void write(Path file, String content) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static final class Histogram {
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+
+		private final LongAdder count = new LongAdder();
+
+		private final LongAdder failed = new LongAdder();
+
+		private final LongAdder sum = new LongAdder();
+
+		private Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		private void record(long nanos, boolean hasFailed) {
+			double seconds = nanos / 1e9;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				if (seconds <= BUCKETS[i]) {
+					buckets[i].increment();
+					break;
+				}
+			}
+			count.increment();
+			sum.add(nanos);
+			if (hasFailed)
+				failed.increment();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.aksw.bibuploader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * The outcome of reconciling the file entries (F) with the account entries
+ * (B), as computed by {@link Reconciler}.
+ */
+public class SyncPlan {
+
+	// present in F, not in B
+	private final List<Post<BibTex>> add = new ArrayList<Post<BibTex>>();
+
+	// present in B and in F, but different
+	private final List<Post<BibTex>> update = new ArrayList<Post<BibTex>>();
+
+	// present in B, not in F
+	private final List<Post<BibTex>> delete = new ArrayList<Post<BibTex>>();
+
+	// present in B and in F and the same
+	private final List<Post<BibTex>> unchanged = new ArrayList<Post<BibTex>>();
+
+	/**
+	 * @return the file posts which have to be uploaded, in file order
+	 */
+	public List<Post<BibTex>> getAdd() {
+		return add;
+	}
+
+	/**
+	 * @return the file posts which replace their account counterpart, in file
+	 *         order
+	 */
+	public List<Post<BibTex>> getUpdate() {
+		return update;
+	}
+
+	/**
+	 * @return the account posts which have to be removed, in account order
+	 */
+	public List<Post<BibTex>> getDelete() {
+		return delete;
+	}
+
+	/**
+	 * @return the file posts which are already up to date in the account
+	 */
+	public List<Post<BibTex>> getUnchanged() {
+		return unchanged;
+	}
+
+	public String toString() {
+		return add.size() + " to add, " + update.size() + " to update, "
+				+ delete.size() + " to delete, " + unchanged.size()
+				+ " unchanged";
+	}
+}
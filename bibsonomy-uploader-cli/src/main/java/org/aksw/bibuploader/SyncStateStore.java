@@ -0,0 +1,186 @@
+package org.aksw.bibuploader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Remembers, per intraHash, the {@link PostFingerprint} of the post last pushed
+ * to the account. With it a sync can compute its {@link SyncPlan} from the file
+ * alone instead of downloading the whole account.
+ *
+ * The store is kept in a small binary file, usually next to the bibliography.
+ * It is only trusted for the account it was written for and until its last
+ * full account fetch is older than the configured interval.
+ */
+public class SyncStateStore {
+
+	private static final int MAGIC = 0x42495353; // "BISS"
+
+	private static final int VERSION = 3;
+
+	private static Log log = LogFactory.getLog(SyncStateStore.class);
+
+	private final Path file;
+
+	private String username;
+
+	private long lastFullFetch;
+
+	private final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+
+	private SyncStateStore(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the store kept in the given file, which is empty and stale if the
+	 *         file does not exist or cannot be read
+	 */
+	public static SyncStateStore load(Path file) {
+		SyncStateStore store = new SyncStateStore(file);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warn("Ignoring sync state of unknown format: " + file);
+				return store;
+			}
+			String username = in.readUTF();
+			long lastFullFetch = in.readLong();
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				store.fingerprints.put(in.readUTF(), in.readUTF());
+			}
+			store.username = username;
+			store.lastFullFetch = lastFullFetch;
+		} catch (NoSuchFileException e) {
+			log.info("No sync state found at " + file);
+		} catch (IOException e) {
+			log.warn("Ignoring unreadable sync state: " + file, e);
+			store.fingerprints.clear();
+		}
+		return store;
+	}
+
+	/**
+	 * @return true if the account has to be fetched before the store can be
+	 *         used for the given user
+	 */
+	public boolean isStale(String username, long fullFetchInterval) {
+		return this.username == null || !this.username.equals(username)
+				|| System.currentTimeMillis() - lastFullFetch >= fullFetchInterval;
+	}
+
+	/**
+	 * Computes the plan from the recorded state, the delete bucket holds posts
+	 * which only carry their intraHash. The file entries are expected to be
+	 * free of duplicates.
+	 */
+	public SyncPlan plan(List<Post<BibTex>> fileEntries) {
+		SyncPlan plan = new SyncPlan();
+		Set<String> fileHashes = new HashSet<String>();
+		for (Post<BibTex> post : fileEntries) {
+			String hash = post.getResource().getIntraHash();
+			fileHashes.add(hash);
+
+			String pushed = fingerprints.get(hash);
+			if (pushed == null) {
+				plan.getAdd().add(post);
+			} else if (pushed.equals(PostFingerprint.of(post))) {
+				plan.getUnchanged().add(post);
+			} else {
+				plan.getUpdate().add(post);
+			}
+		}
+
+		for (String hash : fingerprints.keySet()) {
+			if (!fileHashes.contains(hash)) {
+				BibTex bibtex = new BibTex();
+				bibtex.setIntraHash(hash);
+				Post<BibTex> post = new Post<BibTex>();
+				post.setResource(bibtex);
+				plan.getDelete().add(post);
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Forgets all recorded posts, to be followed by recording every post of a
+	 * full account fetch and the result of the sync based on it. The store
+	 * stays stale until {@link #setLastFullFetch(long)}.
+	 */
+	public void reset(String username) {
+		this.username = username;
+		this.lastFullFetch = 0;
+		fingerprints.clear();
+	}
+
+	/**
+	 * Trusts the recorded posts as the state of the account, once a sync based
+	 * on a full fetch started at the given time wrote all its changes.
+	 */
+	public void setLastFullFetch(long lastFullFetch) {
+		this.lastFullFetch = lastFullFetch;
+	}
+
+	/**
+	 * Records the post as it is now stored in the account.
+	 */
+	public void record(Post<BibTex> post) {
+		fingerprints.put(post.getResource().getIntraHash(), PostFingerprint.of(post));
+	}
+
+	public void record(String intraHash, String fingerprint) {
+		fingerprints.put(intraHash, fingerprint);
+	}
+
+	public void forget(String intraHash) {
+		fingerprints.remove(intraHash);
+	}
+
+	public int size() {
+		return fingerprints.size();
+	}
+
+	/**
+	 * Writes the store to a temporary file first, so a crash never leaves a
+	 * half written store behind.
+	 */
+	public void save() throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(username == null ? "" : username);
+			out.writeLong(lastFullFetch);
+			// copied, so the written size matches the written entries
+			Map<String, String> snapshot = new HashMap<String, String>(fingerprints);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
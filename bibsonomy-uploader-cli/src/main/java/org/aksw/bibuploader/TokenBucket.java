@@ -0,0 +1,57 @@
+package org.aksw.bibuploader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limit: tokens are refilled at a fixed rate up to a
+ * maximum burst, and every call to {@link #acquire()} takes one token,
+ * waiting until one is available.
+ */
+public class TokenBucket {
+
+	private final double tokensPerNano;
+
+	private final double burst;
+
+	private double tokens;
+
+	private long lastRefill;
+
+	/**
+	 * @param permitsPerSecond
+	 *            the sustained number of calls per second
+	 * @param burst
+	 *            the number of calls that may be made at once after a quiet
+	 *            period
+	 */
+	public TokenBucket(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0 || burst < 1)
+			throw new IllegalArgumentException("rate and burst must be positive");
+		this.tokensPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public void acquire() throws InterruptedException {
+		long waitNanos;
+		while ((waitNanos = tryAcquire()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * @return 0 if a token was taken, otherwise the time in nanoseconds until
+	 *         the next token is available
+	 */
+	private synchronized long tryAcquire() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+		if (tokens >= 1) {
+			tokens -= 1;
+			return 0;
+		}
+		return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+	}
+}
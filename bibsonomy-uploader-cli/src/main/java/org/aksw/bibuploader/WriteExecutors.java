@@ -0,0 +1,64 @@
+package org.aksw.bibuploader;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Creates the executors running the writes of a sync. The project is built
+ * for Java 8, so virtual threads are looked up reflectively and used only if
+ * the running JDK provides them.
+ */
+public final class WriteExecutors {
+
+	private static Log log = LogFactory.getLog(WriteExecutors.class);
+
+	private WriteExecutors() {
+	}
+
+	/**
+	 * @return an executor running at most the given number of tasks at once
+	 */
+	public static ExecutorService create(int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("worker count must be positive: "
+					+ workers);
+		ThreadFactory factory = virtualThreadFactory();
+		if (factory == null) {
+			factory = platformThreadFactory();
+		}
+		return Executors.newFixedThreadPool(workers, factory);
+	}
+
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			// Thread.ofVirtual().name("bibuploader-write-", 0).factory()
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Method name = builderType.getMethod("name", String.class, long.class);
+			Method factory = builderType.getMethod("factory");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = name.invoke(builder, "bibuploader-write-", 0L);
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			log.debug("Virtual threads are not available", e);
+			return null;
+		}
+	}
+
+	private static ThreadFactory platformThreadFactory() {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "bibuploader-write-"
+					+ count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
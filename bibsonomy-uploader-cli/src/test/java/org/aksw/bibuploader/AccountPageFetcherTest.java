@@ -0,0 +1,140 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.TestPosts.post;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.logic.LogicInterface;
+import org.junit.Test;
+
+public class AccountPageFetcherTest {
+
+	private static InMemoryLogic account(int size) {
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		for (int i = 0; i < size; i++) {
+			posts.add(post("h" + i, "title " + i));
+		}
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.addPosts(posts);
+		return account;
+	}
+
+	/**
+	 * @return an account whose pages are answered by the given function of
+	 *         the start index
+	 */
+	private static LogicInterface pages(PageAnswer answer) {
+		return (LogicInterface) Proxy.newProxyInstance(
+				LogicInterface.class.getClassLoader(), new Class<?>[] { LogicInterface.class },
+				(proxy, method, args) -> answer.page((Integer) args[args.length - 2]));
+	}
+
+	interface PageAnswer {
+		List<Post<BibTex>> page(int start) throws Exception;
+	}
+
+	private static List<Post<BibTex>> page(int start, int size) {
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		for (int i = start; i < start + size; i++) {
+			posts.add(post("h" + i, "title " + i));
+		}
+		return posts;
+	}
+
+	private static void assertInOrder(int size, List<Post<BibTex>> fetched) {
+		assertEquals(size, fetched.size());
+		for (int i = 0; i < size; i++) {
+			assertEquals("h" + i, fetched.get(i).getResource().getIntraHash());
+		}
+	}
+
+	private static void assertCalls(int min, int max, InMemoryLogic account) {
+		long calls = account.getCalls("getPosts");
+		assertTrue(calls + " page requests", calls >= min && calls <= max);
+	}
+
+	@Test
+	public void testPages() throws Exception {
+		InMemoryLogic account = account(2500);
+		assertInOrder(2500, new AccountPageFetcher(account.logic(), "aksw", 1).fetchAll());
+		// the short third page ends the account
+		assertEquals(3, account.getCalls("getPosts"));
+	}
+
+	@Test
+	public void testSpeculativePages() throws Exception {
+		InMemoryLogic account = account(2500);
+		assertInOrder(2500, new AccountPageFetcher(account.logic(), "aksw", 5).fetchAll());
+		// five pages stay requested until the short one, those beyond it are
+		// discarded and may not even run
+		assertCalls(3, 2 + 5, account);
+	}
+
+	@Test
+	public void testExactMultipleOfThePageSize() throws Exception {
+		InMemoryLogic account = account(2 * AccountPageFetcher.PAGE_SIZE);
+		assertInOrder(2000, new AccountPageFetcher(account.logic(), "aksw", 1).fetchAll());
+		// only the empty third page tells the account is complete
+		assertEquals(3, account.getCalls("getPosts"));
+
+		account = account(2 * AccountPageFetcher.PAGE_SIZE);
+		assertInOrder(2000, new AccountPageFetcher(account.logic(), "aksw", 2).fetchAll());
+		assertCalls(3, 2 + 2, account);
+	}
+
+	@Test
+	public void testEmptyAccount() throws Exception {
+		InMemoryLogic account = account(0);
+		assertTrue(new AccountPageFetcher(account.logic(), "aksw", 3).fetchAll().isEmpty());
+		assertCalls(1, 3, account);
+	}
+
+	@Test(timeout = 10000)
+	public void testCloseCancelsOutstandingPages() throws Exception {
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch interrupted = new CountDownLatch(2);
+		LogicInterface logic = pages(start -> {
+			if (start == 0)
+				return page(0, AccountPageFetcher.PAGE_SIZE);
+			started.countDown();
+			try {
+				// never answered
+				new CountDownLatch(1).await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return page(start, 0);
+		});
+
+		AccountPageFetcher.PostIterator posts = new AccountPageFetcher(logic, "aksw", 3).iterator();
+		assertEquals("h0", posts.next().getResource().getIntraHash());
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		posts.close();
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 10000)
+	public void testPageOrderIsKept() throws Exception {
+		// later pages are answered first
+		LogicInterface logic = pages(start -> {
+			int index = start / AccountPageFetcher.PAGE_SIZE;
+			TimeUnit.MILLISECONDS.sleep(Math.max(0, 4 - index) * 50);
+			return page(start, index < 3 ? AccountPageFetcher.PAGE_SIZE : 500);
+		});
+
+		List<Post<BibTex>> fetched = new ArrayList<Post<BibTex>>();
+		try (AccountPageFetcher.PostIterator posts = new AccountPageFetcher(logic, "aksw", 4).iterator()) {
+			while (posts.hasNext()) {
+				fetched.add(posts.next());
+			}
+		}
+		assertInOrder(3500, fetched);
+	}
+}
@@ -0,0 +1,132 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.TestPosts.post;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.logic.LogicInterface;
+import org.junit.Test;
+
+public class BatchSubmitterTest {
+
+	/**
+	 * Collects the outcome of every post.
+	 */
+	static class Outcomes implements SubmitListener {
+
+		final List<String> succeeded = Collections.synchronizedList(new ArrayList<String>());
+
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void succeeded(Post<BibTex> post) {
+			succeeded.add(post.getResource().getIntraHash());
+		}
+
+		@Override
+		public void failed(Post<BibTex> post, Exception cause) {
+			failed.add(post.getResource().getIntraHash());
+		}
+	}
+
+	private static List<Post<BibTex>> posts(int count) {
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		for (int i = 0; i < count; i++) {
+			posts.add(post("h" + i, "title " + i));
+		}
+		return posts;
+	}
+
+	@Test
+	public void testChunks() {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		BatchSubmitter submitter = new BatchSubmitter(account.logic(), "aksw", 10);
+		assertEquals(3, submitter.chunks(posts(25)).size());
+		assertEquals(5, submitter.chunks(posts(25)).get(2).size());
+		assertEquals(2, submitter.chunks(posts(20)).size());
+		assertTrue(submitter.chunks(posts(0)).isEmpty());
+
+		Outcomes outcomes = new Outcomes();
+		submitter.createPosts(posts(25), outcomes);
+		assertEquals(3, account.getCalls("createPosts"));
+		assertEquals(25, outcomes.succeeded.size());
+		assertTrue(outcomes.failed.isEmpty());
+		assertEquals(25, account.getPosts().size());
+	}
+
+	@Test
+	public void testPartiallyRejectedChunk() {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		// already in the account, so the server leaves them out of its answer
+		account.addPosts(Arrays.asList(post("h1", "title 1"), post("h3", "title 3")));
+
+		Outcomes outcomes = new Outcomes();
+		new BatchSubmitter(account.logic(), "aksw", 10).createPosts(posts(5), outcomes);
+		assertEquals(1, account.getCalls("createPosts"));
+		assertEquals(Arrays.asList("h0", "h2", "h4"), outcomes.succeeded);
+		assertEquals(Arrays.asList("h1", "h3"), outcomes.failed);
+	}
+
+	@Test
+	public void testAnswerOfChunkSizeIsMatchedByHash() {
+		// answers with as many hashes as it got posts, but accepted only the first
+		LogicInterface logic = (LogicInterface) Proxy.newProxyInstance(
+				LogicInterface.class.getClassLoader(), new Class<?>[] { LogicInterface.class },
+				(proxy, method, args) -> {
+					List<?> posts = (List<?>) args[0];
+					return Collections.nCopies(posts.size(), "h0");
+				});
+
+		Outcomes outcomes = new Outcomes();
+		new BatchSubmitter(logic, "aksw", 10).createPosts(posts(3), outcomes);
+		assertEquals(Arrays.asList("h0"), outcomes.succeeded);
+		assertEquals(Arrays.asList("h1", "h2"), outcomes.failed);
+
+		outcomes = new Outcomes();
+		new BatchSubmitter(logic, "aksw", 10).updatePosts(posts(3), outcomes);
+		assertEquals(Arrays.asList("h0"), outcomes.succeeded);
+		assertEquals(Arrays.asList("h1", "h2"), outcomes.failed);
+	}
+
+	@Test(timeout = 10000)
+	public void testRejectionIsSplitWithoutRetries() {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.setRejected(post -> "h3".equals(post.getResource().getIntraHash()));
+
+		BatchSubmitter submitter = new BatchSubmitter(account.logic(), "aksw", 10);
+		// would wait for minutes if rejections were retried
+		submitter.setRetry(new Backoff(3, 60000, 60000));
+		Outcomes outcomes = new Outcomes();
+		submitter.createPosts(posts(5), outcomes);
+
+		assertEquals(Arrays.asList("h3"), outcomes.failed);
+		assertEquals(4, outcomes.succeeded.size());
+		// the chunk, then each post once
+		assertEquals(6, account.getCalls("createPosts"));
+	}
+
+	@Test
+	public void testTransportErrorsAreRetried() {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.setFailureRate(1);
+
+		BatchSubmitter submitter = new BatchSubmitter(account.logic(), "aksw", 10);
+		submitter.setRetry(new Backoff(2, 0, 0));
+		Outcomes outcomes = new Outcomes();
+		submitter.updatePosts(posts(5), outcomes);
+
+		assertEquals(5, outcomes.failed.size());
+		// the retries of the chunk, it is not split up
+		assertEquals(3, account.getCalls("updatePosts"));
+		assertTrue(BatchSubmitter.isTransportError(new RuntimeException(new ConnectException())));
+		assertFalse(BatchSubmitter.isTransportError(new IllegalStateException("400 Bad Request")));
+	}
+}
@@ -0,0 +1,87 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bibsonomy.bibtex.parser.PostBibTeXParser;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class BibTeXEntryParserTest {
+
+	static final String BIBTEX = "@string{web = \"Web\"}\n"
+			+ "@string{unused = \"never used\"}\n"
+			+ "@string{ssw = \"Social Semantic \" # web}\n"
+			+ "@inproceedings{auer2008, title = {Interlinking}, author = {S{\\\"o}ren Auer},\n"
+			+ "  crossref = {imc2008}, pages = {1--10}, keywords = {aksw}}\n"
+			+ "@article{otto2007, title = {Spiders}, author = {Stefan Otto},\n"
+			+ "  journal = ssw, year = 2007, month = jun}\n"
+			+ "@proceedings{imc2008, title = {Proceedings of IMC-SSW}, year = 2008,\n"
+			+ "  booktitle = ssw # \" Workshop\", keywords = {proceedings}}\n";
+
+	/**
+	 * @return the posts of a parse of the whole text, as BibUpdater loaded
+	 *         them before
+	 */
+	static List<Post<BibTex>> parseWhole(String bibtex) throws Exception {
+		List<Post<BibTex>> posts = new PostBibTeXParser().parseBibTeXPosts(bibtex);
+		for (Post<BibTex> post : posts) {
+			post.getResource().recalculateHashes();
+		}
+		return posts;
+	}
+
+	static void assertSamePosts(List<Post<BibTex>> expected, List<Post<BibTex>> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getResource().getIntraHash(), actual.get(i).getResource().getIntraHash());
+			assertEquals(PostFingerprint.of(expected.get(i)), PostFingerprint.of(actual.get(i)));
+		}
+	}
+
+	@Test
+	public void testSameAsWholeFile() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		try {
+			Files.write(bib, BIBTEX.getBytes(StandardCharsets.UTF_8));
+			List<Post<BibTex>> whole = parseWhole(BIBTEX);
+			// the cross reference filled in the booktitle
+			assertEquals("Proceedings of IMC-SSW", whole.get(0).getResource().getBooktitle());
+
+			List<Post<BibTex>> streamed = new ArrayList<Post<BibTex>>();
+			try (BibTeXPostIterator iterator = new BibTeXPostIterator(bib)) {
+				iterator.forEachRemaining(streamed::add);
+			}
+			assertSamePosts(whole, streamed);
+			assertSamePosts(whole, new IncrementalBibTeXLoader().load(bib));
+		} finally {
+			Files.deleteIfExists(bib);
+		}
+	}
+
+	@Test
+	public void testContextHoldsUsedDefinitionsOnly() throws Exception {
+		BibTeXEntryParser parser = new BibTeXEntryParser();
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(new StringReader(BIBTEX))) {
+			BibTeXEntryReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (entry.isDefinition()) {
+					parser.define(entry);
+				} else if ("otto2007".equals(entry.getKey())) {
+					assertEquals("@string{web = \"Web\"}\n@string{ssw = \"Social Semantic \" # web}\n",
+							parser.context(entry));
+				} else if ("auer2008".equals(entry.getKey())) {
+					// no cross referenced entries known
+					assertEquals("", parser.context(entry));
+				}
+			}
+		}
+	}
+}
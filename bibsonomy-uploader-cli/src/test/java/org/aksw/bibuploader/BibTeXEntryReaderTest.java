@@ -0,0 +1,84 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class BibTeXEntryReaderTest {
+
+	@Test
+	public void testSplitFile() throws Exception {
+		int count = 0;
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(
+				Paths.get("./src/test/resources/aksw.bib"))) {
+			BibTeXEntryReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				assertTrue(entry.getText().startsWith("@"));
+				assertTrue(entry.getText().endsWith("}"));
+				count++;
+			}
+		}
+		assertEquals(31, count);
+	}
+
+	@Test
+	public void testSplitMixedEntries() throws Exception {
+		String bibtex = "leading comment with a mail@address.org\n"
+				+ "@string{ lncs = \"Lecture Notes in {Computer} Science\" }\n"
+				+ "@preamble{ \"\\newcommand{\\noop}[1]{}\" }\n"
+				+ "@comment{ ignored }\n"
+				+ "@article(key1,\n  title = {A (nested) {title}},\n  note = \"x)\"\n)\n"
+				+ "@book{key2, series = lncs}";
+
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(new StringReader(bibtex))) {
+			BibTeXEntryReader.Entry entry = reader.next();
+			assertEquals("string", entry.getType());
+			assertTrue(entry.isDefinition());
+			assertEquals(2, entry.getLine());
+
+			entry = reader.next();
+			assertEquals("preamble", entry.getType());
+			assertTrue(entry.isDefinition());
+
+			entry = reader.next();
+			assertTrue(entry.isComment());
+
+			entry = reader.next();
+			assertEquals("article", entry.getType());
+			assertEquals("@article(key1,\n  title = {A (nested) {title}},\n  note = \"x)\"\n)",
+					entry.getText());
+			assertEquals(5, entry.getLine());
+
+			entry = reader.next();
+			assertEquals("book", entry.getType());
+			assertEquals("@book{key2, series = lncs}", entry.getText());
+
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void testScanFields() throws Exception {
+		String bibtex = "@string{ssw = \"Social \" # web}\n"
+				+ "@inproceedings{Key-1:a, title = {A {\"u}ber, title}, year = 2008,\n"
+				+ "  booktitle = ssw # \" Workshop\", month = dec, crossref = {Proc:2008}}";
+
+		try (BibTeXEntryReader reader = new BibTeXEntryReader(new StringReader(bibtex))) {
+			BibTeXEntryReader.Entry entry = reader.next();
+			assertEquals("ssw", entry.getKey());
+			assertEquals(Collections.singleton("web"), entry.getMacros());
+			assertNull(entry.getCrossref());
+
+			entry = reader.next();
+			assertEquals("key-1:a", entry.getKey());
+			assertEquals("proc:2008", entry.getCrossref());
+			assertEquals(new HashSet<String>(Arrays.asList("ssw", "dec")), entry.getMacros());
+		}
+	}
+}
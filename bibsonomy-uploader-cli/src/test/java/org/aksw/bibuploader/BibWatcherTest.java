@@ -0,0 +1,113 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class BibWatcherTest {
+
+	@Test
+	public void testOnlyChangedEntriesAreParsed() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		try {
+			String original = new String(Files.readAllBytes(Paths.get("./src/test/resources/aksw.bib")),
+					StandardCharsets.UTF_8);
+			Files.write(bib, original.getBytes(StandardCharsets.UTF_8));
+
+			IncrementalBibTeXLoader loader = new IncrementalBibTeXLoader();
+			List<Post<BibTex>> first = loader.load(bib);
+			assertEquals(31, loader.getLastParsed());
+			assertEquals(0, loader.getLastReused());
+
+			String edited = original.replace("volume = 417", "volume = 418");
+			assertNotEquals(original, edited);
+			Files.write(bib, edited.getBytes(StandardCharsets.UTF_8));
+
+			List<Post<BibTex>> second = loader.load(bib);
+			assertEquals(1, loader.getLastParsed());
+			assertEquals(30, loader.getLastReused());
+			assertEquals(first.size(), second.size());
+		} finally {
+			Files.deleteIfExists(bib);
+		}
+	}
+
+	@Test
+	public void testChangesArePushed() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		try {
+			String original = new String(Files.readAllBytes(Paths.get("./src/test/resources/aksw.bib")),
+					StandardCharsets.UTF_8);
+			Files.write(bib, original.getBytes(StandardCharsets.UTF_8));
+
+			InMemoryLogic account = new InMemoryLogic("aksw");
+			BibUpdater updater = new BibUpdater(account.logic(), "aksw", bib.toString());
+			BibWatcher watcher = new BibWatcher(updater, bib, 0);
+			watcher.sync();
+			assertEquals(1, account.getCalls("getPosts"));
+
+			// drop the first entry
+			Files.write(bib, original.substring(original.indexOf("@article")).getBytes(StandardCharsets.UTF_8));
+			watcher.sync();
+			assertEquals(1, account.getCalls("getPosts"));
+			Set<String> hashes = new HashSet<String>();
+			for (Post<BibTex> post : updater.loadEntriesFromFile()) {
+				hashes.add(post.getResource().getIntraHash());
+			}
+			assertEquals(hashes.size(), account.getPosts().size());
+
+			// nothing changed
+			assertNull(watcher.sync());
+		} finally {
+			Files.deleteIfExists(bib);
+		}
+	}
+
+	@Test
+	public void testFailedPostsArePushedAgain() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		try {
+			String original = new String(Files.readAllBytes(Paths.get("./src/test/resources/aksw.bib")),
+					StandardCharsets.UTF_8);
+			Files.write(bib, original.getBytes(StandardCharsets.UTF_8));
+
+			InMemoryLogic account = new InMemoryLogic("aksw");
+			BibUpdater updater = new BibUpdater(account.logic(), "aksw", bib.toString());
+			BibWatcher watcher = new BibWatcher(updater, bib, 0);
+			watcher.sync();
+			Set<String> before = new HashSet<String>();
+			for (Post<BibTex> post : account.getPosts()) {
+				before.add(post.getResource().getIntraHash());
+			}
+
+			// the edited entry gets a new hash, which the server rejects
+			Files.write(bib, original.replace("volume = 417", "volume = 418").getBytes(StandardCharsets.UTF_8));
+			account.setRejected(post -> !before.contains(post.getResource().getIntraHash()));
+			Summary summary = watcher.sync();
+			assertEquals(1, summary.getFailedAdditions());
+			assertEquals(1, summary.getRemoved());
+
+			// still missing from the account, so it is pushed again
+			summary = watcher.sync();
+			assertEquals(1, summary.getFailedAdditions());
+			account.setRejected(post -> false);
+			summary = watcher.sync();
+			assertEquals(1, summary.getAdded());
+			assertEquals(31, account.getPosts().size());
+			assertNull(watcher.sync());
+			assertEquals(1, account.getCalls("getPosts"));
+		} finally {
+			Files.deleteIfExists(bib);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.TestPosts.post;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class InMemoryLogicTest {
+
+	@Test
+	public void testFetchAllPages() throws Exception {
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		for (int i = 0; i < 2500; i++) {
+			posts.add(post("h" + i, "title " + i));
+		}
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.addPosts(posts);
+
+		List<Post<BibTex>> fetched = new AccountPageFetcher(account.logic(), "aksw", 3).fetchAll();
+		assertEquals(2500, fetched.size());
+		for (int i = 0; i < fetched.size(); i++) {
+			assertEquals("h" + i, fetched.get(i).getResource().getIntraHash());
+		}
+		assertTrue(account.getCalls("getPosts") >= 3);
+	}
+
+	@Test
+	public void testInjectedFailuresAreReported() {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.setFailureRate(1);
+
+		final AtomicInteger failed = new AtomicInteger();
+		new BatchSubmitter(account.logic(), "aksw", 10).createPosts(
+				Collections.singletonList(post("a", "title")), new SubmitListener() {
+					@Override
+					public void succeeded(Post<BibTex> post) {
+						fail(post.getResource().getTitle() + " should have failed");
+					}
+
+					@Override
+					public void failed(Post<BibTex> post, Exception cause) {
+						failed.incrementAndGet();
+					}
+				});
+		assertEquals(1, failed.get());
+		assertTrue(account.getPosts().isEmpty());
+	}
+
+	@Test
+	public void testFailedCallsAreRetried() {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.setFailureRate(0.5);
+
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		for (int i = 0; i < 10; i++) {
+			posts.add(post("h" + i, "title " + i));
+		}
+		BatchSubmitter submitter = new BatchSubmitter(account.logic(), "aksw", 1);
+		submitter.setRetry(new Backoff(20, 0, 0));
+		submitter.createPosts(posts, new SubmitListener() {
+			@Override
+			public void succeeded(Post<BibTex> post) {
+			}
+
+			@Override
+			public void failed(Post<BibTex> post, Exception cause) {
+				fail(post.getResource().getTitle() + " was not retried");
+			}
+		});
+		assertEquals(10, account.getPosts().size());
+		assertTrue(account.getCalls("createPosts") > 10);
+	}
+
+	@Test
+	public void testSyncAccount() throws Exception {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.addPosts(Collections.singletonList(post("stale", "not in the file")));
+
+		BibUpdater updater = new BibUpdater(account.logic(), "aksw", "./src/test/resources/aksw.bib");
+		updater.setWorkers(4);
+		Summary summary = updater.updateAccount();
+		assertEquals(1, summary.getRemoved());
+		assertEquals(0, summary.getFailedAdditions());
+		assertEquals(summary.getAdded(), account.getPosts().size());
+
+		// a second sync finds nothing to do
+		summary = updater.updateAccount();
+		assertEquals(0, summary.getAdded());
+		assertEquals(0, summary.getUpdated());
+		assertEquals(0, summary.getRemoved());
+	}
+}
@@ -0,0 +1,58 @@
+package org.aksw.bibuploader;
+
+import java.util.List;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.javers.core.Javers;
+import org.javers.core.JaversBuilder;
+import org.javers.core.diff.Change;
+import org.javers.core.diff.Diff;
+import org.javers.core.diff.changetype.ObjectRemoved;
+import org.javers.core.diff.changetype.ReferenceChange;
+import org.javers.core.diff.changetype.ValueChange;
+import org.javers.core.diff.changetype.container.SetChange;
+
+/**
+ * The Javers based comparison BibUpdater used before {@link PostComparator},
+ * kept as reference for the equivalence test.
+ */
+public class JaversPostComparator {
+
+	private final Javers javers = JaversBuilder.javers().build();
+
+	public boolean isSame(Post<BibTex> accountEntry, Post<BibTex> filePost) {
+		
+		if(filePost.getTags()==null||filePost.getTags().isEmpty())
+			filePost.addTag("nokeyword");
+		
+		Diff diff = javers.compare(accountEntry, filePost);
+		
+		List<Change> changes = diff.getChanges();
+		
+		// Two papers are the same if only these changes occur
+		for (Change curChange : changes) {
+			String typeName = curChange.getAffectedGlobalId().getTypeName();
+			if (curChange instanceof ObjectRemoved) {
+				if(!(typeName.equals("org.bibsonomy.model.Group") || typeName.equals("org.bibsonomy.model.User"))) 
+					return false;
+			} else if (curChange instanceof ValueChange) {
+				String propertyName = ((ValueChange) curChange).getPropertyName();
+				if(!(typeName.equals("org.bibsonomy.model.Post") && (propertyName.equals("resource") || propertyName.equals("changeDate") || propertyName.equals("date")))) 
+					return false;
+			} else if (curChange instanceof ReferenceChange) {
+				String propertyName = ((ReferenceChange) curChange).getPropertyName();
+				if(!(typeName.equals("org.bibsonomy.model.Post") && propertyName.equals("user"))) 
+					return false;
+			} else if (curChange instanceof SetChange) {
+				String propertyName = ((SetChange) curChange).getPropertyName();
+				if(!(typeName.equals("org.bibsonomy.model.Post") && propertyName.equals("groups"))) 
+					return false;
+			} else {
+				// something else differs
+				return false;
+			}
+		}
+		return true;
+	}
+}
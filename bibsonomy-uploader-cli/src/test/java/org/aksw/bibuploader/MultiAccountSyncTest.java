@@ -0,0 +1,84 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class MultiAccountSyncTest {
+
+	@Test
+	public void testFailuresAreIsolated() throws Exception {
+		Path config = Files.createTempFile("bibuploader", ".accounts");
+		try {
+			Files.write(config, ("# username apikey apiurl file\n"
+					+ "\n"
+					+ "aksw key1 http://localhost/api ./src/test/resources/aksw.bib --batch-size=10\n"
+					+ "missing key2 http://localhost/api ./src/test/resources/missing.bib\n"
+					+ "other  key3  http://localhost/api  ./src/test/resources/aksw.bib\n")
+					.getBytes(StandardCharsets.UTF_8));
+			List<MultiAccountSync.Account> accounts = MultiAccountSync.readConfig(config);
+			assertEquals(3, accounts.size());
+			assertEquals("10", accounts.get(0).getOptions().get("batch-size"));
+			assertEquals("other", accounts.get(2).getUsername());
+
+			Map<String, InMemoryLogic> logics = new ConcurrentHashMap<String, InMemoryLogic>();
+			MultiAccountSync sync = new MultiAccountSync(accounts,
+					Collections.<String, String> emptyMap(), 2, account -> logics
+							.computeIfAbsent(account.getUsername(), InMemoryLogic::new).logic());
+			List<MultiAccountSync.Result> results = sync.syncAll();
+
+			assertEquals(3, results.size());
+			assertNotNull(results.get(0).getSummary());
+			assertNull(results.get(0).getFailure());
+			assertNull(results.get(1).getSummary());
+			assertNotNull(results.get(1).getFailure());
+			assertNotNull(results.get(2).getSummary());
+			assertEquals(logics.get("aksw").getPosts().size(), logics.get("other").getPosts().size());
+		} finally {
+			Files.deleteIfExists(config);
+		}
+	}
+
+	@Test
+	public void testMetricsOfAllAccountsAreWrittenOnce() throws Exception {
+		Path json = Files.createTempFile("bibuploader", ".json");
+		Path prom = Files.createTempFile("bibuploader", ".prom");
+		try {
+			List<MultiAccountSync.Account> accounts = Arrays.asList(
+					new MultiAccountSync.Account("aksw", "key1", "http://localhost/api",
+							"./src/test/resources/aksw.bib", Collections.<String, String> emptyMap()),
+					new MultiAccountSync.Account("other", "key2", "http://localhost/api",
+							"./src/test/resources/aksw.bib", Collections.<String, String> emptyMap()));
+			Map<String, String> defaults = new HashMap<String, String>();
+			defaults.put("metrics-json", json.toString());
+			defaults.put("metrics-prom", prom.toString());
+
+			MultiAccountSync sync = new MultiAccountSync(accounts, defaults, 2,
+					account -> new InMemoryLogic(account.getUsername()).logic());
+			sync.syncAll();
+
+			String text = new String(Files.readAllBytes(prom), StandardCharsets.UTF_8);
+			assertEquals(text.indexOf("# TYPE bibuploader_posts gauge\n"),
+					text.lastIndexOf("# TYPE bibuploader_posts gauge\n"));
+			assertTrue(text.contains("bibuploader_posts{account=\"aksw\",outcome=\"added\"} 31\n"));
+			assertTrue(text.contains("bibuploader_posts{account=\"other\",outcome=\"added\"} 31\n"));
+
+			String written = new String(Files.readAllBytes(json), StandardCharsets.UTF_8);
+			assertTrue(written.contains("\"aksw\": {"));
+			assertTrue(written.contains("\"other\": {"));
+		} finally {
+			Files.deleteIfExists(json);
+			Files.deleteIfExists(prom);
+		}
+	}
+}
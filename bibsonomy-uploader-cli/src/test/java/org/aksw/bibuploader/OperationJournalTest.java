@@ -0,0 +1,175 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.TestPosts.post;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class OperationJournalTest {
+
+	@Test
+	public void testResumeRemainingOperations() throws Exception {
+		Path file = Files.createTempFile("bibuploader", ".journal");
+		Files.delete(file);
+		try {
+			SyncPlan plan = new SyncPlan();
+			plan.getAdd().add(post("a", "added"));
+			plan.getAdd().add(post("b", "added later"));
+			plan.getUpdate().add(post("c", "updated"));
+			plan.getDelete().add(post("d", null));
+			plan.getDelete().add(post("e", null));
+
+			OperationJournal journal = OperationJournal.open(file);
+			assertFalse(journal.hasPending("aksw"));
+			journal.begin("aksw", plan);
+			journal.done("a");
+			journal.done("d");
+			journal.close();
+			// a crash while marking an operation
+			Files.write(file, new byte[] { 'D', 0 }, StandardOpenOption.APPEND);
+
+			journal = OperationJournal.open(file);
+			assertTrue(journal.hasPending("aksw"));
+			assertFalse(journal.hasPending("other"));
+			assertEquals(3, journal.getPendingCount());
+
+			List<Post<BibTex>> fileEntries = new ArrayList<Post<BibTex>>(Arrays.asList(
+					post("a", "added"), post("b", "added later"), post("c", "updated")));
+			SyncPlan resumed = journal.resume(fileEntries);
+			assertEquals(1, resumed.getAdd().size());
+			assertEquals("b", resumed.getAdd().get(0).getResource().getIntraHash());
+			assertEquals(1, resumed.getUpdate().size());
+			assertEquals("c", resumed.getUpdate().get(0).getResource().getIntraHash());
+			assertEquals(1, resumed.getDelete().size());
+			assertEquals("e", resumed.getDelete().get(0).getResource().getIntraHash());
+
+			// the bibliography changed since the plan
+			fileEntries.set(1, post("b", "changed title"));
+			assertNull(journal.resume(fileEntries));
+			fileEntries.set(1, post("b", "added later"));
+
+			journal.reopen();
+			journal.failed("b");
+			journal.done("c");
+			journal.close();
+
+			// given up on, so neither resumed nor recorded as pushed
+			journal = OperationJournal.open(file);
+			assertEquals(Collections.singleton("b"), journal.getFailed());
+			resumed = journal.resume(fileEntries);
+			assertTrue(resumed.getAdd().isEmpty());
+			assertTrue(resumed.getUpdate().isEmpty());
+			assertEquals(1, resumed.getDelete().size());
+			SyncStateStore store = SyncStateStore.load(Paths.get(file + ".state"));
+			store.reset("aksw");
+			journal.replayDone(store);
+			assertEquals(2, store.size());
+
+			journal.reopen();
+			journal.done("e");
+			journal.finish();
+			assertFalse(Files.exists(file));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testInterruptedSyncIsResumed() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		Files.copy(Paths.get("./src/test/resources/aksw.bib"), bib,
+				StandardCopyOption.REPLACE_EXISTING);
+		Path journalFile = Paths.get(bib + ".journal");
+		try {
+			InMemoryLogic account = new InMemoryLogic("aksw");
+			account.addPosts(Collections.singletonList(post("stale", "not in the file")));
+
+			// the interrupted sync planned to delete the stale post only
+			SyncPlan plan = new SyncPlan();
+			plan.getDelete().add(post("stale", null));
+			OperationJournal journal = OperationJournal.open(journalFile);
+			journal.begin("aksw", plan);
+			journal.close();
+
+			BibUpdater updater = new BibUpdater(account.logic(), "aksw", bib.toString());
+			updater.setJournal(true);
+			Summary summary = updater.updateAccount();
+			assertEquals(1, summary.getRemoved());
+			assertEquals(1, account.getCalls("deletePosts"));
+			// neither fetched nor compared again
+			assertEquals(0, account.getCalls("getPosts"));
+			assertEquals(0, summary.getAdded());
+			assertTrue(account.getPosts().isEmpty());
+			assertFalse(Files.exists(journalFile));
+
+			// the next sync plans as usual
+			summary = updater.updateAccount();
+			assertTrue(account.getCalls("getPosts") > 0);
+			assertEquals(31, summary.getAdded());
+			assertEquals(31, account.getPosts().size());
+		} finally {
+			Files.deleteIfExists(journalFile);
+			Files.deleteIfExists(bib);
+		}
+	}
+
+	@Test
+	public void testRejectedPostIsNotResumedForever() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		Files.copy(Paths.get("./src/test/resources/aksw.bib"), bib,
+				StandardCopyOption.REPLACE_EXISTING);
+		Path journalFile = Paths.get(bib + ".journal");
+		try {
+			BibUpdater updater = new BibUpdater(bib.toString());
+			Post<BibTex> rejected = updater.loadEntriesFromFile().get(0);
+			String hash = rejected.getResource().getIntraHash();
+
+			InMemoryLogic account = new InMemoryLogic("aksw");
+			account.addPosts(Collections.singletonList(post("stale", "not in the file")));
+			account.setRejected(post -> hash.equals(post.getResource().getIntraHash()));
+
+			// the interrupted sync planned to add the rejected post and delete the stale one
+			SyncPlan plan = new SyncPlan();
+			plan.getAdd().add(rejected);
+			plan.getDelete().add(post("stale", null));
+			OperationJournal journal = OperationJournal.open(journalFile);
+			journal.begin("aksw", plan);
+			journal.close();
+
+			updater = new BibUpdater(account.logic(), "aksw", bib.toString());
+			updater.setJournal(true);
+			Summary summary = updater.updateAccount();
+			// resumed once, given up on and left to the next sync
+			assertEquals(1, summary.getFailedAdditions());
+			assertEquals(0, summary.getAdded());
+			assertEquals(1, summary.getRemoved());
+			assertEquals(0, account.getCalls("getPosts"));
+			assertFalse(Files.exists(journalFile));
+
+			for (int sync = 0; sync < 2; sync++) {
+				long fetches = account.getCalls("getPosts");
+				summary = updater.updateAccount();
+				assertTrue(account.getCalls("getPosts") > fetches);
+				assertEquals(1, summary.getFailedAdditions());
+				assertEquals(sync == 0 ? 30 : 0, summary.getAdded());
+				assertFalse(Files.exists(journalFile));
+			}
+			assertEquals(30, account.getPosts().size());
+		} finally {
+			Files.deleteIfExists(journalFile);
+			Files.deleteIfExists(bib);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.BibTeXEntryParserTest.assertSamePosts;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class ParallelBibTeXLoaderTest {
+
+	@Test
+	public void testSameAsSequentialLoad() throws Exception {
+		Path bib = Paths.get("./src/test/resources/aksw.bib");
+		List<Post<BibTex>> sequential = new BibUpdater(bib.toString()).loadEntriesFromFile();
+		assertEquals(31, sequential.size());
+
+		for (int chunkSize : new int[] { 1, 5, ParallelBibTeXLoader.DEFAULT_CHUNK_SIZE }) {
+			assertSamePosts(sequential, new ParallelBibTeXLoader(4, chunkSize).load(bib));
+		}
+	}
+
+	@Test
+	public void testCrossrefsAcrossChunks() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		try {
+			Files.write(bib, BibTeXEntryParserTest.BIBTEX.getBytes(StandardCharsets.UTF_8));
+			List<Post<BibTex>> whole = BibTeXEntryParserTest.parseWhole(BibTeXEntryParserTest.BIBTEX);
+			// the referring and the referenced entry end up in different chunks
+			assertSamePosts(whole, new ParallelBibTeXLoader(2, 1).load(bib));
+		} finally {
+			Files.deleteIfExists(bib);
+		}
+	}
+}
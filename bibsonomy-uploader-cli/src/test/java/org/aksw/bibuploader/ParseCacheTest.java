@@ -0,0 +1,110 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.PersonName;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class ParseCacheTest {
+
+	@Test
+	public void testUnchangedEntriesAreCached() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		String original = new String(Files.readAllBytes(Paths.get("./src/test/resources/aksw.bib")),
+				StandardCharsets.UTF_8);
+		Files.write(bib, original.getBytes(StandardCharsets.UTF_8));
+		BibUpdater updater = new BibUpdater(bib.toString());
+		updater.setParseCache(true);
+		try {
+			List<Post<BibTex>> parsed = updater.loadEntriesFromFile();
+			assertTrue(Files.exists(updater.getParseCachePath()));
+
+			// reformatting an entry does not change its key
+			Files.write(bib, original.replace("volume = 417", "volume  =\n 417")
+					.getBytes(StandardCharsets.UTF_8));
+			ParseCache cache = ParseCache.load(updater.getParseCachePath());
+			List<Post<BibTex>> cached = load(bib, cache);
+			assertEquals(0, cache.getMisses());
+			assertEquals(31, cache.getHits());
+			assertEquals(parsed.size(), cached.size());
+			for (int i = 0; i < parsed.size(); i++) {
+				assertEquals(PostFingerprint.of(parsed.get(i)), PostFingerprint.of(cached.get(i)));
+				assertEquals(parsed.get(i).getResource().getInterHash(), cached.get(i).getResource().getInterHash());
+			}
+
+			Files.write(bib, original.replace("volume = 417", "volume = 418").getBytes(StandardCharsets.UTF_8));
+			cache = ParseCache.load(updater.getParseCachePath());
+			load(bib, cache);
+			assertEquals(1, cache.getMisses());
+			assertEquals(30, cache.getHits());
+		} finally {
+			Files.deleteIfExists(updater.getParseCachePath());
+			Files.deleteIfExists(bib);
+		}
+	}
+
+	@Test
+	public void testPostsRoundTrip() throws Exception {
+		Post<BibTex> post = TestPosts.post("2abc", "A \u00fcber title");
+		post.setDescription("read");
+		post.addTag("sys:relevantFor:infai");
+		post.addTag("semantic web");
+		BibTex bibtex = post.getResource();
+		bibtex.setInterHash("1abc");
+		bibtex.setEntrytype("inproceedings");
+		bibtex.setBooktitle("Proceedings");
+		bibtex.setAuthor(Arrays.asList(new PersonName("S\u00f6ren", "Auer"), new PersonName(null, "AKSW")));
+		Map<String, String> misc = new HashMap<String, String>();
+		misc.put("doi", "10.1000/1");
+		bibtex.setMiscFields(misc);
+		bibtex.setMisc("doi = {10.1000/1}");
+		char[] longAbstract = new char[70000];
+		Arrays.fill(longAbstract, '\u00e4');
+		bibtex.setAbstract(new String(longAbstract));
+
+		Path file = Files.createTempFile("bibuploader", ".cache");
+		Files.delete(file);
+		try {
+			ParseCache cache = ParseCache.load(file);
+			cache.put("00112233445566778899aabbccddeeff00112233", Arrays.asList(post, TestPosts.post("2def", null)));
+			cache.save();
+
+			List<Post<BibTex>> read = ParseCache.load(file).get("00112233445566778899aabbccddeeff00112233");
+			assertEquals(2, read.size());
+			assertEquals(PostFingerprint.canonicalForm(post), PostFingerprint.canonicalForm(read.get(0)));
+			BibTex readBibtex = read.get(0).getResource();
+			assertEquals("1abc", readBibtex.getInterHash());
+			assertEquals("read", read.get(0).getDescription());
+			assertEquals(misc, readBibtex.getMiscFields());
+			assertNull(readBibtex.getEditor());
+			assertNull(readBibtex.getAuthor().get(1).getFirstName());
+			assertEquals(70000, readBibtex.getAbstract().length());
+			assertNull(read.get(1).getResource().getTitle());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static List<Post<BibTex>> load(Path bib, ParseCache cache) throws Exception {
+		List<Post<BibTex>> posts = new ArrayList<Post<BibTex>>();
+		try (BibTeXPostIterator iterator = new BibTeXPostIterator(new BibTeXEntryReader(bib))) {
+			iterator.setCache(cache);
+			while (iterator.hasNext()) {
+				posts.add(iterator.next());
+			}
+		}
+		return posts;
+	}
+}
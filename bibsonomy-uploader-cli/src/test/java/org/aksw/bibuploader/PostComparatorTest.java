@@ -0,0 +1,179 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Group;
+import org.bibsonomy.model.PersonName;
+import org.bibsonomy.model.Post;
+import org.bibsonomy.model.Tag;
+import org.bibsonomy.model.User;
+import org.junit.Test;
+
+public class PostComparatorTest {
+
+	private static final int CASES = 7;
+
+	/**
+	 * Applies one kind of difference between the account and the file post.
+	 *
+	 * @return a description of the difference
+	 */
+	private static String mutate(int kind, Post<BibTex> accountEntry, Post<BibTex> filePost) {
+		switch (kind) {
+		case 1:
+			filePost.getResource().setTitle(filePost.getResource().getTitle() + " (revised)");
+			return "title";
+		case 2:
+			filePost.addTag("changed");
+			return "tags";
+		case 3:
+			filePost.setDescription("changed");
+			return "description";
+		case 4:
+			filePost.getResource().setYear("1999");
+			return "year";
+		case 5:
+			filePost.getResource().setAbstract("changed");
+			return "abstract";
+		case 6:
+			// only known to the account
+			accountEntry.setUser(new User("aksw"));
+			accountEntry.setDate(new Date());
+			accountEntry.setChangeDate(new Date());
+			return "user and dates";
+		default:
+			return "nothing";
+		}
+	}
+
+	/**
+	 * Turns a copy of a file post into the post the server returns for it: with
+	 * its bookkeeping set, the misc fields it generates on export dropped and
+	 * the others formatted its way, the system tags consumed and one added.
+	 */
+	private static void serverShaped(Post<BibTex> post) {
+		post.setUser(new User("aksw"));
+		post.setDate(new Date());
+		post.setChangeDate(new Date());
+		post.getGroups().add(new Group("public"));
+		post.setContentId(4711);
+
+		BibTex bibtex = post.getResource();
+		Map<String, String> misc = new TreeMap<String, String>(PostFingerprint.miscFields(bibtex));
+		StringBuilder formatted = new StringBuilder();
+		for (Map.Entry<String, String> field : misc.entrySet()) {
+			if (formatted.length() > 0)
+				formatted.append(",\n");
+			formatted.append("  ").append(field.getKey()).append(" = {").append(field.getValue()).append('}');
+		}
+		bibtex.setMisc(formatted.length() == 0 ? null : formatted.toString());
+		bibtex.getMiscFields().clear();
+
+		for (Iterator<Tag> i = post.getTags().iterator(); i.hasNext();) {
+			if (i.next().getName().startsWith("sys:"))
+				i.remove();
+		}
+		if (post.getTags().isEmpty())
+			post.addTag("nokeyword");
+		post.addTag("sys:imported");
+	}
+
+	@Test
+	public void testDifferences() throws Exception {
+		BibUpdater bibu = new BibUpdater("./src/test/resources/aksw.bib");
+		JaversPostComparator javers = new JaversPostComparator();
+		PostComparator comparator = new PostComparator();
+
+		for (int kind = 0; kind < CASES; kind++) {
+			// fresh copies, every kind of difference is tested on its own
+			List<Post<BibTex>> accountEntries = bibu.loadEntriesFromFile();
+			List<Post<BibTex>> fileEntries = bibu.loadEntriesFromFile();
+			assertFalse(fileEntries.isEmpty());
+
+			for (int i = 0; i < fileEntries.size(); i++) {
+				Post<BibTex> accountEntry = accountEntries.get(i);
+				Post<BibTex> filePost = fileEntries.get(i);
+
+				String difference = mutate(kind, accountEntry, filePost);
+				String message = difference + " in " + filePost.getResource().getTitle();
+				boolean same = comparator.isSame(accountEntry, filePost);
+				assertEquals(message, kind == 0 || kind == 6, same);
+				// javers sees a change of the resource only as a change of the
+				// post's resource field, so it only agrees on the post fields
+				if (kind == 0 || kind == 2 || kind == 3 || kind == 6)
+					assertEquals(message, javers.isSame(accountEntry, filePost), same);
+			}
+		}
+	}
+
+	@Test
+	public void testServerShapedPost() throws Exception {
+		BibUpdater bibu = new BibUpdater("./src/test/resources/aksw.bib");
+		PostComparator comparator = new PostComparator();
+
+		List<Post<BibTex>> accountEntries = bibu.loadEntriesFromFile();
+		List<Post<BibTex>> fileEntries = bibu.loadEntriesFromFile();
+		for (int i = 0; i < fileEntries.size(); i++) {
+			Post<BibTex> accountEntry = accountEntries.get(i);
+			Post<BibTex> filePost = fileEntries.get(i);
+			serverShaped(accountEntry);
+			// as hard wrapped in the file
+			filePost.getResource().setTitle(filePost.getResource().getTitle().replace(" ", "\n\t  "));
+
+			String title = accountEntry.getResource().getTitle();
+			assertTrue(title, comparator.isSame(accountEntry, filePost));
+			assertEquals(title, PostFingerprint.of(accountEntry), PostFingerprint.of(filePost));
+
+			// a field of the entry itself is still compared
+			BibTex bibtex = filePost.getResource();
+			bibtex.getMiscFields().clear();
+			bibtex.setMisc(bibtex.getMisc() + ",\n  note = {to appear}");
+			assertFalse(title, comparator.isSame(accountEntry, filePost));
+
+			filePost.getResource().setTitle(title + " (revised)");
+			assertFalse(title, comparator.isSame(accountEntry, filePost));
+		}
+	}
+
+	@Test
+	public void testOnlyContentFieldsAreCompared() throws Exception {
+		BibUpdater bibu = new BibUpdater("./src/test/resources/aksw.bib");
+		Post<BibTex> post = bibu.loadEntriesFromFile().get(0);
+		String fingerprint = PostFingerprint.of(post);
+
+		// computed by the server from the compared fields
+		post.getResource().setIntraHash("0123456789abcdef");
+		post.getResource().setInterHash("fedcba9876543210");
+		assertEquals(fingerprint, PostFingerprint.of(post));
+
+		List<PersonName> authors = new ArrayList<PersonName>();
+		authors.add(new PersonName("Jens", "Lehmann"));
+		authors.add(new PersonName("S\u00f6ren", "Auer"));
+		post.getResource().setAuthor(authors);
+		String ordered = PostFingerprint.of(post);
+		assertNotEquals(fingerprint, ordered);
+		Collections.reverse(authors);
+		assertNotEquals(ordered, PostFingerprint.of(post));
+	}
+
+	@Test
+	public void testMiscFields() {
+		BibTex bibtex = new BibTex();
+		bibtex.setMisc("  Series = {CEUR {W}orkshop, Proceedings},\n  month = \"December\", number = 5,"
+				+ "\n  biburl = {http://www.bibsonomy.org/bibtex/2/aksw}");
+		Map<String, String> expected = new TreeMap<String, String>();
+		expected.put("series", "CEUR {W}orkshop, Proceedings");
+		expected.put("month", "December");
+		expected.put("number", "5");
+		assertEquals(expected, PostFingerprint.miscFields(bibtex));
+	}
+}
@@ -0,0 +1,67 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.TestPosts.post;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class ReconcilerTest {
+	private static Log log = LogFactory.getLog(ReconcilerTest.class);
+
+	private static final int SIZE = 100000;
+
+	@Test(timeout = 30000)
+	public void testReconcileLargeAccount() {
+		// file holds 0 .. SIZE-1, account holds SIZE/2 .. SIZE/2+SIZE-1
+		List<Post<BibTex>> fileEntries = new ArrayList<Post<BibTex>>();
+		for (int i = 0; i < SIZE; i++) {
+			fileEntries.add(post("hash" + i, "title" + i));
+		}
+		List<Post<BibTex>> accountEntries = new ArrayList<Post<BibTex>>();
+		for (int i = SIZE / 2; i < SIZE / 2 + SIZE; i++) {
+			// every tenth post of the overlap was changed in the file
+			accountEntries.add(post("hash" + i, i % 10 == 0 ? "old title" + i : "title" + i));
+		}
+
+		long start = System.currentTimeMillis();
+		SyncPlan plan = new Reconciler((a, f) -> a.getResource().getTitle()
+				.equals(f.getResource().getTitle())).reconcile(fileEntries,
+				accountEntries);
+		log.info("Reconciling " + SIZE + " posts on each side took: "
+				+ (System.currentTimeMillis() - start));
+
+		assertEquals(SIZE / 2, plan.getAdd().size());
+		assertEquals(SIZE / 2 / 10, plan.getUpdate().size());
+		assertEquals(SIZE / 2 - SIZE / 2 / 10, plan.getUnchanged().size());
+		assertEquals(SIZE / 2, plan.getDelete().size());
+
+		// buckets keep the order of their source list
+		assertEquals("hash0", plan.getAdd().get(0).getResource().getIntraHash());
+		assertEquals("hash" + SIZE, plan.getDelete().get(0).getResource().getIntraHash());
+	}
+
+	@Test
+	public void testFirstOccurrenceWins() {
+		List<Post<BibTex>> fileEntries = new ArrayList<Post<BibTex>>();
+		fileEntries.add(post("hash1", "first"));
+		fileEntries.add(post("hash1", "second"));
+		List<Post<BibTex>> accountEntries = new ArrayList<Post<BibTex>>();
+		accountEntries.add(post("hash1", "first"));
+
+		SyncPlan plan = new Reconciler((a, f) -> a.getResource().getTitle()
+				.equals(f.getResource().getTitle())).reconcile(fileEntries,
+				accountEntries);
+
+		assertEquals(1, plan.getUnchanged().size());
+		assertTrue(plan.getUpdate().isEmpty());
+		assertTrue(plan.getAdd().isEmpty());
+		assertTrue(plan.getDelete().isEmpty());
+	}
+}
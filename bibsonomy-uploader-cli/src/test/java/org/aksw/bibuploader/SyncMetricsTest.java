@@ -0,0 +1,44 @@
+package org.aksw.bibuploader;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class SyncMetricsTest {
+
+	@Test
+	public void testSyncIsTimed() throws Exception {
+		InMemoryLogic account = new InMemoryLogic("aksw");
+		account.setLatency(10);
+
+		Path json = Files.createTempFile("bibuploader", ".json");
+		Path prom = Files.createTempFile("bibuploader", ".prom");
+		try {
+			BibUpdater updater = new BibUpdater(account.logic(), "aksw", "./src/test/resources/aksw.bib");
+			updater.setMetricsJson(json);
+			updater.setMetricsPrometheus(prom);
+			SyncMetrics metrics = updater.updateAccount().getMetrics();
+
+			assertEquals(account.getCalls("getPosts"), metrics.getCallCount("getPosts"));
+			assertEquals(account.getCalls("createPosts"), metrics.getCallCount("createPosts"));
+			assertTrue(metrics.getPhaseTime(SyncMetrics.RECONCILE) >= 10000000L);
+			assertTrue(metrics.getPhaseTime(SyncMetrics.PARSE) > 0);
+
+			String text = new String(Files.readAllBytes(prom), "UTF-8");
+			assertTrue(text.contains("# TYPE bibuploader_call_seconds histogram\n"));
+			assertTrue(text.contains("bibuploader_call_seconds_bucket{account=\"aksw\",call=\"getPosts\",le=\"0.005\"} 0\n"));
+			assertTrue(text.contains("bibuploader_call_seconds_count{account=\"aksw\",call=\"getPosts\"} 1\n"));
+			assertTrue(text.contains("bibuploader_phase_seconds{account=\"aksw\",phase=\"write\"}"));
+			assertTrue(text.contains("bibuploader_posts{account=\"aksw\",outcome=\"added\"}"));
+
+			String written = new String(Files.readAllBytes(json), "UTF-8");
+			assertTrue(written.contains("\"getPosts\": {\"count\": 1, \"failed\": 0"));
+		} finally {
+			Files.deleteIfExists(json);
+			Files.deleteIfExists(prom);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.aksw.bibuploader;
+
+import static org.aksw.bibuploader.TestPosts.post;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+import org.junit.Test;
+
+public class SyncStateStoreTest {
+
+	@Test
+	public void testPlanFromSavedState() throws Exception {
+		Path file = Files.createTempFile("bibuploader", ".syncstate");
+		Files.delete(file);
+		try {
+			SyncStateStore store = SyncStateStore.load(file);
+			assertTrue(store.isStale("aksw", TimeUnit.HOURS.toMillis(24)));
+
+			store.reset("aksw");
+			store.record(post("a", "kept"));
+			store.record(post("b", "changed"));
+			store.record(post("c", "removed"));
+			assertTrue(store.isStale("aksw", TimeUnit.HOURS.toMillis(24)));
+			store.setLastFullFetch(System.currentTimeMillis());
+			store.save();
+
+			store = SyncStateStore.load(file);
+			assertFalse(store.isStale("aksw", TimeUnit.HOURS.toMillis(24)));
+			assertTrue(store.isStale("other", TimeUnit.HOURS.toMillis(24)));
+			assertTrue(store.isStale("aksw", 0));
+
+			List<Post<BibTex>> fileEntries = new ArrayList<Post<BibTex>>();
+			fileEntries.add(post("a", "kept"));
+			fileEntries.add(post("b", "changed title"));
+			fileEntries.add(post("d", "added"));
+			SyncPlan plan = store.plan(fileEntries);
+
+			assertEquals(1, plan.getUnchanged().size());
+			assertEquals("a", plan.getUnchanged().get(0).getResource().getIntraHash());
+			assertEquals(1, plan.getUpdate().size());
+			assertEquals("b", plan.getUpdate().get(0).getResource().getIntraHash());
+			assertEquals(1, plan.getAdd().size());
+			assertEquals("d", plan.getAdd().get(0).getResource().getIntraHash());
+			assertEquals(1, plan.getDelete().size());
+			assertEquals("c", plan.getDelete().get(0).getResource().getIntraHash());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testMissingTagsMatchUploadedPost() {
+		Post<BibTex> filePost = post("a", "title");
+		Post<BibTex> uploaded = post("a", "title");
+		uploaded.addTag("nokeyword");
+		assertEquals(PostFingerprint.of(uploaded), PostFingerprint.of(filePost));
+	}
+
+	@Test
+	public void testFailedUpdateIsKeptAsInTheAccount() throws Exception {
+		Path bib = Files.createTempFile("bibuploader", ".bib");
+		Files.copy(Paths.get("./src/test/resources/aksw.bib"), bib, StandardCopyOption.REPLACE_EXISTING);
+		BibUpdater updater = new BibUpdater(bib.toString());
+		try {
+			// the account holds the first post with other tags
+			Post<BibTex> changed = updater.loadEntriesFromFile().get(0);
+			String hash = changed.getResource().getIntraHash();
+			changed.getTags().clear();
+			changed.addTag("outdated");
+			InMemoryLogic account = new InMemoryLogic("aksw");
+			account.addPosts(Collections.singletonList(changed));
+			account.setRejected(post -> hash.equals(post.getResource().getIntraHash()));
+
+			updater = new BibUpdater(account.logic(), "aksw", bib.toString());
+			updater.setSyncState(true);
+			Summary summary = updater.updateAccount();
+			assertEquals(1, summary.getFailedUpdates());
+			assertEquals(30, summary.getAdded());
+
+			// the post is recorded as it is in the account, and a full fetch follows
+			SyncStateStore store = SyncStateStore.load(updater.getSyncStatePath());
+			assertTrue(store.isStale("aksw", TimeUnit.HOURS.toMillis(24)));
+			SyncPlan plan = store.plan(updater.loadEntriesFromFile());
+			assertEquals(1, plan.getUpdate().size());
+			assertEquals(hash, plan.getUpdate().get(0).getResource().getIntraHash());
+			assertTrue(plan.getAdd().isEmpty());
+
+			account.setRejected(null);
+			summary = updater.updateAccount();
+			assertEquals(2, account.getCalls("getPosts"));
+			assertEquals(1, summary.getUpdated());
+			assertEquals(0, summary.getAdded());
+			assertFalse(SyncStateStore.load(updater.getSyncStatePath()).isStale("aksw", TimeUnit.HOURS.toMillis(24)));
+
+			// planned from the store
+			summary = updater.updateAccount();
+			assertEquals(2, account.getCalls("getPosts"));
+			assertEquals(0, summary.getUpdated() + summary.getAdded() + summary.getRemoved());
+		} finally {
+			Files.deleteIfExists(updater.getSyncStatePath());
+			Files.deleteIfExists(bib);
+		}
+	}
+}
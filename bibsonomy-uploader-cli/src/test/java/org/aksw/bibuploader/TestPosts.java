@@ -0,0 +1,22 @@
+package org.aksw.bibuploader;
+
+import org.bibsonomy.model.BibTex;
+import org.bibsonomy.model.Post;
+
+/**
+ * Posts for the tests, holding only a hash and a title.
+ */
+final class TestPosts {
+
+	private TestPosts() {
+	}
+
+	static Post<BibTex> post(String hash, String title) {
+		BibTex bibtex = new BibTex();
+		bibtex.setTitle(title);
+		bibtex.setIntraHash(hash);
+		Post<BibTex> post = new Post<BibTex>();
+		post.setResource(bibtex);
+		return post;
+	}
+}
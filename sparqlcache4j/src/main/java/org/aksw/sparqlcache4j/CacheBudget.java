@@ -0,0 +1,61 @@
+package org.aksw.sparqlcache4j;
+
+/**
+ * The bytes the cache of one endpoint may hold in each tier. Results are
+ * held compressed, so the budgets bound the compressed size.
+ *
+ * The heap tier is always used. Results evicted from it spill to the disk
+ * tier if its budget is positive. An off heap tier in between needs
+ * BigMemory on the classpath and is only configured if its budget is
+ * positive.
+ */
+public class CacheBudget {
+
+	private static final long MB = 1024 * 1024;
+
+	public static final CacheBudget DEFAULT = new CacheBudget(64 * MB, 0, 1024 * MB);
+
+	// a larger result would evict too many others from the heap tier
+	private static final int MAX_ENTRY_FRACTION = 8;
+
+	private final long heapBytes;
+
+	private final long offHeapBytes;
+
+	private final long diskBytes;
+
+	public CacheBudget(long heapBytes, long offHeapBytes, long diskBytes) {
+		if (heapBytes <= 0)
+			throw new IllegalArgumentException("The heap budget must be positive: " + heapBytes);
+		if (offHeapBytes < 0 || diskBytes < 0)
+			throw new IllegalArgumentException("A budget must not be negative");
+		this.heapBytes = heapBytes;
+		this.offHeapBytes = offHeapBytes;
+		this.diskBytes = diskBytes;
+	}
+
+	public long getHeapBytes() {
+		return heapBytes;
+	}
+
+	public long getOffHeapBytes() {
+		return offHeapBytes;
+	}
+
+	public long getDiskBytes() {
+		return diskBytes;
+	}
+
+	/**
+	 * @return the size of the largest compressed result which is cached
+	 */
+	public long getMaxEntryBytes() {
+		return heapBytes / MAX_ENTRY_FRACTION;
+	}
+
+	@Override
+	public String toString() {
+		return "heap " + heapBytes + " bytes, off heap " + offHeapBytes + " bytes, disk " + diskBytes
+				+ " bytes";
+	}
+}
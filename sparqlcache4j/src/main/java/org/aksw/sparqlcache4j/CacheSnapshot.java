@@ -0,0 +1,206 @@
+package org.aksw.sparqlcache4j;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The file a cache is snapshotted to, so a restarted cache does not start
+ * cold.
+ *
+ * After a header (magic "SCSN", version, time of the snapshot) the file holds
+ * records of a tag byte: an entry (E: key, query, creation time, compressed
+ * result), a key invalidated while the snapshot was written (I: key), and
+ * the end (Z: number of entries). Strings and results are written as their
+ * length followed by their bytes. The invalidated keys follow the entries,
+ * so reading the file once yields the valid entries. A snapshot is written
+ * to a temporary file moved over the previous one once complete, and read
+ * through a memory mapping.
+ */
+final class CacheSnapshot {
+
+	private static final int MAGIC = 0x5343534E;
+
+	private static final int VERSION = 1;
+
+	private static final byte ENTRY = 'E', INVALIDATED = 'I', END = 'Z';
+
+	private CacheSnapshot() {
+	}
+
+	static final class Entry {
+
+		private final String key;
+
+		private final String query;
+
+		private final long creationTime;
+
+		private final byte[] value;
+
+		Entry(String key, String query, long creationTime, byte[] value) {
+			this.key = key;
+			this.query = query;
+			this.creationTime = creationTime;
+			this.value = value;
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		String getQuery() {
+			return query;
+		}
+
+		long getCreationTime() {
+			return creationTime;
+		}
+
+		byte[] getValue() {
+			return value;
+		}
+	}
+
+	static final class Writer implements Closeable {
+
+		private final Path file;
+
+		private final Path tmp;
+
+		private final FileChannel channel;
+
+		private final DataOutputStream out;
+
+		private int entries;
+
+		private boolean committed;
+
+		Writer(Path file) throws IOException {
+			this.file = file;
+			this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+		}
+
+		void entry(String key, String query, long creationTime, byte[] value) throws IOException {
+			out.writeByte(ENTRY);
+			writeString(key);
+			writeString(query);
+			out.writeLong(creationTime);
+			out.writeInt(value.length);
+			out.write(value);
+			entries++;
+		}
+
+		void invalidated(Collection<String> keys) throws IOException {
+			for (String key : keys) {
+				out.writeByte(INVALIDATED);
+				writeString(key);
+			}
+		}
+
+		/**
+		 * Replaces the previous snapshot by this one.
+		 */
+		void commit() throws IOException {
+			out.writeByte(END);
+			out.writeInt(entries);
+			out.flush();
+			channel.force(true);
+			out.close();
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			committed = true;
+		}
+
+		int getEntries() {
+			return entries;
+		}
+
+		private void writeString(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (committed)
+				return;
+			try {
+				out.close();
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+
+	/**
+	 * @return the entries of the snapshot which were not invalidated while it
+	 *         was written
+	 * @throws IOException
+	 *             if the file cannot be read or is no complete snapshot
+	 */
+	static List<Entry> read(Path file) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a snapshot: " + file);
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unknown snapshot version " + version + ": " + file);
+			buffer.getLong();
+
+			Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+			while (true) {
+				byte tag = buffer.get();
+				if (tag == ENTRY) {
+					String key = readString(buffer);
+					String query = readString(buffer);
+					long creationTime = buffer.getLong();
+					byte[] value = new byte[buffer.getInt()];
+					buffer.get(value);
+					entries.put(key, new Entry(key, query, creationTime, value));
+				} else if (tag == INVALIDATED) {
+					entries.remove(readString(buffer));
+				} else if (tag == END) {
+					buffer.getInt();
+					return new ArrayList<Entry>(entries.values());
+				} else {
+					throw new IOException("Corrupt snapshot: " + file);
+				}
+			}
+		} catch (BufferUnderflowException | NegativeArraySizeException e) {
+			throw new IOException("Incomplete snapshot: " + file, e);
+		}
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,160 @@
+package org.aksw.sparqlcache4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Passes the response of the store on to the caller, compressing the bytes
+ * read into a buffer on the way. Once the response is read to its end, the
+ * listener receives the compressed response to cache. If the response
+ * compresses to more than the given bytes, or is closed before its end, the
+ * listener receives null, and if reading fails it receives the failure.
+ */
+class CachingInputStream extends FilterInputStream {
+
+	interface Listener {
+
+		/**
+		 * @param compressed
+		 *            the complete response, or null if it is not to be cached
+		 */
+		void completed(byte[] compressed);
+
+		void failed(IOException e);
+	}
+
+	private final long maxBytes;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	// null once the response is too large to cache
+	private DeflaterOutputStream compressed = new DeflaterOutputStream(buffer, deflater, 8192);
+
+	// null once notified
+	private Listener listener;
+
+	CachingInputStream(InputStream response, long maxBytes, Listener listener) {
+		super(response);
+		this.maxBytes = maxBytes;
+		this.listener = listener;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b;
+		try {
+			b = super.read();
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+		if (b < 0) {
+			complete();
+		} else if (compressed != null) {
+			compressed.write(b);
+			checkSize();
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read;
+		try {
+			read = super.read(b, off, len);
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+		if (read < 0) {
+			complete();
+		} else if (compressed != null) {
+			compressed.write(b, off, read);
+			checkSize();
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		// the skipped bytes are part of the response to cache
+		byte[] skipped = new byte[(int) Math.min(n, 8192)];
+		long total = 0;
+		while (total < n) {
+			int read = read(skipped, 0, (int) Math.min(n - total, skipped.length));
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			// closed before the end of the response
+			notify(null);
+		}
+	}
+
+	private void checkSize() {
+		if (buffer.size() > maxBytes) {
+			compressed = null;
+			deflater.end();
+			buffer.reset();
+		}
+	}
+
+	private void complete() throws IOException {
+		if (listener == null)
+			return;
+		byte[] result = null;
+		if (compressed != null) {
+			compressed.finish();
+			checkSize();
+			if (compressed != null)
+				result = buffer.toByteArray();
+		}
+		notify(result);
+	}
+
+	private void notify(byte[] result) {
+		if (listener == null)
+			return;
+		Listener notified = listener;
+		listener = null;
+		release();
+		notified.completed(result);
+	}
+
+	private void fail(IOException e) {
+		if (listener == null)
+			return;
+		Listener notified = listener;
+		listener = null;
+		release();
+		notified.failed(e);
+	}
+
+	private void release() {
+		if (compressed != null) {
+			compressed = null;
+			deflater.end();
+		}
+	}
+}
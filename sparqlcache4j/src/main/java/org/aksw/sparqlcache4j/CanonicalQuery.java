@@ -0,0 +1,242 @@
+package org.aksw.sparqlcache4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.shared.impl.PrefixMappingImpl;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.syntax.ElementPathBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementSubQuery;
+import com.hp.hpl.jena.sparql.syntax.ElementTriplesBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementVisitorBase;
+import com.hp.hpl.jena.sparql.syntax.ElementWalker;
+
+/**
+ * Computes the cache key of a query, which is equal for queries differing
+ * only in their whitespace, prefixes, the order of the triple patterns of a
+ * group or the names of the variables the results do not show.
+ *
+ * The query is copied without prefixes, so its IRIs are written in full, and
+ * the patterns of each basic graph pattern are sorted. In the serialized
+ * copy the variables are renamed in the order they appear. The variables
+ * projected by a SELECT keep their names, which are part of its results. The
+ * key is the SHA-1 of this canonical form.
+ */
+public final class CanonicalQuery {
+
+	private CanonicalQuery() {
+	}
+
+	/**
+	 * @return the key of the query in the cache
+	 */
+	public static String key(Query query) {
+		return digest(canonicalize(query));
+	}
+
+	/**
+	 * @return the canonical form of the query
+	 */
+	public static String canonicalize(Query query) {
+		Query copy = query.cloneQuery();
+		copy.setPrefixMapping(new PrefixMappingImpl());
+
+		Set<String> kept = new HashSet<String>();
+		if (copy.isSelectType())
+			kept.addAll(copy.getResultVars());
+
+		sortPatterns(copy, kept);
+		return renameVariables(copy.toString(), kept);
+	}
+
+	private static void sortPatterns(Query query, final Set<String> kept) {
+		if (query.getQueryPattern() == null)
+			return;
+		ElementWalker.walk(query.getQueryPattern(), new ElementVisitorBase() {
+
+			@Override
+			public void visit(ElementTriplesBlock block) {
+				block.getPattern().getList().sort(new Comparator<Triple>() {
+					@Override
+					public int compare(Triple a, Triple b) {
+						return sortKey(a.getSubject(), a.getPredicate(), a.getObject(), kept)
+								.compareTo(sortKey(b.getSubject(), b.getPredicate(), b.getObject(), kept));
+					}
+				});
+			}
+
+			@Override
+			public void visit(ElementPathBlock block) {
+				block.getPattern().getList().sort(new Comparator<TriplePath>() {
+					@Override
+					public int compare(TriplePath a, TriplePath b) {
+						return sortKey(a, kept).compareTo(sortKey(b, kept));
+					}
+				});
+			}
+
+			@Override
+			public void visit(ElementSubQuery subQuery) {
+				sortPatterns(subQuery.getQuery(), kept);
+			}
+		});
+	}
+
+	private static String sortKey(TriplePath path, Set<String> kept) {
+		if (path.isTriple())
+			return sortKey(path.getSubject(), path.getPredicate(), path.getObject(), kept);
+		return sortKey(path.getSubject(), null, path.getObject(), kept) + " " + path.getPath();
+	}
+
+	/**
+	 * @return the pattern with the variables to be renamed left out, so the
+	 *         order of the patterns does not depend on their names
+	 */
+	private static String sortKey(Node subject, Node predicate, Node object, Set<String> kept) {
+		StringBuilder key = new StringBuilder();
+		for (Node node : new Node[] { subject, predicate, object }) {
+			if (node == null)
+				key.append("/ ");
+			else if (node.isVariable() && !kept.contains(node.getName()))
+				key.append("? ");
+			else
+				key.append(node).append(' ');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Renames the variables of a serialized query in the order they appear,
+	 * except for the kept ones, and collapses whitespace. IRIs and literals
+	 * are copied as they are.
+	 */
+	static String renameVariables(String text, Set<String> kept) {
+		String prefix = "v";
+		while (collides(prefix, kept)) {
+			prefix += "v";
+		}
+
+		Map<String, String> names = new HashMap<String, String>();
+		StringBuilder out = new StringBuilder(text.length());
+		int i = 0;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\'') {
+				int end = endOfLiteral(text, i);
+				out.append(text, i, end);
+				i = end;
+			} else if (c == '<' && isIri(text, i)) {
+				int end = text.indexOf('>', i) + 1;
+				out.append(text, i, end);
+				i = end;
+			} else if ((c == '?' || c == '$') && i + 1 < text.length()
+					&& isNameChar(text.charAt(i + 1))) {
+				int end = i + 1;
+				while (end < text.length() && isNameChar(text.charAt(end))) {
+					end++;
+				}
+				String name = text.substring(i + 1, end);
+				if (!kept.contains(name)) {
+					String renamed = names.get(name);
+					if (renamed == null) {
+						renamed = prefix + names.size();
+						names.put(name, renamed);
+					}
+					name = renamed;
+				}
+				out.append('?').append(name);
+				i = end;
+			} else if (Character.isWhitespace(c)) {
+				while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+					i++;
+				}
+				if (out.length() > 0 && i < text.length())
+					out.append(' ');
+			} else {
+				out.append(c);
+				i++;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return whether a kept variable is named like a renamed one
+	 */
+	private static boolean collides(String prefix, Set<String> kept) {
+		Pattern renamed = Pattern.compile(Pattern.quote(prefix) + "[0-9]+");
+		for (String name : kept) {
+			if (renamed.matcher(name).matches())
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '\u00B7';
+	}
+
+	/**
+	 * @return whether the '<' at the index starts an IRI rather than being a
+	 *         comparison, as an IRI holds no whitespace
+	 */
+	private static boolean isIri(String text, int start) {
+		for (int i = start + 1; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '>')
+				return true;
+			if (Character.isWhitespace(c) || c == '<' || c == '"' || c == '{' || c == '}')
+				return false;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the index after the literal starting at the index
+	 */
+	private static int endOfLiteral(String text, int start) {
+		char quote = text.charAt(start);
+		boolean isLong = text.startsWith(repeat(quote), start);
+		int i = start + (isLong ? 3 : 1);
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (isLong ? text.startsWith(repeat(quote), i) : c == quote) {
+				return i + (isLong ? 3 : 1);
+			} else {
+				i++;
+			}
+		}
+		return text.length();
+	}
+
+	private static String repeat(char quote) {
+		return new String(new char[] { quote, quote, quote });
+	}
+
+	private static String digest(String canonical) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+					canonical.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM provides SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+}
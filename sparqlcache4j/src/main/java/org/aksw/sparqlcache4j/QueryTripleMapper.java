@@ -0,0 +1,579 @@
+package org.aksw.sparqlcache4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.syntax.Element;
+import com.hp.hpl.jena.sparql.syntax.ElementNamedGraph;
+import com.hp.hpl.jena.sparql.syntax.ElementPathBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementSubQuery;
+import com.hp.hpl.jena.sparql.syntax.ElementTriplesBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementVisitorBase;
+import com.hp.hpl.jena.sparql.syntax.ElementWalker;
+
+/**
+ * Maps the triple patterns of the cached queries to the queries, so the
+ * queries an updated triple may affect are found without looking at the
+ * others.
+ *
+ * A pattern has a shape, the set of its positions holding a concrete term,
+ * and per shape the queries are kept in buckets keyed by those terms. A
+ * variable, blank node or property path counts as a wildcard. For a concrete
+ * triple each of the 8 shapes is looked up once, so finding the affected
+ * queries costs about the number of matches. For a triple with variables,
+ * e.g. from an INSERT template, the positions holding a variable match any
+ * term; the remaining positions are looked up in per position indexes and the
+ * results intersected. A blank node in a triple is a new node and only
+ * matches wildcards.
+ *
+ * Queries without any pattern, e.g. a DESCRIBE of a resource, are registered
+ * with patterns on their resources or, lacking those, a pattern of wildcards,
+ * and so are invalidated conservatively.
+ *
+ * The graphs a query reads are registered as well, from its FROM and FROM
+ * NAMED clauses and its GRAPH patterns. A query reading the default graph
+ * without a FROM clause, or a GRAPH variable without a FROM NAMED clause,
+ * may read any graph, as many stores take the union of their graphs as the
+ * default graph. Updates of a graph only invalidate the queries reading it.
+ */
+public class QueryTripleMapper {
+
+	private static final int SUBJECT = 0, PREDICATE = 1, OBJECT = 2;
+
+	private static final int SHAPES = 8;
+
+	// stands for a blank node of an update, which is equal to no term
+	private static final Node NEW_NODE = Node.createURI(QueryTripleMapper.class.getName() + "#new");
+
+	// per shape, the queries by the concrete terms of their patterns
+	private final List<Map<List<Node>, Set<String>>> buckets = new ArrayList<Map<List<Node>, Set<String>>>();
+
+	// per shape and position, the queries by the term at that position
+	private final List<List<Map<Node, Set<String>>>> positions = new ArrayList<List<Map<Node, Set<String>>>>();
+
+	private final Map<String, Query> queries = new HashMap<String, Query>();
+
+	private final Map<String, Set<Pattern>> patterns = new HashMap<String, Set<Pattern>>();
+
+	// the graphs read by each query, null if it may read any graph
+	private final Map<String, Set<Node>> graphs = new HashMap<String, Set<Node>>();
+
+	// the queries by the graphs they read
+	private final Map<Node, Set<String>> byGraph = new HashMap<Node, Set<String>>();
+
+	private final Set<String> anyGraph = new HashSet<String>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public QueryTripleMapper() {
+		for (int shape = 0; shape < SHAPES; shape++) {
+			buckets.add(new HashMap<List<Node>, Set<String>>());
+			List<Map<Node, Set<String>>> shapePositions = new ArrayList<Map<Node, Set<String>>>();
+			for (int position = 0; position < 3; position++) {
+				shapePositions.add(new HashMap<Node, Set<String>>());
+			}
+			positions.add(shapePositions);
+		}
+	}
+
+	public void register(Query query) {
+		register(query.toString(), query);
+	}
+
+	/**
+	 * Registers the query cached under the key.
+	 */
+	public void register(String queryKey, Query query) {
+		Set<Pattern> queryPatterns = patternsOf(query);
+		Set<Node> queryGraphs = graphsOf(query);
+
+		lock.writeLock().lock();
+		try {
+			if (queries.containsKey(queryKey))
+				return;
+			queries.put(queryKey, query);
+			patterns.put(queryKey, queryPatterns);
+			graphs.put(queryKey, queryGraphs);
+			if (queryGraphs == null) {
+				anyGraph.add(queryKey);
+			} else {
+				for (Node graph : queryGraphs) {
+					add(byGraph, graph, queryKey);
+				}
+			}
+			for (Pattern pattern : queryPatterns) {
+				add(buckets.get(pattern.shape), pattern.key(), queryKey);
+				for (int position = 0; position < 3; position++) {
+					if (pattern.terms[position] != null)
+						add(positions.get(pattern.shape).get(position), pattern.terms[position], queryKey);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void unregister(Query query) {
+		unregister(query.toString());
+	}
+
+	/**
+	 * Unregisters the query cached under the key, e.g. when evicted.
+	 */
+	public void unregister(String queryKey) {
+		lock.writeLock().lock();
+		try {
+			if (queries.remove(queryKey) == null)
+				return;
+			Set<Node> queryGraphs = graphs.remove(queryKey);
+			if (queryGraphs == null) {
+				anyGraph.remove(queryKey);
+			} else {
+				for (Node graph : queryGraphs) {
+					remove(byGraph, graph, queryKey);
+				}
+			}
+			for (Pattern pattern : patterns.remove(queryKey)) {
+				remove(buckets.get(pattern.shape), pattern.key(), queryKey);
+				for (int position = 0; position < 3; position++) {
+					if (pattern.terms[position] != null)
+						remove(positions.get(pattern.shape).get(position), pattern.terms[position], queryKey);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the query registered under the key, or null
+	 */
+	public Query getQuery(String queryKey) {
+		lock.readLock().lock();
+		try {
+			return queries.get(queryKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of registered queries
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return queries.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the queries with a pattern matching the triple
+	 */
+	public Collection<Query> findInvalidQueries(Triple triple) {
+		return findInvalidQueries(Collections.singletonList(triple));
+	}
+
+	/**
+	 * @return the queries with a pattern matching any of the triples, each
+	 *         query once
+	 */
+	public Collection<Query> findInvalidQueries(Collection<Triple> triples) {
+		lock.readLock().lock();
+		try {
+			Collection<String> found = findInvalidKeys(triples);
+			List<Query> invalid = new ArrayList<Query>(found.size());
+			for (String queryKey : found) {
+				invalid.add(queries.get(queryKey));
+			}
+			return invalid;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the keys of the queries with a pattern matching any of the
+	 *         triples, each key once
+	 */
+	public Collection<String> findInvalidKeys(Collection<Triple> triples) {
+		return findInvalidKeys(triples, Collections.<Node> emptyList());
+	}
+
+	/**
+	 * @param updatedGraphs
+	 *            the graphs the triples are updated in, none for the default
+	 *            graph
+	 * @return the keys of the queries reading one of the graphs with a pattern
+	 *         matching any of the triples, each key once
+	 */
+	public Collection<String> findInvalidKeys(Collection<Triple> triples,
+			Collection<Node> updatedGraphs) {
+		Set<String> found = new LinkedHashSet<String>();
+		lock.readLock().lock();
+		try {
+			for (Triple triple : triples) {
+				Node[] terms = { updated(triple.getSubject()), updated(triple.getPredicate()),
+						updated(triple.getObject()) };
+				for (int shape = 0; shape < SHAPES; shape++) {
+					find(shape, terms, found);
+				}
+			}
+
+			if (!updatedGraphs.isEmpty()) {
+				for (Iterator<String> iter = found.iterator(); iter.hasNext();) {
+					Set<Node> queryGraphs = graphs.get(iter.next());
+					if (queryGraphs != null && Collections.disjoint(queryGraphs, updatedGraphs))
+						iter.remove();
+				}
+			}
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param updatedGraphs
+	 *            the graphs, none for the default graph, which may be any
+	 * @return the keys of the queries which may read one of the graphs
+	 */
+	public Collection<String> findKeysReading(Collection<Node> updatedGraphs) {
+		if (updatedGraphs.isEmpty())
+			return keys();
+
+		lock.readLock().lock();
+		try {
+			Set<String> found = new LinkedHashSet<String>(anyGraph);
+			for (Node graph : updatedGraphs) {
+				Set<String> readers = byGraph.get(graph);
+				if (readers != null)
+					found.addAll(readers);
+			}
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the keys of all registered queries
+	 */
+	public Collection<String> keys() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<String>(queries.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void find(int shape, Node[] terms, Set<String> found) {
+		Map<List<Node>, Set<String>> shapeBuckets = buckets.get(shape);
+		if (shapeBuckets.isEmpty())
+			return;
+
+		// the positions the shape and the triple both hold a term at
+		List<Integer> bound = new ArrayList<Integer>(3);
+		boolean open = false;
+		for (int position = 0; position < 3; position++) {
+			if (isConcrete(shape, position)) {
+				if (terms[position] == NEW_NODE)
+					return;
+				if (terms[position] == null)
+					open = true;
+				else
+					bound.add(position);
+			}
+		}
+
+		if (!open) {
+			Set<String> bucket = shapeBuckets.get(key(shape, terms));
+			if (bucket != null)
+				found.addAll(bucket);
+		} else if (bound.isEmpty()) {
+			for (Set<String> bucket : shapeBuckets.values()) {
+				found.addAll(bucket);
+			}
+		} else {
+			Set<String> matches = null;
+			for (int position : bound) {
+				Set<String> candidates = positions.get(shape).get(position).get(terms[position]);
+				if (candidates == null)
+					return;
+				if (matches == null) {
+					matches = new HashSet<String>(candidates);
+				} else {
+					matches.retainAll(candidates);
+				}
+			}
+			// the terms may come from different patterns of a query
+			for (String queryKey : matches) {
+				for (Pattern pattern : patterns.get(queryKey)) {
+					if (pattern.shape == shape && pattern.matches(terms)) {
+						found.add(queryKey);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the triple patterns of the query
+	 */
+	static Set<Pattern> patternsOf(Query query) {
+		final Set<Pattern> found = new LinkedHashSet<Pattern>();
+		if (query.getQueryPattern() != null)
+			collect(query.getQueryPattern(), found);
+
+		if (query.isDescribeType()) {
+			for (Node resource : query.getResultURIs()) {
+				found.add(new Pattern(resource, null, null));
+				found.add(new Pattern(null, null, resource));
+			}
+		}
+
+		if (found.isEmpty())
+			found.add(new Pattern(null, null, null));
+		return found;
+	}
+
+	/**
+	 * @return the graphs the query reads, or null if it may read any graph
+	 */
+	static Set<Node> graphsOf(Query query) {
+		Set<Node> found = new HashSet<Node>();
+		if (!collectGraphs(query, query.getGraphURIs(), query.getNamedGraphURIs(), found))
+			return null;
+		return found;
+	}
+
+	/**
+	 * @return false if the query may read any graph
+	 */
+	private static boolean collectGraphs(Query query, List<String> from, List<String> fromNamed,
+			Set<Node> found) {
+		Element pattern = query.getQueryPattern();
+		if (pattern == null)
+			return addGraphs(from, found);
+
+		final List<ElementNamedGraph> namedGraphs = new ArrayList<ElementNamedGraph>();
+		final List<ElementSubQuery> subQueries = new ArrayList<ElementSubQuery>();
+		ElementWalker.walk(pattern, new ElementVisitorBase() {
+
+			@Override
+			public void visit(ElementNamedGraph namedGraph) {
+				namedGraphs.add(namedGraph);
+			}
+
+			@Override
+			public void visit(ElementSubQuery subQuery) {
+				subQueries.add(subQuery);
+			}
+		});
+
+		// the blocks within a GRAPH pattern do not read the default graph
+		final Map<Element, Boolean> inNamedGraph = new IdentityHashMap<Element, Boolean>();
+		for (ElementNamedGraph namedGraph : namedGraphs) {
+			ElementWalker.walk(namedGraph.getElement(), new ElementVisitorBase() {
+
+				@Override
+				public void visit(ElementTriplesBlock block) {
+					inNamedGraph.put(block, Boolean.TRUE);
+				}
+
+				@Override
+				public void visit(ElementPathBlock block) {
+					inNamedGraph.put(block, Boolean.TRUE);
+				}
+			});
+		}
+		final boolean[] readsDefault = new boolean[1];
+		ElementWalker.walk(pattern, new ElementVisitorBase() {
+
+			@Override
+			public void visit(ElementTriplesBlock block) {
+				readsDefault[0] |= !inNamedGraph.containsKey(block);
+			}
+
+			@Override
+			public void visit(ElementPathBlock block) {
+				readsDefault[0] |= !inNamedGraph.containsKey(block);
+			}
+		});
+
+		if (readsDefault[0] && !addGraphs(from, found))
+			return false;
+		for (ElementNamedGraph namedGraph : namedGraphs) {
+			Node graph = namedGraph.getGraphNameNode();
+			if (graph.isURI())
+				found.add(graph);
+			else if (!addGraphs(fromNamed, found))
+				return false;
+		}
+		for (ElementSubQuery subQuery : subQueries) {
+			if (!collectGraphs(subQuery.getQuery(), from, fromNamed, found))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if no graphs are given, as then any may be read
+	 */
+	private static boolean addGraphs(List<String> uris, Set<Node> found) {
+		if (uris == null || uris.isEmpty())
+			return false;
+		for (String uri : uris) {
+			found.add(Node.createURI(uri));
+		}
+		return true;
+	}
+
+	private static void collect(Element element, final Set<Pattern> found) {
+		ElementWalker.walk(element, new ElementVisitorBase() {
+
+			@Override
+			public void visit(ElementTriplesBlock block) {
+				for (Iterator<Triple> iter = block.patternElts(); iter.hasNext();) {
+					Triple triple = iter.next();
+					found.add(new Pattern(triple.getSubject(), triple.getPredicate(), triple.getObject()));
+				}
+			}
+
+			@Override
+			public void visit(ElementPathBlock block) {
+				for (Iterator<TriplePath> iter = block.patternElts(); iter.hasNext();) {
+					TriplePath path = iter.next();
+					// a property path matches any predicate
+					found.add(new Pattern(path.getSubject(), path.isTriple() ? path.getPredicate() : null,
+							path.getObject()));
+				}
+			}
+
+			@Override
+			public void visit(ElementSubQuery subQuery) {
+				found.addAll(patternsOf(subQuery.getQuery()));
+			}
+		});
+	}
+
+	/**
+	 * @return the term, or null if it matches any term
+	 */
+	private static Node term(Node node) {
+		if (node == null || node.isVariable() || node.isBlank() || Node.ANY.equals(node))
+			return null;
+		return node;
+	}
+
+	/**
+	 * @return the term of an updated triple, null if it matches any term, or
+	 *         {@link #NEW_NODE} if it matches no term
+	 */
+	private static Node updated(Node node) {
+		if (node != null && node.isBlank())
+			return NEW_NODE;
+		return term(node);
+	}
+
+	private static boolean isConcrete(int shape, int position) {
+		return (shape & (1 << position)) != 0;
+	}
+
+	private static List<Node> key(int shape, Node[] terms) {
+		List<Node> key = new ArrayList<Node>(3);
+		for (int position = 0; position < 3; position++) {
+			if (isConcrete(shape, position))
+				key.add(terms[position]);
+		}
+		return key;
+	}
+
+	private static <K> void add(Map<K, Set<String>> index, K indexKey, String queryKey) {
+		Set<String> bucket = index.get(indexKey);
+		if (bucket == null) {
+			bucket = new HashSet<String>(4);
+			index.put(indexKey, bucket);
+		}
+		bucket.add(queryKey);
+	}
+
+	private static <K> void remove(Map<K, Set<String>> index, K indexKey, String queryKey) {
+		Set<String> bucket = index.get(indexKey);
+		if (bucket != null && bucket.remove(queryKey) && bucket.isEmpty())
+			index.remove(indexKey);
+	}
+
+	/**
+	 * A triple pattern, null standing for a wildcard.
+	 */
+	static final class Pattern {
+
+		private final Node[] terms;
+
+		private final int shape;
+
+		Pattern(Node subject, Node predicate, Node object) {
+			terms = new Node[] { term(subject), term(predicate), term(object) };
+			int bits = 0;
+			for (int position = 0; position < 3; position++) {
+				if (terms[position] != null)
+					bits |= 1 << position;
+			}
+			shape = bits;
+		}
+
+		private List<Node> key() {
+			return QueryTripleMapper.key(shape, terms);
+		}
+
+		private boolean matches(Node[] triple) {
+			for (int position = 0; position < 3; position++) {
+				if (terms[position] != null && triple[position] != null
+						&& !terms[position].equals(triple[position]))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Pattern && Arrays.equals(terms, ((Pattern) obj).terms);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(terms);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + toString(terms[SUBJECT]) + " " + toString(terms[PREDICATE]) + " "
+					+ toString(terms[OBJECT]) + ")";
+		}
+
+		private static String toString(Node term) {
+			return term == null ? "*" : term.toString();
+		}
+	}
+}
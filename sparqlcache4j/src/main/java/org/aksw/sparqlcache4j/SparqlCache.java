@@ -0,0 +1,1476 @@
+package org.aksw.sparqlcache4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.MemoryUnit;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.management.ManagementService;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.sparql.engine.http.HttpParams;
+import com.hp.hpl.jena.sparql.engine.http.HttpQuery;
+import com.hp.hpl.jena.sparql.engine.http.Params;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import com.hp.hpl.jena.sparql.modify.UpdateVisitor;
+import com.hp.hpl.jena.sparql.modify.op.Update;
+import com.hp.hpl.jena.sparql.modify.op.UpdateClear;
+import com.hp.hpl.jena.sparql.modify.op.UpdateCreate;
+import com.hp.hpl.jena.sparql.modify.op.UpdateDelete;
+import com.hp.hpl.jena.sparql.modify.op.UpdateDeleteData;
+import com.hp.hpl.jena.sparql.modify.op.UpdateDrop;
+import com.hp.hpl.jena.sparql.modify.op.UpdateExt;
+import com.hp.hpl.jena.sparql.modify.op.UpdateInsert;
+import com.hp.hpl.jena.sparql.modify.op.UpdateInsertData;
+import com.hp.hpl.jena.sparql.modify.op.UpdateLoad;
+import com.hp.hpl.jena.sparql.modify.op.UpdateModify;
+import com.hp.hpl.jena.sparql.syntax.Template;
+import com.hp.hpl.jena.sparql.syntax.TemplateGroup;
+import com.hp.hpl.jena.sparql.syntax.TemplateTriple;
+import com.hp.hpl.jena.sparql.syntax.TemplateVisitor;
+import com.hp.hpl.jena.update.UpdateRequest;
+
+public class SparqlCache {
+
+	private static final int TIME_TO_LIVE_SECONDS = 500;
+
+	private static final int TIME_TO_IDLE_SECONDS = 200;
+
+	// the directory the caches are snapshotted to, null if they are not
+	private static volatile Path snapshotDirectory;
+
+	// takes the snapshots, null while they are not enabled
+	private static ScheduledExecutorService snapshots;
+
+	private static Thread snapshotOnShutdown;
+
+	// the budgets by the name of the cache of the endpoint
+	private static final Map<String, CacheBudget> budgets = new ConcurrentHashMap<String, CacheBudget>();
+
+	// the mappers by the name of the cache of the endpoint; kept out of the
+	// cache, so they are neither evicted nor sized nor spilled to disk
+	private static final Map<String, QueryTripleMapper> mappers = new ConcurrentHashMap<String, QueryTripleMapper>();
+
+	// the statistics by the name of the cache of the endpoint
+	private static final Map<String, SparqlCacheStatistics> statistics = new ConcurrentHashMap<String, SparqlCacheStatistics>();
+
+	// the updates sent to the store of each cache, by its name
+	private static final Map<String, Generation> generations = new ConcurrentHashMap<String, Generation>();
+
+	// the remote queries running for a miss, by cache name, generation and
+	// query
+	private static final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+	public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	// the longest url of a GET, longer queries are POSTed as HttpQuery does
+	private static final int URL_LIMIT = 2 * 1024;
+
+	public static final long DEFAULT_COALESCED_WAIT_MILLIS = 10000;
+
+	static final int ASYNC_THREADS = 16;
+
+	static final int ASYNC_QUEUE = 256;
+
+	// the connections open to each store, by its url
+	private static final ConcurrentHashMap<String, Semaphore> connections = new ConcurrentHashMap<String, Semaphore>();
+
+	// runs the remote queries of queryAsync; a full queue fails them at once
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE), daemonThreads("sparqlcache-query"));
+
+	private static final ScheduledExecutorService timeouts = Executors
+			.newSingleThreadScheduledExecutor(daemonThreads("sparqlcache-timeout"));
+
+	static {
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private Log log = LogFactory.getLog(SparqlCache.class);
+
+	private String remoteEndpoint = "http://localhost:8890/sparql";
+
+	private String httpUser = null;
+
+	private char[] httpPassword = null;
+
+	private long coalescedWaitMillis = DEFAULT_COALESCED_WAIT_MILLIS;
+
+	private long storeTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+	//
+	static CacheManager cacheManager;
+	static net.sf.ehcache.management.CacheManager mbeancachemanager;
+
+	// shared by all instances, so its MBeans are registered once
+	static {
+		cacheManager = CacheManager.create();
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ManagementService.registerMBeans(cacheManager, mBeanServer, false,
+				false, false, true);
+	}
+
+	/**
+	 * Sets the url of the store the queries and updates are sent to.
+	 */
+	public void setRemoteEndpoint(String remoteEndpoint) {
+		this.remoteEndpoint = remoteEndpoint;
+	}
+
+	/**
+	 * Sets how long a miss waits for the same query already sent to the
+	 * store, by default {@link #DEFAULT_COALESCED_WAIT_MILLIS}. Then it
+	 * queries the store itself.
+	 */
+	public void setCoalescedWait(long timeout, TimeUnit unit) {
+		this.coalescedWaitMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets how long connecting to the store and each read of its response may
+	 * take, by default {@link #DEFAULT_TIMEOUT_MILLIS}. Then the query fails
+	 * with a {@link QueryExceptionHTTP}.
+	 */
+	public void setStoreTimeout(long timeout, TimeUnit unit) {
+		this.storeTimeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the bytes the cache of the endpoint may hold. Takes effect only if
+	 * set before the cache is first used, otherwise {@link CacheBudget#DEFAULT}
+	 * applies.
+	 */
+	public static void setBudget(URL endpoint, CacheBudget budget) {
+		budgets.put(cacheName(endpoint), budget);
+	}
+
+	static String cacheName(URL endpoint) {
+		return endpoint.toString().replace(":", "_");
+	}
+
+	private static CacheBudget budgetOf(String cacheName) {
+		CacheBudget budget = budgets.get(cacheName);
+		return budget == null ? CacheBudget.DEFAULT : budget;
+	}
+
+	public Cache getInstance(URL endpoint) {
+
+		Cache cache = cacheManager.getCache(cacheName(endpoint));
+		if (cache == null) {
+
+			synchronized (cacheManager) {
+				cache = cacheManager.getCache(cacheName(endpoint));
+				if (cache == null) {
+
+					cache = newCache(cacheName(endpoint));
+
+					// before the cache is visible to the unsynchronized lookup
+					final QueryTripleMapper mapper = new QueryTripleMapper();
+					mappers.put(cache.getName(), mapper);
+					Generation generation = new Generation();
+					generations.put(cache.getName(), generation);
+					cache.getCacheEventNotificationService().registerListener(
+							new CacheEventListenerAdapter() {
+								@Override
+								public void notifyElementEvicted(Ehcache cache, Element element) {
+									mapper.unregister((String) element.getObjectKey());
+								}
+
+								@Override
+								public void notifyElementExpired(Ehcache cache, Element element) {
+									mapper.unregister((String) element.getObjectKey());
+								}
+							});
+					registerStatistics(cache);
+					// ehcache takes entries once the cache is added, so updates
+					// and puts wait until the snapshot is restored instead, and
+					// an update invalidates the restored results as well
+					generation.lock.writeLock().lock();
+					try {
+						cacheManager.addCache(cache);
+						if (snapshotDirectory != null)
+							restore(cache, mapper, snapshotDirectory);
+					} finally {
+						generation.lock.writeLock().unlock();
+					}
+				}
+			}
+		}
+
+		return cache;
+	}
+
+	/**
+	 * @return a cache bounded by the bytes of the compressed results, which
+	 *         evicts the least recently used results from the heap to the
+	 *         off heap and disk tiers of the budget
+	 */
+	private Cache newCache(String name) {
+		CacheBudget budget = budgetOf(name);
+		CacheConfiguration config = new CacheConfiguration()
+				.name(name)
+				.maxBytesLocalHeap(budget.getHeapBytes(), MemoryUnit.BYTES)
+				.memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
+				.eternal(false)
+				.timeToLiveSeconds(TIME_TO_LIVE_SECONDS)
+				.timeToIdleSeconds(TIME_TO_IDLE_SECONDS);
+		if (budget.getOffHeapBytes() > 0) {
+			config.overflowToOffHeap(true).maxBytesLocalOffHeap(
+					budget.getOffHeapBytes(), MemoryUnit.BYTES);
+		}
+		if (budget.getDiskBytes() > 0) {
+			config.maxBytesLocalDisk(budget.getDiskBytes(), MemoryUnit.BYTES)
+					.persistence(new PersistenceConfiguration()
+							.strategy(PersistenceConfiguration.Strategy.LOCALTEMPSWAP));
+		}
+		log.info("Caching " + name + " in " + budget);
+		return new Cache(config);
+	}
+
+	/**
+	 * Snapshots the caches to the directory every interval and on shutdown.
+	 * The caches of endpoints first used afterwards are restored from their
+	 * last snapshot.
+	 */
+	public void enableSnapshots(Path directory, long intervalMillis)
+			throws IOException {
+		synchronized (SparqlCache.class) {
+			if (snapshotDirectory != null)
+				throw new IllegalStateException("Snapshots are already taken to "
+						+ snapshotDirectory);
+			Files.createDirectories(directory);
+			snapshotDirectory = directory;
+
+			Runnable snapshot = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						synchronized (SparqlCache.class) {
+							// unless disabled while waiting for the lock
+							if (snapshotDirectory != null)
+								snapshot();
+						}
+					} catch (IOException | RuntimeException e) {
+						log.warn("Could not snapshot the caches", e);
+					}
+				}
+			};
+			snapshots = Executors.newSingleThreadScheduledExecutor(daemonThreads("sparqlcache-snapshot"));
+			snapshots.scheduleWithFixedDelay(snapshot, intervalMillis, intervalMillis,
+					TimeUnit.MILLISECONDS);
+			snapshotOnShutdown = new Thread(snapshot, "sparqlcache-snapshot-shutdown");
+			Runtime.getRuntime().addShutdownHook(snapshotOnShutdown);
+		}
+	}
+
+	/**
+	 * Stops the snapshots, waiting for a running one to finish. The caches
+	 * are not snapshotted again, neither every interval nor on shutdown.
+	 */
+	public void disableSnapshots() {
+		synchronized (SparqlCache.class) {
+			if (snapshotDirectory == null)
+				return;
+			snapshots.shutdown();
+			try {
+				Runtime.getRuntime().removeShutdownHook(snapshotOnShutdown);
+			} catch (IllegalStateException e) {
+				// the snapshot is already taken on shutdown
+			}
+			snapshots = null;
+			snapshotOnShutdown = null;
+			snapshotDirectory = null;
+		}
+	}
+
+	/**
+	 * Snapshots the caches of all endpoints.
+	 */
+	public void snapshot() throws IOException {
+		// the snapshots of all instances share the directory and the files
+		synchronized (SparqlCache.class) {
+			Path directory = snapshotDirectory;
+			if (directory == null)
+				throw new IllegalStateException("Snapshots are not enabled");
+			for (String name : cacheManager.getCacheNames()) {
+				Cache cache = cacheManager.getCache(name);
+				QueryTripleMapper mapper = mappers.get(name);
+				if (cache != null && mapper != null)
+					snapshot(cache, mapper, snapshotFile(directory, name));
+			}
+		}
+	}
+
+	/**
+	 * Writes the results, then looks them up again: those which are no
+	 * longer cached or were replaced meanwhile, e.g. by an update, are
+	 * recorded as invalidated, so the snapshot only restores results still
+	 * valid after it was written.
+	 */
+	private void snapshot(Cache cache, QueryTripleMapper mapper, Path file)
+			throws IOException {
+		long start = System.currentTimeMillis();
+		Map<String, byte[]> written = new HashMap<String, byte[]>();
+		try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(file)) {
+			for (Object key : cache.getKeys()) {
+				Element element = cache.getQuiet(key);
+				Query query = mapper.getQuery((String) key);
+				if (element == null || element.isExpired() || query == null)
+					continue;
+				byte[] value = (byte[]) element.getObjectValue();
+				writer.entry((String) key, query.toString(),
+						element.getCreationTime(), value);
+				written.put((String) key, value);
+			}
+
+			List<String> invalidated = new ArrayList<String>();
+			for (Map.Entry<String, byte[]> entry : written.entrySet()) {
+				Element element = cache.getQuiet(entry.getKey());
+				if (element == null
+						|| (element.getObjectValue() != entry.getValue() && !Arrays
+								.equals((byte[]) element.getObjectValue(), entry.getValue())))
+					invalidated.add(entry.getKey());
+			}
+			writer.invalidated(invalidated);
+			writer.commit();
+
+			log.info("Snapshotted " + (written.size() - invalidated.size())
+					+ " results of " + cache.getName() + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
+	/**
+	 * Puts the results of the last snapshot of the cache, which are still
+	 * within their time to live, back into it.
+	 */
+	private void restore(Cache cache, QueryTripleMapper mapper, Path directory) {
+		Path file = snapshotFile(directory, cache.getName());
+		if (!Files.exists(file))
+			return;
+
+		long start = System.currentTimeMillis();
+		int restored = 0;
+		try {
+			for (CacheSnapshot.Entry entry : CacheSnapshot.read(file)) {
+				long timeToLive = TIME_TO_LIVE_SECONDS
+						- (start - entry.getCreationTime()) / 1000;
+				if (timeToLive <= 0)
+					continue;
+
+				Query query;
+				try {
+					query = QueryFactory.create(entry.getQuery());
+				} catch (RuntimeException e) {
+					log.debug("Skipping an unparsable query of the snapshot", e);
+					continue;
+				}
+				mapper.register(entry.getKey(), query);
+				Element element = new Element(entry.getKey(), entry.getValue());
+				element.setTimeToLive((int) timeToLive);
+				cache.put(element);
+				restored++;
+			}
+		} catch (IOException e) {
+			log.warn("Ignoring the snapshot " + file, e);
+		}
+		log.info("Restored " + restored + " results of " + cache.getName()
+				+ " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	static Path snapshotFile(Path directory, String cacheName) {
+		try {
+			return directory.resolve(URLEncoder.encode(cacheName, "UTF-8") + ".snapshot");
+		} catch (UnsupportedEncodingException e) {
+			// every JVM supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private QueryTripleMapper mapperOf(URL endpointUri) {
+		return mappers.get(getInstance(endpointUri).getName());
+	}
+
+	private Generation generationOf(URL endpointUri) {
+		return generations.get(getInstance(endpointUri).getName());
+	}
+
+	/**
+	 * Counts the updates sent to the store of a cache. The result of a query
+	 * is only put if no update was sent since the query was, as the result
+	 * may predate the update. Puts hold the read lock, an invalidation the
+	 * write lock, so a result is either put before the queries an update
+	 * affects are removed or not at all. The restore of a snapshot holds the
+	 * write lock as well.
+	 */
+	private static final class Generation {
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	}
+
+	private void registerStatistics(Cache cache) {
+		SparqlCacheStatistics stats = new SparqlCacheStatistics(cache.getName());
+		statistics.put(cache.getName(), stats);
+		cache.getCacheEventNotificationService().registerListener(
+				stats.evictionListener());
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					stats,
+					new ObjectName("org.aksw.sparqlcache4j:type=SparqlCacheStatistics,name="
+							+ ObjectName.quote(cache.getName())));
+		} catch (JMException e) {
+			log.warn("Could not publish the statistics of " + cache.getName(), e);
+		}
+	}
+
+	private SparqlCacheStatistics statisticsOf(URL endpointUri) {
+		return statistics.get(getInstance(endpointUri).getName());
+	}
+
+	/**
+	 * @return the statistics of the cache of the endpoint
+	 */
+	public SparqlCacheStatistics.Snapshot getStatistics(URL endpointUri) {
+		return statisticsOf(endpointUri).snapshot();
+	}
+
+	/**
+	 * @return the statistics of the caches of all endpoints
+	 */
+	public List<SparqlCacheStatistics.Snapshot> getStatistics() {
+		List<SparqlCacheStatistics.Snapshot> snapshots = new ArrayList<SparqlCacheStatistics.Snapshot>();
+		for (SparqlCacheStatistics stats : statistics.values()) {
+			snapshots.add(stats.snapshot());
+		}
+		return snapshots;
+	}
+
+	public List<URL> getCachedEndpoints() {
+		List<URL> endpoints = new ArrayList<URL>();
+
+		String[] endpointString = cacheManager.getCacheNames();
+
+		for (String string : endpointString) {
+			try {
+				endpoints.add(new URL(string));
+			} catch (MalformedURLException e) {
+				log.warn("Non URL cache: ", e);
+			}
+		}
+
+		return endpoints;
+	}
+
+	public boolean isCached(URL endpointUri, Query query) {
+		Cache cache = getInstance(endpointUri);
+		return cache.isKeyInCache(CanonicalQuery.key(query));
+	}
+
+	public String getCached(URL endpointUri, Query query) {
+		byte[] hit = lookup(endpointUri, CanonicalQuery.key(query));
+		return hit == null ? null : decompress(hit);
+	}
+
+	/**
+	 * @return the compressed result cached for the query, or null
+	 */
+	private byte[] lookup(URL endpointUri, String key) {
+		Cache cache = getInstance(endpointUri);
+		Element hit = cache.get(key);
+
+		byte[] result = null;
+		SparqlCacheStatistics stats = statisticsOf(endpointUri);
+		if (hit != null) {
+			result = (byte[]) hit.getObjectValue();
+			stats.hit();
+//			log.info(">>>>>>>>>>>\n Cache Hit: \n" + ">>>Key: \n"
+//					+ query.toString());
+		} else {
+			stats.miss();
+		}
+
+		return result;
+	}
+
+	public void put(URL endpointUri, Query query, String result) {
+		put(endpointUri, CanonicalQuery.key(query), query, compress(result));
+	}
+
+	/**
+	 * Puts the result of a query sent to the store in the given generation,
+	 * unless an update was sent since.
+	 */
+	private void put(URL endpointUri, String key, Query query, byte[] compressed,
+			long generation) {
+		Generation current = generationOf(endpointUri);
+		current.lock.readLock().lock();
+		try {
+			if (current.count.get() != generation) {
+				log.debug("Not caching a result which may predate an update");
+				return;
+			}
+			put(endpointUri, key, query, compressed);
+		} finally {
+			current.lock.readLock().unlock();
+		}
+	}
+
+	private void put(URL endpointUri, String key, Query query, byte[] compressed) {
+		Cache cache = getInstance(endpointUri);
+		if (compressed.length > budgetOf(cache.getName()).getMaxEntryBytes()) {
+			log.debug("Not caching a result of " + compressed.length + " bytes");
+			return;
+		}
+		mapperOf(endpointUri).register(key, query);
+		cache.put(new Element(key, compressed));
+		statisticsOf(endpointUri).put();
+	}
+
+	public void remove(URL endpointUri, Query query) {
+		remove(endpointUri, CanonicalQuery.key(query));
+	}
+
+	private void remove(URL endpointUri, String key) {
+		Cache cache = getInstance(endpointUri);
+		mapperOf(endpointUri).unregister(key);
+		cache.remove(key);
+	}
+
+	private static byte[] compress(String result) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(result.getBytes(StandardCharsets.UTF_8));
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					Math.max(64, result.length() / 4));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static String decompress(byte[] compressed) {
+		try {
+			return readString(inflate(compressed));
+		} catch (ZipException e) {
+			throw new IllegalStateException("Corrupt cache entry", e);
+		} catch (IOException e) {
+			// not thrown reading from memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static InputStream inflate(byte[] compressed) {
+		return new InflaterInputStream(new ByteArrayInputStream(compressed));
+	}
+
+	private static String readString(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	public String query(URL endpointUri, Query query,
+			List<String> defaultGraphURIs, List<String> namedGraphURIs,
+			Params params) throws QueryExceptionHTTP, IOException {
+		return readString(queryStream(endpointUri, query, defaultGraphURIs,
+				namedGraphURIs, params));
+	}
+
+	/**
+	 * Answers the query as the bytes of the response of the store. A cached
+	 * result is inflated while it is read. Otherwise the response of the store
+	 * is passed on while it arrives, and is cached once it has been read to
+	 * its end; the stream must be closed.
+	 */
+	public InputStream queryStream(URL endpointUri, Query query,
+			List<String> defaultGraphURIs, List<String> namedGraphURIs,
+			Params params) throws QueryExceptionHTTP, IOException {
+		if (log.isDebugEnabled()) {
+			log.debug(">>>>>>> \n Select Query received: \n" + query.toString());
+		}
+
+		String key = CanonicalQuery.key(query);
+		byte[] result = lookup(endpointUri, key);
+		if (result != null)
+			return inflate(result);
+
+		log.debug(">>>>>>>>\n Result not found, querying store");
+		return fetch(endpointUri, key, query, defaultGraphURIs,
+				namedGraphURIs, params);
+	}
+
+	/**
+	 * Queries the store on a miss. Concurrent misses of the same query wait
+	 * for the first one instead of querying the store again, and receive its
+	 * result or its failure. A failure is not cached. If the result of the
+	 * first one is not cached, e.g. as it is too large, or it does not arrive
+	 * within the coalesced wait, e.g. as its response is read slowly or not at
+	 * all, the others query the store themselves.
+	 */
+	private InputStream fetch(final URL endpointUri, final String key,
+			final Query query, List<String> defaultGraphURIs,
+			List<String> namedGraphURIs, Params params)
+			throws QueryExceptionHTTP, IOException {
+		final long generation = generationOf(endpointUri).count.get();
+		final String flight = flight(endpointUri, generation, key);
+		final CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+		CompletableFuture<byte[]> running = inFlight.putIfAbsent(flight, future);
+		if (running != null) {
+			statisticsOf(endpointUri).coalesced();
+			// a query of queryAsync is aborted once all its callers left
+			boolean joined = running instanceof Flight && ((Flight) running).enter();
+			if (joined || !(running instanceof Flight)) {
+				try {
+					byte[] result = await(running, coalescedWaitMillis);
+					if (result != null)
+						return inflate(result);
+				} catch (TimeoutException e) {
+					log.debug("No result of the running query in " + coalescedWaitMillis
+							+ "ms, querying the store");
+					if (joined)
+						((Flight) running).leave();
+				}
+			}
+			return openRemoteHttpSparqlStore(query, defaultGraphURIs,
+					namedGraphURIs, params);
+		}
+
+		try {
+			// the first query may have been put while this one missed
+			Element cached = getInstance(endpointUri).get(key);
+			if (cached != null) {
+				byte[] result = (byte[]) cached.getObjectValue();
+				inFlight.remove(flight, future);
+				future.complete(result);
+				return inflate(result);
+			}
+
+			final long start = System.nanoTime();
+			InputStream response = openRemoteHttpSparqlStore(query,
+					defaultGraphURIs, namedGraphURIs, params);
+			long maxBytes = budgetOf(getInstance(endpointUri).getName()).getMaxEntryBytes();
+			return new CachingInputStream(response, maxBytes,
+					new CachingInputStream.Listener() {
+						@Override
+						public void completed(byte[] compressed) {
+							statisticsOf(endpointUri).remoteQuery(System.nanoTime() - start);
+							if (compressed != null)
+								put(endpointUri, key, query, compressed, generation);
+							inFlight.remove(flight, future);
+							future.complete(compressed);
+						}
+
+						@Override
+						public void failed(IOException e) {
+							statisticsOf(endpointUri).remoteQuery(System.nanoTime() - start);
+							inFlight.remove(flight, future);
+							future.completeExceptionally(e);
+						}
+					});
+		} catch (IOException | RuntimeException | Error e) {
+			inFlight.remove(flight, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private static byte[] await(CompletableFuture<byte[]> running, long timeoutMillis)
+			throws IOException, TimeoutException {
+		try {
+			return running.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the store");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	public String query(URL endpointUri, Query query)
+			throws QueryExceptionHTTP, IOException {
+
+		return query(endpointUri, query, new ArrayList<String>(),
+				new ArrayList<String>(), null);
+
+	}
+
+	public CompletableFuture<String> queryAsync(URL endpointUri, Query query) {
+		return queryAsync(endpointUri, query, new ArrayList<String>(),
+				new ArrayList<String>(), null, DEFAULT_TIMEOUT_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Answers the query without blocking the caller. A hit completes at once;
+	 * a miss is queued on a bounded pool, and fails with a
+	 * RejectedExecutionException if the queue is full. Concurrent misses of
+	 * the same query share one query of the store.
+	 * 
+	 * The future fails with a TimeoutException after the timeout. That and
+	 * cancelling the future only end the query of the store once no other
+	 * caller waits for it: a query still queued is skipped, a running one is
+	 * closed. Otherwise its result is still cached.
+	 */
+	public CompletableFuture<String> queryAsync(final URL endpointUri,
+			final Query query, final List<String> defaultGraphURIs,
+			final List<String> namedGraphURIs, final Params params,
+			long timeout, TimeUnit unit) {
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		final String key = CanonicalQuery.key(query);
+		byte[] hit = lookup(endpointUri, key);
+		if (hit != null) {
+			result.complete(decompress(hit));
+			return result;
+		}
+
+		final CompletableFuture<byte[]> fetched = fetchAsync(endpointUri, key,
+				query, defaultGraphURIs, namedGraphURIs, params);
+		fetched.whenComplete((compressed, failure) -> {
+			if (failure != null) {
+				result.completeExceptionally(cause(failure));
+				return;
+			}
+			try {
+				result.complete(decompress(compressed));
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		if (result.isDone())
+			return result;
+
+		final ScheduledFuture<?> timer = timeouts.schedule(new Runnable() {
+			@Override
+			public void run() {
+				result.completeExceptionally(new TimeoutException(
+						"No answer from the store in time"));
+			}
+		}, timeout, unit);
+		result.whenComplete((answer, failure) -> {
+			timer.cancel(false);
+			// timed out or cancelled
+			if (failure != null && fetched instanceof Flight)
+				((Flight) fetched).leave();
+		});
+		return result;
+	}
+
+	/**
+	 * Queries the store on the pool for a miss of queryAsync, detached from
+	 * the callers, or joins the query of the store running for the same
+	 * query. The result is cached if it is small enough and passed on to all
+	 * callers in any case.
+	 */
+	private CompletableFuture<byte[]> fetchAsync(final URL endpointUri,
+			final String key, final Query query, final List<String> defaultGraphURIs,
+			final List<String> namedGraphURIs, final Params params) {
+		final long generation = generationOf(endpointUri).count.get();
+		final String flight = flight(endpointUri, generation, key);
+		final Flight future = new Flight();
+		CompletableFuture<byte[]> running;
+		while ((running = inFlight.putIfAbsent(flight, future)) != null) {
+			if (!(running instanceof Flight)) {
+				statisticsOf(endpointUri).coalesced();
+				// a result too large to cache was only passed on to the caller
+				// of queryStream, which did not keep it
+				final Flight joined = new Flight();
+				running.whenComplete((result, failure) -> {
+					if (failure != null)
+						joined.completeExceptionally(failure);
+					else if (result != null)
+						joined.complete(result);
+					else if (!joined.isDone())
+						joined.forward(remote(query, defaultGraphURIs, namedGraphURIs, params));
+				});
+				return joined;
+			}
+			if (((Flight) running).enter()) {
+				statisticsOf(endpointUri).coalesced();
+				return running;
+			}
+			// all callers left the running query, which is being removed
+			inFlight.remove(flight, running);
+		}
+
+		// the first query may have been put while this one missed
+		Element cached = getInstance(endpointUri).get(key);
+		if (cached != null) {
+			inFlight.remove(flight, future);
+			future.complete((byte[]) cached.getObjectValue());
+			return future;
+		}
+
+		final long start = System.nanoTime();
+		final RemoteQuery remote = remote(query, defaultGraphURIs, namedGraphURIs, params);
+		remote.whenComplete((compressed, failure) -> {
+			try {
+				statisticsOf(endpointUri).remoteQuery(System.nanoTime() - start);
+				if (failure == null)
+					put(endpointUri, key, query, compressed, generation);
+			} finally {
+				inFlight.remove(flight, future);
+				if (failure == null)
+					future.complete(compressed);
+				else
+					future.completeExceptionally(failure);
+			}
+		});
+		future.abortWith(remote);
+		return future;
+	}
+
+	/**
+	 * @return the compressed response of the store to the query, which is
+	 *         read on the pool
+	 */
+	private RemoteQuery remote(Query query, List<String> defaultGraphURIs,
+			List<String> namedGraphURIs, Params params) {
+		RemoteQuery remote = new RemoteQuery(query, defaultGraphURIs,
+				namedGraphURIs, params);
+		try {
+			executor.execute(remote);
+		} catch (RejectedExecutionException e) {
+			remote.completeExceptionally(e);
+		}
+		return remote;
+	}
+
+	/**
+	 * A query of the store run on the pool. Cancelling it skips it if it did
+	 * not start yet, and otherwise closes its connection.
+	 */
+	private final class RemoteQuery extends CompletableFuture<byte[]> implements
+			Runnable {
+
+		private final Query query;
+
+		private final List<String> defaultGraphURIs;
+
+		private final List<String> namedGraphURIs;
+
+		private final Params params;
+
+		// while running
+		private Thread thread;
+
+		private HttpURLConnection connection;
+
+		private RemoteQuery(Query query, List<String> defaultGraphURIs,
+				List<String> namedGraphURIs, Params params) {
+			this.query = query;
+			this.defaultGraphURIs = defaultGraphURIs;
+			this.namedGraphURIs = namedGraphURIs;
+			this.params = params;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (isDone())
+					return;
+				thread = Thread.currentThread();
+			}
+			try {
+				complete(compress(readString(open(query, defaultGraphURIs,
+						namedGraphURIs, params, this::opened))));
+			} catch (Throwable e) {
+				completeExceptionally(e);
+			} finally {
+				synchronized (this) {
+					thread = null;
+					connection = null;
+				}
+				// cancelled while waiting for a connection
+				Thread.interrupted();
+			}
+		}
+
+		private synchronized void opened(HttpURLConnection connection) {
+			this.connection = connection;
+			if (isDone())
+				connection.disconnect();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			// frees its place in the queue
+			executor.remove(this);
+			synchronized (this) {
+				// waiting for a connection
+				if (thread != null)
+					thread.interrupt();
+				// a read waiting for the store fails
+				if (connection != null)
+					connection.disconnect();
+			}
+			return cancelled;
+		}
+	}
+
+	/**
+	 * The result of a query of the store for the misses of queryAsync, and
+	 * the number of callers waiting for it. Once the last one left, by its
+	 * timeout or by cancelling, the query is cancelled as well.
+	 */
+	private static final class Flight extends CompletableFuture<byte[]> {
+
+		private int callers = 1;
+
+		/**
+		 * @return whether the caller joined, false if all others left
+		 */
+		synchronized boolean enter() {
+			if (callers == 0)
+				return false;
+			callers++;
+			return true;
+		}
+
+		void leave() {
+			synchronized (this) {
+				if (callers == 0 || --callers > 0)
+					return;
+			}
+			completeExceptionally(new CancellationException(
+					"Every caller gave up on the query"));
+		}
+
+		/**
+		 * Cancels the query once every caller left.
+		 */
+		void abortWith(final CompletableFuture<byte[]> remote) {
+			whenComplete((result, failure) -> {
+				if (failure != null)
+					remote.cancel(true);
+			});
+		}
+
+		/**
+		 * Passes on the result of the query, which is cancelled once every
+		 * caller left.
+		 */
+		void forward(CompletableFuture<byte[]> remote) {
+			remote.whenComplete((result, failure) -> {
+				if (failure == null)
+					complete(result);
+				else
+					completeExceptionally(failure);
+			});
+			abortWith(remote);
+		}
+	}
+
+	private static Throwable cause(Throwable failure) {
+		if (failure instanceof CompletionException && failure.getCause() != null)
+			return failure.getCause();
+		return failure;
+	}
+
+	/**
+	 * @return the key of the remote query running for the query of the cache;
+	 *         a query sent after an update does not wait for one sent before
+	 */
+	private String flight(URL endpointUri, long generation, String key) {
+		return getInstance(endpointUri).getName() + "\n" + generation + "\n" + key;
+	}
+
+	/**
+	 * Sets the connections which may be open to the store at once, by
+	 * default {@link #DEFAULT_MAX_CONNECTIONS}. Further queries wait for a
+	 * connection to be closed.
+	 */
+	public static void setMaxConnections(String remoteEndpoint, int maxConnections) {
+		connections.put(remoteEndpoint, new Semaphore(maxConnections));
+	}
+
+	/**
+	 * Sends the query, once fewer than the maximum connections are open to the
+	 * store. The connection counts as open until its response is closed.
+	 * HttpURLConnection keeps the connection alive for the next query if the
+	 * response was read to its end.
+	 */
+	private InputStream exec(HttpQuery httpQuery, String accept,
+			Consumer<HttpURLConnection> opened) throws IOException {
+		Semaphore permits = connections.get(remoteEndpoint);
+		if (permits == null) {
+			connections.putIfAbsent(remoteEndpoint, new Semaphore(DEFAULT_MAX_CONNECTIONS));
+			permits = connections.get(remoteEndpoint);
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a connection");
+		}
+
+		HttpURLConnection http = null;
+		try {
+			http = send(httpQuery, accept, opened);
+			return new Response(http, permits);
+		} catch (IOException | RuntimeException | Error e) {
+			if (http != null)
+				http.disconnect();
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the request as HttpQuery does, as a GET or, if the url would be
+	 * too long, as a POST of a form, with the credentials of the cache, if
+	 * any. It is sent here as HttpQuery cannot limit how long connecting and
+	 * reading may take.
+	 * 
+	 * @param opened
+	 *            receives the connection before it connects, or null
+	 * @return the connection, with the response of the store to read
+	 */
+	private HttpURLConnection send(HttpQuery httpQuery, String accept,
+			Consumer<HttpURLConnection> opened) {
+		String form = httpQuery.httpString();
+		boolean post = remoteEndpoint.length() + 1 + form.length() > URL_LIMIT;
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(post ? remoteEndpoint
+					: remoteEndpoint + "?" + form).openConnection();
+			connection.setConnectTimeout((int) storeTimeoutMillis);
+			connection.setReadTimeout((int) storeTimeoutMillis);
+			if (opened != null)
+				opened.accept(connection);
+			connection.setRequestProperty("Accept", accept);
+			if (httpUser != null) {
+				String credentials = httpUser + ":"
+						+ (httpPassword == null ? "" : new String(httpPassword));
+				connection.setRequestProperty("Authorization", "Basic "
+						+ Base64.getEncoder().encodeToString(
+								credentials.getBytes(StandardCharsets.UTF_8)));
+			}
+			if (post) {
+				connection.setDoOutput(true);
+				connection.setRequestMethod("POST");
+				connection.setRequestProperty("Content-Type",
+						"application/x-www-form-urlencoded");
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(form.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			int code = connection.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				String message = connection.getResponseMessage();
+				connection.disconnect();
+				throw new QueryExceptionHTTP(code, "HTTP " + code + " " + message);
+			}
+			return connection;
+		} catch (IOException e) {
+			if (connection != null)
+				connection.disconnect();
+			throw new QueryExceptionHTTP(e);
+		}
+	}
+
+	/**
+	 * The response of the store, which holds a connection until it is closed.
+	 */
+	private static final class Response extends FilterInputStream {
+
+		private final Semaphore permits;
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private Response(HttpURLConnection connection, Semaphore permits)
+				throws IOException {
+			super(connection.getInputStream());
+			this.permits = permits;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (closed.compareAndSet(false, true))
+					permits.release();
+			}
+		}
+	}
+
+	/**
+	 * taken from arq
+	 * 
+	 * @param query
+	 * @param defaultGraphURIs
+	 * @param namedGraphURIs
+	 * @param params
+	 * @throws IOException
+	 * @throws QueryExceptionHTTP
+	 */
+	public String queryRemoteHttpSparqlStore(Query query,
+			List<String> defaultGraphURIs, List<String> namedGraphURIs,
+			Params params) throws QueryExceptionHTTP, IOException {
+		return readString(openRemoteHttpSparqlStore(query, defaultGraphURIs,
+				namedGraphURIs, params));
+	}
+
+	/**
+	 * @return the response of the store to the query, to be closed
+	 */
+	public InputStream openRemoteHttpSparqlStore(Query query,
+			List<String> defaultGraphURIs, List<String> namedGraphURIs,
+			Params params) throws QueryExceptionHTTP, IOException {
+		return open(query, defaultGraphURIs, namedGraphURIs, params, null);
+	}
+
+	/**
+	 * @param opened
+	 *            receives the connection before it connects, or null
+	 */
+	private InputStream open(Query query, List<String> defaultGraphURIs,
+			List<String> namedGraphURIs, Params params,
+			Consumer<HttpURLConnection> opened) throws IOException {
+		HttpQuery httpQuery = new HttpQuery(this.remoteEndpoint);
+		httpQuery.addParam(HttpParams.pQuery, query.toString());
+
+		for (Iterator<String> iter = defaultGraphURIs.iterator(); iter
+				.hasNext();) {
+			String dft = iter.next();
+			httpQuery.addParam(HttpParams.pDefaultGraph, dft);
+		}
+		for (Iterator<String> iter = namedGraphURIs.iterator(); iter.hasNext();) {
+			String name = iter.next();
+			httpQuery.addParam(HttpParams.pNamedGraph, name);
+		}
+
+		if (params != null)
+			httpQuery.merge(params);
+
+		String accept = HttpParams.contentTypeResultsXML;
+		if(!(query.getQueryType() == Query.QueryTypeSelect)){
+			accept = HttpParams.contentTypeRDFXML;
+		}
+
+		return exec(httpQuery, accept, opened);
+	}
+
+	/**
+	 * taken from arq
+	 * 
+	 * @param query
+	 * @param defaultGraphURIs
+	 * @param namedGraphURIs
+	 * @param params
+	 * @throws IOException
+	 * @throws QueryExceptionHTTP
+	 */
+	public String updateRemoteHttpSparqlStore(UpdateRequest update,
+			List<String> defaultGraphURIs, List<String> namedGraphURIs,
+			Params params) throws QueryExceptionHTTP, IOException {
+		String response = null;
+
+		HttpQuery httpQuery = new HttpQuery(this.remoteEndpoint);
+		httpQuery.addParam(HttpParams.pQuery, update.toString());
+
+		for (Iterator<String> iter = defaultGraphURIs.iterator(); iter
+				.hasNext();) {
+			String dft = iter.next();
+			httpQuery.addParam(HttpParams.pDefaultGraph, dft);
+		}
+		for (Iterator<String> iter = namedGraphURIs.iterator(); iter.hasNext();) {
+			String name = iter.next();
+			httpQuery.addParam(HttpParams.pNamedGraph, name);
+		}
+
+		if (params != null)
+			httpQuery.merge(params);
+
+
+		response = readString(exec(httpQuery, HttpParams.contentTypeResultsXML, null));
+
+		return response;
+
+	}
+
+	/**
+	 * Sends the update to the store, then removes the cached queries it may
+	 * affect. They are looked up once the store answered, as a query may be
+	 * cached while the update is sent; results of queries sent before the
+	 * store answered are not cached anymore.
+	 */
+	public String modify(URL url, UpdateRequest updateRequest,
+			List<String> defaultGraphs, List<String> namedGraphs, Params params)
+			throws QueryExceptionHTTP, IOException {
+		
+		long stopPoint = System.currentTimeMillis();
+
+		// pass the query on to the server
+		try {
+			return updateRemoteHttpSparqlStore(updateRequest,
+					defaultGraphs, namedGraphs, params);
+		} finally {
+			log.info("Passing the query took: " + (System.currentTimeMillis() - stopPoint));
+			// also if the store did not answer, e.g. in time, as it may
+			// have applied the update nevertheless
+			invalidate(url, updateRequest);
+		}
+	}
+
+	private void invalidate(URL url, UpdateRequest updateRequest) {
+		long stopPoint = System.currentTimeMillis();
+		Cache cache = getInstance(url);
+		int cacheCountPrev = cache.getSize();
+
+		Generation generation = generationOf(url);
+		generation.lock.writeLock().lock();
+		try {
+			generation.count.incrementAndGet();
+
+			// each query once, however many of the updates affect it
+			Collection<String> invalidKeys = visitModify(updateRequest, mapperOf(url));
+
+			log.info("Search for queries took: " + (System.currentTimeMillis() - stopPoint));
+			stopPoint = System.currentTimeMillis();
+
+			for (String key : invalidKeys) {
+				remove(url, key);
+				log.debug("removed query: " + key);
+			}
+			statisticsOf(url).invalidated(invalidKeys.size());
+
+			log.info("Removing the queris took: " + (System.currentTimeMillis() - stopPoint));
+			log.info("Removed + " +invalidKeys.size()+ " queries, cache size is now: " + cache.getSize() +" compared to previously :" + cacheCountPrev );
+		} finally {
+			generation.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the keys of the cached queries the updates may affect: those
+	 *         with a pattern matching an inserted or deleted triple, where a
+	 *         variable of a template matches any term, and those reading a
+	 *         graph which is cleared, dropped or loaded
+	 */
+	private Collection<String> visitModify(UpdateRequest updateRequest,
+			final QueryTripleMapper mapper) {
+		final Set<String> invalid = new LinkedHashSet<String>();
+		for (Update up : updateRequest.getUpdates()) {
+			up.visit(new UpdateVisitor() {
+
+				@Override
+				public void visit(UpdateExt updateExt) {
+					// what an extension changes is unknown
+					log.warn("Invalidating all queries for " + updateExt);
+					invalid.addAll(mapper.keys());
+				}
+
+				@Override
+				public void visit(UpdateCreate create) {
+					// a new graph is empty
+				}
+
+				@Override
+				public void visit(UpdateDrop drop) {
+					invalid.addAll(mapper.findKeysReading(graphs(drop.getIRI())));
+				}
+
+				@Override
+				public void visit(UpdateLoad load) {
+					invalid.addAll(mapper.findKeysReading(graphs(load.getGraphName())));
+				}
+
+				@Override
+				public void visit(UpdateClear clear) {
+					invalid.addAll(mapper.findKeysReading(graphs(clear.getGraphName())));
+				}
+
+				@Override
+				public void visit(UpdateDeleteData remove) {
+					invalid.addAll(mapper.findInvalidKeys(
+							triples(remove.getData(), true), remove.getGraphNames()));
+				}
+
+				@Override
+				public void visit(UpdateInsertData add) {
+					invalid.addAll(mapper.findInvalidKeys(
+							triples(add.getData(), false), add.getGraphNames()));
+				}
+
+				@Override
+				public void visit(UpdateInsert insert) {
+					invalid.addAll(mapper.findInvalidKeys(
+							triples(insert.getInsertTemplate(), false),
+							insert.getGraphNames()));
+				}
+
+				@Override
+				public void visit(UpdateDelete delete) {
+					invalid.addAll(mapper.findInvalidKeys(
+							triples(delete.getDeleteTemplate(), true),
+							delete.getGraphNames()));
+				}
+
+				@Override
+				public void visit(UpdateModify modify) {
+					List<Triple> triples = triples(modify.getDeleteTemplate(), true);
+					triples.addAll(triples(modify.getInsertTemplate(), false));
+					invalid.addAll(mapper.findInvalidKeys(triples,
+							modify.getGraphNames()));
+				}
+			});
+
+		}
+		return invalid;
+	}
+
+	/**
+	 * @param deleted
+	 *            whether the triples are deleted, in which case a blank node
+	 *            matches any term, whereas an inserted one is a new node
+	 * @return the triples of the template
+	 */
+	private static List<Triple> triples(Template template, final boolean deleted) {
+		final List<Triple> triples = new ArrayList<Triple>();
+		if (template == null)
+			return triples;
+		template.visit(new TemplateVisitor() {
+
+			@Override
+			public void visit(TemplateGroup templategroup) {
+				// got a group
+
+				for (Template template : templategroup
+						.getTemplates()) {
+					template.visit(this);
+				}
+
+			}
+
+			@Override
+			public void visit(TemplateTriple template) {
+				Triple triple = template.getTriple();
+				if (deleted)
+					triple = new Triple(anyIfBlank(triple.getSubject()),
+							anyIfBlank(triple.getPredicate()),
+							anyIfBlank(triple.getObject()));
+				triples.add(triple);
+			}
+		});
+		return triples;
+	}
+
+	private static Node anyIfBlank(Node node) {
+		return node.isBlank() ? Node.ANY : node;
+	}
+
+	/**
+	 * @return the graph, or none for the default graph
+	 */
+	private static List<Node> graphs(Node graph) {
+		if (graph == null)
+			return Collections.emptyList();
+		return Collections.singletonList(graph);
+	}
+
+}
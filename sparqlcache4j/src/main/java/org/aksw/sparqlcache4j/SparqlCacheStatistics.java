@@ -0,0 +1,266 @@
+package org.aksw.sparqlcache4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+/**
+ * Counts what the cache of one endpoint does: hits, misses, puts, misses
+ * coalesced with a running remote query, invalidations by updates, evictions
+ * and the latency of the queries passed on to the endpoint. The counters are
+ * adders, so concurrent queries do not contend on them.
+ *
+ * The statistics are published as an MBean and can be read at once through
+ * {@link #snapshot()}.
+ */
+public class SparqlCacheStatistics implements SparqlCacheStatisticsMBean {
+
+	private final String endpoint;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder puts = new LongAdder();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder invalidations = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private final LongAdder remoteQueries = new LongAdder();
+
+	private final LongAdder remoteNanos = new LongAdder();
+
+	private final LongAccumulator remoteMaxNanos = new LongAccumulator(Math::max, 0);
+
+	public SparqlCacheStatistics(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	public void put() {
+		puts.increment();
+	}
+
+	public void coalesced() {
+		coalesced.increment();
+	}
+
+	public void invalidated(int queries) {
+		invalidations.add(queries);
+	}
+
+	public void evicted() {
+		evictions.increment();
+	}
+
+	public void remoteQuery(long nanos) {
+		remoteQueries.increment();
+		remoteNanos.add(nanos);
+		remoteMaxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * @return a listener counting the evictions and expiries of the cache
+	 */
+	public CacheEventListenerAdapter evictionListener() {
+		return new CacheEventListenerAdapter() {
+			@Override
+			public void notifyElementEvicted(Ehcache cache, Element element) {
+				evicted();
+			}
+
+			@Override
+			public void notifyElementExpired(Ehcache cache, Element element) {
+				evicted();
+			}
+		};
+	}
+
+	@Override
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		return snapshot().getHitRatio();
+	}
+
+	@Override
+	public long getPuts() {
+		return puts.sum();
+	}
+
+	@Override
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getRemoteQueries() {
+		return remoteQueries.sum();
+	}
+
+	@Override
+	public double getRemoteQueryMeanMillis() {
+		return snapshot().getRemoteQueryMeanMillis();
+	}
+
+	@Override
+	public double getRemoteQueryMaxMillis() {
+		return millis(remoteMaxNanos.get());
+	}
+
+	@Override
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		puts.reset();
+		coalesced.reset();
+		invalidations.reset();
+		evictions.reset();
+		remoteQueries.reset();
+		remoteNanos.reset();
+		remoteMaxNanos.reset();
+	}
+
+	/**
+	 * @return the current values; each is read atomically, but queries
+	 *         running meanwhile may be counted in some values and not in
+	 *         others
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(endpoint, hits.sum(), misses.sum(), puts.sum(), coalesced.sum(),
+				invalidations.sum(), evictions.sum(), remoteQueries.sum(), remoteNanos.sum(), remoteMaxNanos.get());
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public static final class Snapshot {
+
+		private final String endpoint;
+
+		private final long hits;
+
+		private final long misses;
+
+		private final long puts;
+
+		private final long coalesced;
+
+		private final long invalidations;
+
+		private final long evictions;
+
+		private final long remoteQueries;
+
+		private final long remoteNanos;
+
+		private final long remoteMaxNanos;
+
+		private Snapshot(String endpoint, long hits, long misses, long puts, long coalesced,
+				long invalidations, long evictions, long remoteQueries, long remoteNanos, long remoteMaxNanos) {
+			this.endpoint = endpoint;
+			this.hits = hits;
+			this.misses = misses;
+			this.puts = puts;
+			this.coalesced = coalesced;
+			this.invalidations = invalidations;
+			this.evictions = evictions;
+			this.remoteQueries = remoteQueries;
+			this.remoteNanos = remoteNanos;
+			this.remoteMaxNanos = remoteMaxNanos;
+		}
+
+		public String getEndpoint() {
+			return endpoint;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public double getHitRatio() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0 : hits / (double) lookups;
+		}
+
+		public long getPuts() {
+			return puts;
+		}
+
+		/**
+		 * @return the misses that waited for the remote query of another
+		 */
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		public long getInvalidations() {
+			return invalidations;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public long getRemoteQueries() {
+			return remoteQueries;
+		}
+
+		public double getRemoteQueryMeanMillis() {
+			return remoteQueries == 0 ? 0 : millis(remoteNanos) / remoteQueries;
+		}
+
+		public double getRemoteQueryMaxMillis() {
+			return millis(remoteMaxNanos);
+		}
+
+		public String toString() {
+			return endpoint + ": " + hits + " hits, " + misses + " misses, " + puts + " puts, "
+					+ coalesced + " coalesced, " + invalidations + " invalidations, " + evictions + " evictions, " + remoteQueries
+					+ " remote queries (mean " + String.format("%.1f", getRemoteQueryMeanMillis())
+					+ "ms, max " + String.format("%.1f", getRemoteQueryMaxMillis()) + "ms)";
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.aksw.sparqlcache4j;
+
+/**
+ * The statistics of the cache of one endpoint, as published over JMX.
+ */
+public interface SparqlCacheStatisticsMBean {
+
+	String getEndpoint();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	long getPuts();
+
+	long getCoalesced();
+
+	long getInvalidations();
+
+	long getEvictions();
+
+	long getRemoteQueries();
+
+	double getRemoteQueryMeanMillis();
+
+	double getRemoteQueryMaxMillis();
+
+	void reset();
+}
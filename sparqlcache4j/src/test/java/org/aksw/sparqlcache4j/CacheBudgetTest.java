@@ -0,0 +1,79 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+
+public class CacheBudgetTest {
+
+	private static final Query LARGE = QueryFactory
+			.create("SELECT * WHERE { <http://example.org/large> ?p ?o }");
+
+	private static final Query SMALL = QueryFactory
+			.create("SELECT * WHERE { <http://example.org/small> ?p ?o }");
+
+	/**
+	 * @return text which does not compress much
+	 */
+	private static String incompressible(int length) {
+		Random random = new Random(42);
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			text.append(Character.forDigit(random.nextInt(36), 36));
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void testMaxEntryBytes() {
+		assertEquals(128, new CacheBudget(1024, 0, 0).getMaxEntryBytes());
+		assertEquals(CacheBudget.DEFAULT.getHeapBytes() / 8, CacheBudget.DEFAULT.getMaxEntryBytes());
+	}
+
+	@Test
+	public void testInvalidBudgets() {
+		try {
+			new CacheBudget(0, 0, 0);
+			fail("a cache without heap");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			new CacheBudget(1024, -1, 0);
+			fail("a negative off heap budget");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			new CacheBudget(1024, 0, -1);
+			fail("a negative disk budget");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testEntryOverTheMaximumIsPassedOnButNotCached() throws Exception {
+		final String large = incompressible(4096);
+		try (TestStore store = new TestStore(query -> query.contains("large") ? large : "small")) {
+			SparqlCache.setBudget(store.getEndpoint(), new CacheBudget(8 * 1024, 0, 0));
+			SparqlCache cache = store.cache();
+
+			assertEquals(large, cache.query(store.getEndpoint(), LARGE));
+			assertEquals(large, cache.query(store.getEndpoint(), LARGE));
+			assertEquals(large, cache.queryAsync(store.getEndpoint(), LARGE).get(5, TimeUnit.SECONDS));
+			assertFalse(cache.isCached(store.getEndpoint(), LARGE));
+			assertEquals(3, store.getRequests());
+
+			assertEquals("small", cache.query(store.getEndpoint(), SMALL));
+			assertEquals("small", cache.query(store.getEndpoint(), SMALL));
+			assertTrue(cache.isCached(store.getEndpoint(), SMALL));
+			assertEquals(4, store.getRequests());
+			assertEquals(1, cache.getStatistics(store.getEndpoint()).getPuts());
+			assertNull(cache.getCached(store.getEndpoint(), LARGE));
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void assertEntry(String key, String query, long creationTime, byte[] value,
+			CacheSnapshot.Entry entry) {
+		assertEquals(key, entry.getKey());
+		assertEquals(query, entry.getQuery());
+		assertEquals(creationTime, entry.getCreationTime());
+		assertArrayEquals(value, entry.getValue());
+	}
+
+	private static void write(Path file) throws IOException {
+		try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(file)) {
+			writer.entry("a", "SELECT * WHERE { ?s ?p ?o }", 1000, bytes("result a"));
+			writer.entry("b\u00e4", "SELECT * WHERE { <b> ?p ?o }", 2000, new byte[0]);
+			writer.entry("c", "SELECT * WHERE { <c> ?p ?o }", 3000, bytes("result c"));
+			// replaced or removed while the entries were written
+			writer.invalidated(Arrays.asList("a", "unknown"));
+			writer.commit();
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+		write(file);
+
+		List<CacheSnapshot.Entry> entries = CacheSnapshot.read(file);
+		assertEquals(2, entries.size());
+		assertEntry("b\u00e4", "SELECT * WHERE { <b> ?p ?o }", 2000, new byte[0], entries.get(0));
+		assertEntry("c", "SELECT * WHERE { <c> ?p ?o }", 3000, bytes("result c"), entries.get(1));
+		assertFalse(Files.exists(file.resolveSibling("cache.snapshot.tmp")));
+	}
+
+	@Test
+	public void testTruncatedSnapshot() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+		write(file);
+		byte[] complete = Files.readAllBytes(file);
+
+		Path truncated = folder.getRoot().toPath().resolve("truncated.snapshot");
+		for (int length = 0; length < complete.length; length++) {
+			Files.write(truncated, Arrays.copyOf(complete, length));
+			try {
+				CacheSnapshot.read(truncated);
+				fail("read a snapshot truncated to " + length + " bytes");
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testAbandonedSnapshotKeepsThePrevious() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("cache.snapshot");
+		write(file);
+
+		try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(file)) {
+			writer.entry("d", "SELECT * WHERE { <d> ?p ?o }", 4000, bytes("result d"));
+		}
+		assertFalse(Files.exists(file.resolveSibling("cache.snapshot.tmp")));
+		assertEquals(2, CacheSnapshot.read(file).size());
+	}
+}
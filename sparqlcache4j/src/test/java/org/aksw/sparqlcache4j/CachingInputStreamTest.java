@@ -0,0 +1,141 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class CachingInputStreamTest {
+
+	/**
+	 * Records what the stream notified.
+	 */
+	private static class Recorder implements CachingInputStream.Listener {
+
+		private int notifications;
+
+		private byte[] completed;
+
+		private IOException failed;
+
+		@Override
+		public void completed(byte[] compressed) {
+			notifications++;
+			completed = compressed;
+		}
+
+		@Override
+		public void failed(IOException e) {
+			notifications++;
+			failed = e;
+		}
+	}
+
+	private static byte[] response(int length) {
+		byte[] response = new byte[length];
+		new Random(42).nextBytes(response);
+		return response;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate(byte[] compressed) throws IOException {
+		return readAll(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test
+	public void testReadToTheEndIsCached() throws IOException {
+		byte[] response = response(20000);
+		Recorder recorder = new Recorder();
+		try (CachingInputStream in = new CachingInputStream(new ByteArrayInputStream(response),
+				Long.MAX_VALUE, recorder)) {
+			// single bytes as well as blocks
+			assertEquals(response[0] & 0xff, in.read());
+			assertEquals(response[1] & 0xff, in.read());
+			assertEquals(100, in.skip(100));
+			byte[] rest = readAll(in);
+			assertEquals(response.length - 102, rest.length);
+			assertEquals(-1, in.read());
+		}
+		assertEquals(1, recorder.notifications);
+		assertArrayEquals(response, inflate(recorder.completed));
+	}
+
+	@Test
+	public void testClosedEarlyIsNotCached() throws IOException {
+		Recorder recorder = new Recorder();
+		CachingInputStream in = new CachingInputStream(new ByteArrayInputStream(response(20000)),
+				Long.MAX_VALUE, recorder);
+		assertEquals(1000, in.read(new byte[1000]));
+		in.close();
+		in.close();
+		assertEquals(1, recorder.notifications);
+		assertNull(recorder.completed);
+		assertNull(recorder.failed);
+	}
+
+	@Test
+	public void testLargeResponseIsPassedOnButNotCached() throws IOException {
+		byte[] response = response(20000);
+		Recorder recorder = new Recorder();
+		try (CachingInputStream in = new CachingInputStream(new ByteArrayInputStream(response), 1024,
+				recorder)) {
+			assertArrayEquals(response, readAll(in));
+		}
+		assertEquals(1, recorder.notifications);
+		assertNull(recorder.completed);
+		assertNull(recorder.failed);
+	}
+
+	@Test
+	public void testReadFailureIsPassedOn() throws IOException {
+		final IOException failure = new IOException("connection reset");
+		InputStream broken = new InputStream() {
+			private int left = 5000;
+
+			@Override
+			public int read() throws IOException {
+				if (left-- == 0)
+					throw failure;
+				return 'x';
+			}
+		};
+		Recorder recorder = new Recorder();
+		try (CachingInputStream in = new CachingInputStream(broken, Long.MAX_VALUE, recorder)) {
+			readAll(in);
+			fail("the failure of the response was not passed on");
+		} catch (IOException e) {
+			assertSame(failure, e);
+		}
+		assertEquals(1, recorder.notifications);
+		assertSame(failure, recorder.failed);
+		assertNull(recorder.completed);
+	}
+
+	@Test
+	public void testSkipNothing() throws IOException {
+		byte[] response = response(100);
+		Recorder recorder = new Recorder();
+		try (CachingInputStream in = new CachingInputStream(new ByteArrayInputStream(response),
+				Long.MAX_VALUE, recorder)) {
+			assertEquals(0, in.skip(-1));
+			assertEquals(0, in.skip(0));
+			assertArrayEquals(response, readAll(in));
+		}
+		assertArrayEquals(response, inflate(recorder.completed));
+	}
+}
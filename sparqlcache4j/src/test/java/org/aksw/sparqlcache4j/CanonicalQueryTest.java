@@ -0,0 +1,120 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.QueryFactory;
+
+public class CanonicalQueryTest {
+
+	private static String key(String query) {
+		return CanonicalQuery.key(QueryFactory.create(query));
+	}
+
+	private static void assertSameKey(String expected, String actual) {
+		assertEquals(actual, key(expected), key(actual));
+	}
+
+	private static void assertDifferentKey(String unexpected, String actual) {
+		assertFalse(actual, key(unexpected).equals(key(actual)));
+	}
+
+	@Test
+	public void testRenamedVariables() {
+		assertSameKey("SELECT ?s WHERE { ?s <http://example.org/p> ?o . ?o <http://example.org/q> ?t }",
+				"SELECT ?s WHERE { ?s <http://example.org/p> ?x . ?x <http://example.org/q> ?y }");
+	}
+
+	@Test
+	public void testReorderedPatterns() {
+		assertSameKey("SELECT ?s WHERE { ?s <http://example.org/p> ?o . ?s <http://example.org/q> \"x\" }",
+				"SELECT ?s WHERE { ?s <http://example.org/q> \"x\" . ?s <http://example.org/p> ?o }");
+		// the order of the patterns does not depend on the names of the variables
+		assertSameKey("SELECT ?s WHERE { ?o <http://example.org/q> ?t . ?s <http://example.org/p> ?o }",
+				"SELECT ?s WHERE { ?s <http://example.org/p> ?x . ?x <http://example.org/q> ?y }");
+	}
+
+	@Test
+	public void testPrefixes() {
+		assertSameKey("SELECT ?s WHERE { ?s <http://example.org/p> ?o }",
+				"PREFIX ex: <http://example.org/> SELECT ?s WHERE { ?s ex:p ?o }");
+		assertSameKey("PREFIX ex: <http://example.org/> SELECT ?s WHERE { ?s ex:p ?o }",
+				"PREFIX e: <http://example.org/> PREFIX unused: <http://example.com/> SELECT ?s WHERE { ?s e:p ?o }");
+	}
+
+	@Test
+	public void testWhitespace() {
+		assertSameKey("SELECT ?s WHERE { ?s <http://example.org/p> ?o }",
+				"SELECT ?s\nWHERE\n{\n\t?s  <http://example.org/p>\t?o\n}\n");
+	}
+
+	@Test
+	public void testProjectedVariables() {
+		String pattern = " WHERE { ?s <http://example.org/p> ?o }";
+		assertDifferentKey("SELECT ?s" + pattern, "SELECT ?o" + pattern);
+		assertDifferentKey("SELECT ?s" + pattern, "SELECT ?s ?o" + pattern);
+		assertDifferentKey("SELECT ?s ?o" + pattern, "SELECT ?o ?s" + pattern);
+		// the projected variables name the columns of the results
+		assertDifferentKey("SELECT ?s" + pattern, "SELECT ?x WHERE { ?x <http://example.org/p> ?o }");
+		assertDifferentKey("SELECT * WHERE { ?s <http://example.org/p> ?o }",
+				"SELECT * WHERE { ?x <http://example.org/p> ?y }");
+	}
+
+	@Test
+	public void testConstants() {
+		assertDifferentKey("SELECT ?s WHERE { ?s <http://example.org/p> ?o }",
+				"SELECT ?s WHERE { ?s <http://example.org/q> ?o }");
+		assertDifferentKey("SELECT ?s WHERE { ?s <http://example.org/p> \"a\" }",
+				"SELECT ?s WHERE { ?s <http://example.org/p> \"b\" }");
+		assertDifferentKey("PREFIX ex: <http://example.org/> SELECT ?s WHERE { ?s ex:p ?o }",
+				"PREFIX ex: <http://example.com/> SELECT ?s WHERE { ?s ex:p ?o }");
+	}
+
+	@Test
+	public void testSolutionModifiers() {
+		String query = "SELECT ?s WHERE { ?s <http://example.org/p> ?o }";
+		assertDifferentKey(query, query + " LIMIT 10");
+		assertDifferentKey(query + " LIMIT 10", query + " LIMIT 20");
+		assertDifferentKey(query + " LIMIT 10", query + " LIMIT 10 OFFSET 10");
+		assertDifferentKey(query + " LIMIT 10 OFFSET 10", query + " LIMIT 10 OFFSET 20");
+		assertDifferentKey(query, query + " ORDER BY ?s");
+		assertDifferentKey(query + " ORDER BY ?s", query + " ORDER BY DESC(?s)");
+		assertDifferentKey(query + " ORDER BY ?s ?o", query + " ORDER BY ?o ?s");
+		assertSameKey(query + " ORDER BY ?o LIMIT 10",
+				"SELECT ?s WHERE { ?s <http://example.org/p> ?x } ORDER BY ?x LIMIT 10");
+	}
+
+	@Test
+	public void testJoins() {
+		assertDifferentKey("SELECT ?a WHERE { ?a <http://example.org/p> ?b . ?b <http://example.org/q> ?c }",
+				"SELECT ?a WHERE { ?a <http://example.org/p> ?b . ?a <http://example.org/q> ?c }");
+		assertDifferentKey("SELECT * WHERE { ?a <http://example.org/p> ?b . ?b <http://example.org/q> ?c }",
+				"SELECT * WHERE { ?a <http://example.org/p> ?b . ?a <http://example.org/q> ?c }");
+		assertDifferentKey("SELECT ?a WHERE { ?a <http://example.org/p> ?b . ?b <http://example.org/p> ?c }",
+				"SELECT ?a WHERE { ?a <http://example.org/p> ?b . ?c <http://example.org/p> ?b }");
+	}
+
+	@Test
+	public void testRenameVariables() {
+		Set<String> kept = Collections.singleton("s");
+		assertEquals("SELECT ?s WHERE { ?s <http://example.org/?o> ?v0 . ?v0 ?v1 \"?o\" }",
+				CanonicalQuery.renameVariables(
+						"SELECT ?s  WHERE {\n ?s <http://example.org/?o> ?o .\n ?o ?p \"?o\" }", kept));
+		// a comparison is not an IRI
+		assertEquals("FILTER ( ?v0 < ?v1 && ?v1 > 2 )",
+				CanonicalQuery.renameVariables("FILTER ( ?x < ?y && ?y > 2 )", kept));
+	}
+
+	@Test
+	public void testKeptVariableNamedLikeARenamedOne() {
+		Set<String> kept = new HashSet<String>();
+		kept.add("v0");
+		assertEquals("SELECT ?v0 WHERE { ?v0 <http://example.org/p> ?vv0 }",
+				CanonicalQuery.renameVariables("SELECT ?v0 WHERE { ?v0 <http://example.org/p> ?v1 }", kept));
+	}
+}
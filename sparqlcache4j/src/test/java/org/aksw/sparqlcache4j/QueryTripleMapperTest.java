@@ -0,0 +1,171 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.QueryFactory;
+
+public class QueryTripleMapperTest {
+
+	private static final String NS = "http://example.org/";
+
+	private static Node uri(String name) {
+		return Node.createURI(NS + name);
+	}
+
+	private static Triple triple(Node subject, Node predicate, Node object) {
+		return new Triple(subject, predicate, object);
+	}
+
+	private static Set<String> keys(String... keys) {
+		return new HashSet<String>(Arrays.asList(keys));
+	}
+
+	private static Set<String> found(Collection<String> keys) {
+		Set<String> found = new HashSet<String>(keys);
+		assertEquals("each key once", keys.size(), found.size());
+		return found;
+	}
+
+	private static Set<String> invalid(QueryTripleMapper mapper, Triple triple, Node... graphs) {
+		return found(mapper.findInvalidKeys(Collections.singletonList(triple), Arrays.asList(graphs)));
+	}
+
+	/**
+	 * Registers a query per shape, the positions of the shape holding
+	 * <s> <p> <o> and the others a variable.
+	 */
+	private static QueryTripleMapper shapes() {
+		QueryTripleMapper mapper = new QueryTripleMapper();
+		for (int shape = 0; shape < 8; shape++) {
+			String subject = (shape & 1) != 0 ? "<" + NS + "s>" : "?s";
+			String predicate = (shape & 2) != 0 ? "<" + NS + "p>" : "?p";
+			String object = (shape & 4) != 0 ? "<" + NS + "o>" : "?o";
+			mapper.register("shape" + shape, QueryFactory.create("SELECT * WHERE { " + subject
+					+ " " + predicate + " " + object + " }"));
+		}
+		return mapper;
+	}
+
+	@Test
+	public void testShapes() {
+		QueryTripleMapper mapper = shapes();
+		assertEquals(8, mapper.size());
+
+		assertEquals(keys("shape0", "shape1", "shape2", "shape3", "shape4", "shape5", "shape6", "shape7"),
+				invalid(mapper, triple(uri("s"), uri("p"), uri("o"))));
+		// only the shapes with a variable where the triple differs
+		assertEquals(keys("shape0", "shape1", "shape2", "shape3"),
+				invalid(mapper, triple(uri("s"), uri("p"), uri("other"))));
+		assertEquals(keys("shape0", "shape2", "shape4", "shape6"),
+				invalid(mapper, triple(uri("other"), uri("p"), uri("o"))));
+		assertEquals(keys("shape0"), invalid(mapper, triple(uri("x"), uri("y"), uri("z"))));
+	}
+
+	@Test
+	public void testVariablesOfTheUpdate() {
+		QueryTripleMapper mapper = shapes();
+		// a variable of a template matches any term
+		assertEquals(keys("shape0", "shape1", "shape2", "shape3", "shape4", "shape5", "shape6", "shape7"),
+				invalid(mapper, triple(uri("s"), uri("p"), Node.createVariable("x"))));
+		assertEquals(keys("shape0", "shape1", "shape2", "shape3"),
+				invalid(mapper, triple(Node.createVariable("x"), uri("p"), uri("other"))));
+		assertEquals(8, invalid(mapper, triple(Node.createVariable("x"), Node.createVariable("y"),
+				Node.createVariable("z"))).size());
+		assertEquals(keys("shape0", "shape1", "shape4", "shape5"),
+				invalid(mapper, triple(Node.createVariable("x"), uri("other"), Node.ANY)));
+	}
+
+	@Test
+	public void testVariablesMatchWithinOnePattern() {
+		QueryTripleMapper mapper = new QueryTripleMapper();
+		// <s> and <p> are both terms of the query, but of different patterns
+		mapper.register("two", QueryFactory.create("SELECT * WHERE { <" + NS + "s> <" + NS + "q> <" + NS
+				+ "o> . <" + NS + "t> <" + NS + "p> <" + NS + "o> }"));
+		assertEquals(keys(), invalid(mapper, triple(uri("s"), uri("p"), Node.createVariable("x"))));
+		assertEquals(keys("two"), invalid(mapper, triple(uri("t"), uri("p"), Node.createVariable("x"))));
+		assertEquals(keys("two"), invalid(mapper, triple(Node.createVariable("x"), uri("q"), uri("o"))));
+	}
+
+	@Test
+	public void testInsertedBlankNode() {
+		QueryTripleMapper mapper = new QueryTripleMapper();
+		mapper.register("subject", QueryFactory.create("SELECT * WHERE { <" + NS + "s> <" + NS + "p> ?o }"));
+		mapper.register("wildcard", QueryFactory.create("SELECT * WHERE { ?s <" + NS + "p> ?o }"));
+		// a new node is equal to no term of a query
+		assertEquals(keys("wildcard"), invalid(mapper, triple(Node.createAnon(), uri("p"), uri("o"))));
+	}
+
+	@Test
+	public void testQueriesWithoutPatterns() {
+		QueryTripleMapper mapper = new QueryTripleMapper();
+		mapper.register("describe", QueryFactory.create("DESCRIBE <" + NS + "r>"));
+		mapper.register("empty", QueryFactory.create("SELECT * WHERE { }"));
+
+		assertEquals(keys("describe", "empty"), invalid(mapper, triple(uri("r"), uri("p"), uri("o"))));
+		assertEquals(keys("describe", "empty"), invalid(mapper, triple(uri("s"), uri("p"), uri("r"))));
+		assertEquals(keys("empty"), invalid(mapper, triple(uri("s"), uri("p"), uri("o"))));
+	}
+
+	@Test
+	public void testGraphs() {
+		QueryTripleMapper mapper = new QueryTripleMapper();
+		String pattern = "<" + NS + "s> <" + NS + "p> ?o";
+		mapper.register("default", QueryFactory.create("SELECT * WHERE { " + pattern + " }"));
+		mapper.register("from", QueryFactory.create("SELECT * FROM <" + NS + "g1> WHERE { " + pattern + " }"));
+		mapper.register("graph", QueryFactory.create("SELECT * WHERE { GRAPH <" + NS + "g2> { " + pattern + " } }"));
+		mapper.register("named", QueryFactory.create("SELECT * FROM NAMED <" + NS + "g3> WHERE { GRAPH ?g { "
+				+ pattern + " } }"));
+		mapper.register("anyNamed", QueryFactory.create("SELECT * WHERE { GRAPH ?g { " + pattern + " } }"));
+
+		// reading the default graph or a graph variable without a dataset, a
+		// query may read any graph
+		assertEquals(keys("default", "from", "anyNamed"), found(mapper.findKeysReading(Arrays.asList(uri("g1")))));
+		assertEquals(keys("default", "graph", "anyNamed"), found(mapper.findKeysReading(Arrays.asList(uri("g2")))));
+		assertEquals(keys("default", "named", "anyNamed"), found(mapper.findKeysReading(Arrays.asList(uri("g3")))));
+		assertEquals(keys("default", "from", "graph", "anyNamed"),
+				found(mapper.findKeysReading(Arrays.asList(uri("g1"), uri("g2")))));
+		// the default graph may be any graph
+		assertEquals(5, found(mapper.findKeysReading(Collections.<Node> emptyList())).size());
+
+		Triple triple = triple(uri("s"), uri("p"), uri("o"));
+		assertEquals(keys("default", "graph", "anyNamed"), invalid(mapper, triple, uri("g2")));
+		assertEquals(keys("default", "anyNamed"), invalid(mapper, triple, uri("g4")));
+		assertEquals(5, invalid(mapper, triple).size());
+		assertEquals(keys(), invalid(mapper, triple(uri("s"), uri("q"), uri("o")), uri("g1")));
+	}
+
+	@Test
+	public void testUnregister() {
+		QueryTripleMapper mapper = shapes();
+		mapper.unregister("shape0");
+		mapper.unregister("shape7");
+		mapper.unregister("unknown");
+		assertEquals(6, mapper.size());
+		assertNull(mapper.getQuery("shape7"));
+		assertEquals(keys("shape1", "shape2", "shape3", "shape4", "shape5", "shape6"),
+				invalid(mapper, triple(uri("s"), uri("p"), uri("o"))));
+		assertEquals(keys("shape1", "shape2", "shape3"),
+				invalid(mapper, triple(Node.createVariable("x"), uri("p"), uri("other"))));
+		assertEquals(keys(), invalid(mapper, triple(uri("x"), uri("y"), uri("z"))));
+
+		// registered again under its key, the query is found again; a second
+		// query under the same key is ignored
+		mapper.register("shape7", QueryFactory.create("SELECT * WHERE { <" + NS + "s> <" + NS + "p> <" + NS
+				+ "o> }"));
+		mapper.register("shape7", QueryFactory.create("SELECT * WHERE { ?s ?p ?o }"));
+		assertEquals(7, mapper.size());
+		assertEquals(keys("shape1", "shape4", "shape5"), invalid(mapper, triple(uri("s"), uri("q"), uri("o"))));
+		assertTrue(invalid(mapper, triple(uri("s"), uri("p"), uri("o"))).contains("shape7"));
+		assertEquals(keys(), invalid(mapper, triple(uri("x"), uri("y"), uri("z"))));
+	}
+}
@@ -0,0 +1,132 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.update.UpdateFactory;
+
+public class SparqlCacheStatisticsTest {
+
+	private static final Query QUERY = QueryFactory
+			.create("SELECT * WHERE { <http://example.org/s> ?p ?o }");
+
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	@After
+	public void stopCallers() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void testCounters() {
+		SparqlCacheStatistics statistics = new SparqlCacheStatistics("endpoint");
+		statistics.hit();
+		statistics.hit();
+		statistics.miss();
+		statistics.put();
+		statistics.coalesced();
+		statistics.invalidated(3);
+		statistics.evicted();
+		statistics.remoteQuery(TimeUnit.MILLISECONDS.toNanos(2));
+		statistics.remoteQuery(TimeUnit.MILLISECONDS.toNanos(4));
+
+		SparqlCacheStatistics.Snapshot snapshot = statistics.snapshot();
+		assertEquals("endpoint", snapshot.getEndpoint());
+		assertEquals(2, snapshot.getHits());
+		assertEquals(1, snapshot.getMisses());
+		assertEquals(2 / 3.0, snapshot.getHitRatio(), 1e-9);
+		assertEquals(1, snapshot.getPuts());
+		assertEquals(1, snapshot.getCoalesced());
+		assertEquals(3, snapshot.getInvalidations());
+		assertEquals(1, snapshot.getEvictions());
+		assertEquals(2, snapshot.getRemoteQueries());
+		assertEquals(3.0, snapshot.getRemoteQueryMeanMillis(), 1e-9);
+		assertEquals(4.0, snapshot.getRemoteQueryMaxMillis(), 1e-9);
+
+		statistics.reset();
+		snapshot = statistics.snapshot();
+		assertEquals(0, snapshot.getHits());
+		assertEquals(0, snapshot.getMisses());
+		assertEquals(0, snapshot.getHitRatio(), 0);
+		assertEquals(0, snapshot.getRemoteQueries());
+		assertEquals(0, snapshot.getRemoteQueryMeanMillis(), 0);
+		assertEquals(0, snapshot.getRemoteQueryMaxMillis(), 0);
+	}
+
+	@Test(timeout = 20000)
+	public void testCountsOfACache() throws Exception {
+		final CountDownLatch received = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			if (query.startsWith("INSERT"))
+				return "";
+			received.countDown();
+			release.await();
+			return "answer";
+		})) {
+			final SparqlCache cache = store.cache();
+			Future<String> first = callers.submit(() -> cache.query(store.getEndpoint(), QUERY));
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+			Future<String> second = callers.submit(() -> cache.query(store.getEndpoint(), QUERY));
+			while (cache.getStatistics(store.getEndpoint()).getCoalesced() < 1)
+				Thread.sleep(5);
+			release.countDown();
+			assertEquals("answer", first.get(5, TimeUnit.SECONDS));
+			assertEquals("answer", second.get(5, TimeUnit.SECONDS));
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+
+			SparqlCacheStatistics.Snapshot statistics = cache.getStatistics(store.getEndpoint());
+			assertEquals(1, statistics.getHits());
+			assertEquals(2, statistics.getMisses());
+			assertEquals(1, statistics.getCoalesced());
+			assertEquals(1, statistics.getPuts());
+			assertEquals(1, statistics.getRemoteQueries());
+			assertEquals(0, statistics.getInvalidations());
+
+			cache.modify(store.getEndpoint(), UpdateFactory.create(
+					"INSERT DATA { <http://example.org/s> <http://example.org/p> \"new\" }"),
+					new ArrayList<String>(), new ArrayList<String>(), null);
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+
+			statistics = cache.getStatistics(store.getEndpoint());
+			assertEquals(1, statistics.getInvalidations());
+			assertEquals(3, statistics.getMisses());
+			assertEquals(2, statistics.getPuts());
+			assertEquals(2, statistics.getRemoteQueries());
+			assertTrue(cache.getStatistics().size() >= 1);
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testPublishedOverJmx() throws Exception {
+		try (TestStore store = new TestStore(query -> "answer")) {
+			SparqlCache cache = store.cache();
+			cache.query(store.getEndpoint(), QUERY);
+			cache.query(store.getEndpoint(), QUERY);
+
+			ObjectName name = new ObjectName("org.aksw.sparqlcache4j:type=SparqlCacheStatistics,name="
+					+ ObjectName.quote(SparqlCache.cacheName(store.getEndpoint())));
+			assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Hits"));
+			assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Misses"));
+			assertEquals(SparqlCache.cacheName(store.getEndpoint()),
+					ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Endpoint"));
+
+			ManagementFactory.getPlatformMBeanServer().invoke(name, "reset", null, null);
+			assertEquals(0, cache.getStatistics(store.getEndpoint()).getHits());
+		}
+	}
+}
@@ -0,0 +1,475 @@
+package org.aksw.sparqlcache4j;
+
+import static org.junit.Assert.*;
+
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import com.hp.hpl.jena.update.UpdateFactory;
+import com.hp.hpl.jena.update.UpdateRequest;
+
+public class SparqlCacheTest {
+
+	private static final Query QUERY = QueryFactory
+			.create("SELECT * WHERE { <http://example.org/s> ?p ?o }");
+
+	// affects QUERY
+	private static final UpdateRequest UPDATE = UpdateFactory
+			.create("INSERT DATA { <http://example.org/s> <http://example.org/p> \"new\" }");
+
+	private static final int WAITERS = 4;
+
+	@ClassRule
+	public static TemporaryFolder snapshots = new TemporaryFolder();
+
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	@BeforeClass
+	public static void enableSnapshots() throws Exception {
+		// taken by the tests only
+		new SparqlCache().enableSnapshots(snapshots.getRoot().toPath(), TimeUnit.HOURS.toMillis(1));
+	}
+
+	@AfterClass
+	public static void disableSnapshots() {
+		// not taken on shutdown, after the folder is deleted
+		new SparqlCache().disableSnapshots();
+	}
+
+	private static Path snapshotOf(TestStore store) {
+		return SparqlCache.snapshotFile(snapshots.getRoot().toPath(),
+				SparqlCache.cacheName(store.getEndpoint()));
+	}
+
+	@After
+	public void stopCallers() {
+		callers.shutdownNow();
+	}
+
+	private Future<String> query(final SparqlCache cache, final TestStore store) {
+		return callers.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return cache.query(store.getEndpoint(), QUERY);
+			}
+		});
+	}
+
+	private Future<String> modify(final SparqlCache cache, final TestStore store) {
+		return callers.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return cache.modify(store.getEndpoint(), UPDATE, new ArrayList<String>(),
+						new ArrayList<String>(), null);
+			}
+		});
+	}
+
+	private static CompletableFuture<String> queryAsync(SparqlCache cache, TestStore store, Query query,
+			long timeoutMillis) {
+		return cache.queryAsync(store.getEndpoint(), query, new ArrayList<String>(), new ArrayList<String>(),
+				null, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static Throwable failure(Future<String> answer) throws Exception {
+		try {
+			answer.get(5, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+		fail("the query did not fail");
+		return null;
+	}
+
+	/**
+	 * Lets the store take one connection at a time and takes it with another
+	 * query, so the next query waits for the connection.
+	 */
+	private static CompletableFuture<String> holdTheConnection(SparqlCache cache, TestStore store)
+			throws InterruptedException {
+		SparqlCache.setMaxConnections(store.getUrl(), 1);
+		CompletableFuture<String> blocking = queryAsync(cache, store,
+				QueryFactory.create("SELECT * WHERE { ?s ?p ?o }"), 10000);
+		awaitRequests(store, 1);
+		return blocking;
+	}
+
+	private static void awaitRequests(TestStore store, int requests) throws InterruptedException {
+		while (store.getRequests() < requests)
+			Thread.sleep(5);
+	}
+
+	private static void awaitCoalesced(SparqlCache cache, TestStore store, int coalesced)
+			throws InterruptedException {
+		while (cache.getStatistics(store.getEndpoint()).getCoalesced() < coalesced)
+			Thread.sleep(5);
+	}
+
+	@Test(timeout = 20000)
+	public void testLeaderFailureReachesEveryWaiter() throws Exception {
+		final AtomicBoolean down = new AtomicBoolean(true);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			if (down.get()) {
+				release.await();
+				throw new IllegalStateException("store down");
+			}
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			List<Future<String>> answers = new ArrayList<Future<String>>();
+			answers.add(query(cache, store));
+			awaitRequests(store, 1);
+			for (int i = 0; i < WAITERS; i++) {
+				answers.add(query(cache, store));
+			}
+			awaitCoalesced(cache, store, WAITERS);
+
+			release.countDown();
+			for (Future<String> answer : answers) {
+				try {
+					answer.get(5, TimeUnit.SECONDS);
+					fail("the failure of the store was not passed on");
+				} catch (ExecutionException e) {
+					assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof QueryExceptionHTTP);
+				}
+			}
+			assertEquals(1, store.getRequests());
+
+			// the failure is not cached, the next miss queries the store
+			down.set(false);
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(2, store.getRequests());
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(2, store.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testWaitForTheLeaderIsBounded() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean first = new AtomicBoolean(true);
+		try (TestStore store = new TestStore(query -> {
+			// the first query hangs
+			if (first.getAndSet(false))
+				release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			cache.setCoalescedWait(200, TimeUnit.MILLISECONDS);
+			Future<String> leader = query(cache, store);
+			awaitRequests(store, 1);
+
+			long start = System.nanoTime();
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+			assertEquals(1, cache.getStatistics(store.getEndpoint()).getCoalesced());
+			assertEquals(2, store.getRequests());
+
+			release.countDown();
+			assertEquals("answer", leader.get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testTimeoutOfACallerLeavesTheQueryRunning() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			CompletableFuture<String> blocking = holdTheConnection(cache, store);
+			CompletableFuture<String> impatient = queryAsync(cache, store, QUERY, 200);
+			CompletableFuture<String> patient = queryAsync(cache, store, QUERY, 10000);
+			awaitCoalesced(cache, store, 1);
+
+			assertTrue(failure(impatient) instanceof TimeoutException);
+			release.countDown();
+			assertEquals("answer", blocking.get(5, TimeUnit.SECONDS));
+			assertEquals("answer", patient.get(5, TimeUnit.SECONDS));
+			// the result of the query is cached although its caller gave up
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(2, store.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testCancelOfACallerLeavesTheQueryRunning() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			CompletableFuture<String> blocking = holdTheConnection(cache, store);
+			CompletableFuture<String> cancelled = queryAsync(cache, store, QUERY, 10000);
+			Future<String> waiting = query(cache, store);
+			awaitCoalesced(cache, store, 1);
+
+			assertTrue(cancelled.cancel(true));
+			release.countDown();
+			assertEquals("answer", blocking.get(5, TimeUnit.SECONDS));
+			assertEquals("answer", waiting.get(5, TimeUnit.SECONDS));
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(2, store.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryLeftByEveryCallerIsAborted() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			if (query.contains("hangs"))
+				release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			SparqlCache.setMaxConnections(store.getUrl(), 1);
+			CompletableFuture<String> timedOut = queryAsync(cache, store,
+					QueryFactory.create("SELECT * WHERE { <http://example.org/hangs> ?p ?o }"), 200);
+			assertTrue(failure(timedOut) instanceof TimeoutException);
+			// the connection is closed, not held until the store answers
+			assertEquals("answer", queryAsync(cache, store, QUERY, 5000).get(5, TimeUnit.SECONDS));
+
+			CompletableFuture<String> cancelled = queryAsync(cache, store,
+					QueryFactory.create("SELECT * WHERE { <http://example.org/hangs/too> ?p ?o }"), 10000);
+			awaitRequests(store, 3);
+			assertTrue(cancelled.cancel(true));
+			Query other = QueryFactory.create("SELECT * WHERE { <http://example.org/t> ?p ?o }");
+			assertEquals("answer", queryAsync(cache, store, other, 5000).get(5, TimeUnit.SECONDS));
+			assertEquals(4, store.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testQueuedQueryLeftByEveryCallerIsSkipped() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			// one after the other, so a query not skipped is sent before the next
+			SparqlCache.setMaxConnections(store.getUrl(), 1);
+			List<CompletableFuture<String>> running = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i < SparqlCache.ASYNC_THREADS; i++) {
+				Query query = QueryFactory.create("SELECT * WHERE { <http://example.org/s" + i + "> ?p ?o }");
+				running.add(queryAsync(cache, store, query, 10000));
+			}
+			CompletableFuture<String> queued = queryAsync(cache, store, QUERY, 200);
+			assertTrue(failure(queued) instanceof TimeoutException);
+
+			release.countDown();
+			for (CompletableFuture<String> answer : running) {
+				assertEquals("answer", answer.get(5, TimeUnit.SECONDS));
+			}
+			Query other = QueryFactory.create("SELECT * WHERE { <http://example.org/t> ?p ?o }");
+			assertEquals("answer", queryAsync(cache, store, other, 5000).get(5, TimeUnit.SECONDS));
+			assertEquals(SparqlCache.ASYNC_THREADS + 1, store.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testStoreTimeout() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			cache.setStoreTimeout(200, TimeUnit.MILLISECONDS);
+			long start = System.nanoTime();
+			try {
+				cache.query(store.getEndpoint(), QUERY);
+				fail("the store answered in time");
+			} catch (QueryExceptionHTTP e) {
+				assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SocketTimeoutException);
+			}
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertFalse(cache.isCached(store.getEndpoint(), QUERY));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testFullQueueRejectsAtOnce() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			release.await();
+			return "answer";
+		})) {
+			SparqlCache cache = store.cache();
+			// distinct queries, so none is coalesced with another
+			List<CompletableFuture<String>> answers = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i <= SparqlCache.ASYNC_THREADS + SparqlCache.ASYNC_QUEUE; i++) {
+				Query query = QueryFactory.create("SELECT * WHERE { <http://example.org/s" + i + "> ?p ?o }");
+				answers.add(queryAsync(cache, store, query, 30000));
+			}
+
+			CompletableFuture<String> rejected = answers.remove(answers.size() - 1);
+			assertTrue(rejected.isCompletedExceptionally());
+			assertTrue(failure(rejected) instanceof RejectedExecutionException);
+
+			release.countDown();
+			for (CompletableFuture<String> answer : answers) {
+				assertEquals("answer", answer.get(30, TimeUnit.SECONDS));
+			}
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testResultReadBeforeAnUpdateIsNotCached() throws Exception {
+		final AtomicReference<String> value = new AtomicReference<String>("old");
+		final AtomicBoolean first = new AtomicBoolean(true);
+		final CountDownLatch read = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			if (query.startsWith("INSERT")) {
+				value.set("new");
+				return "";
+			}
+			String answer = value.get();
+			// the answer read before the update arrives after it
+			if (first.getAndSet(false)) {
+				read.countDown();
+				release.await();
+			}
+			return answer;
+		})) {
+			SparqlCache cache = store.cache();
+			Future<String> before = query(cache, store);
+			assertTrue(read.await(5, TimeUnit.SECONDS));
+			modify(cache, store).get(5, TimeUnit.SECONDS);
+			release.countDown();
+			assertEquals("old", before.get(5, TimeUnit.SECONDS));
+
+			assertEquals("new", cache.query(store.getEndpoint(), QUERY));
+			assertEquals("new", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(3, store.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryCachedWhileAnUpdateIsSentIsInvalidated() throws Exception {
+		final AtomicReference<String> value = new AtomicReference<String>("old");
+		final CountDownLatch received = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (TestStore store = new TestStore(query -> {
+			if (query.startsWith("INSERT")) {
+				received.countDown();
+				release.await();
+				value.set("new");
+				return "";
+			}
+			return value.get();
+		})) {
+			SparqlCache cache = store.cache();
+			Future<String> update = modify(cache, store);
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+			// not yet applied, and cached
+			assertEquals("old", cache.query(store.getEndpoint(), QUERY));
+			assertEquals("old", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(2, store.getRequests());
+
+			release.countDown();
+			update.get(5, TimeUnit.SECONDS);
+			assertEquals("new", cache.query(store.getEndpoint(), QUERY));
+			assertEquals(1, cache.getStatistics(store.getEndpoint()).getInvalidations());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testSnapshotRoundTrip() throws Exception {
+		Query other = QueryFactory.create("SELECT * WHERE { <http://example.org/t> ?p ?o }");
+		try (TestStore store = new TestStore(query -> "answer");
+				TestStore restarted = new TestStore(query -> query.startsWith("INSERT") ? "" : "fresh")) {
+			SparqlCache cache = store.cache();
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			assertEquals("answer", cache.query(store.getEndpoint(), other));
+			cache.snapshot();
+
+			// as if the cache of the other store was snapshotted before a restart
+			Files.copy(snapshotOf(store), snapshotOf(restarted));
+			SparqlCache warm = restarted.cache();
+			assertEquals("answer", warm.query(restarted.getEndpoint(), QUERY));
+			assertEquals("answer", warm.query(restarted.getEndpoint(), other));
+			assertEquals(0, restarted.getRequests());
+
+			// the restored queries are invalidated by updates
+			warm.modify(restarted.getEndpoint(), UPDATE, new ArrayList<String>(), new ArrayList<String>(), null);
+			assertEquals("fresh", warm.query(restarted.getEndpoint(), QUERY));
+			assertEquals("answer", warm.query(restarted.getEndpoint(), other));
+			assertEquals(2, restarted.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testTruncatedSnapshotIsIgnored() throws Exception {
+		try (TestStore store = new TestStore(query -> "answer");
+				TestStore restarted = new TestStore(query -> "fresh")) {
+			SparqlCache cache = store.cache();
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			cache.snapshot();
+
+			byte[] complete = Files.readAllBytes(snapshotOf(store));
+			Files.write(snapshotOf(restarted), Arrays.copyOf(complete, complete.length - 3));
+			SparqlCache cold = restarted.cache();
+			assertEquals("fresh", cold.query(restarted.getEndpoint(), QUERY));
+			assertEquals(1, restarted.getRequests());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testDisabledSnapshotsAreNotTaken() throws Exception {
+		try (TestStore store = new TestStore(query -> "answer")) {
+			SparqlCache cache = store.cache();
+			assertEquals("answer", cache.query(store.getEndpoint(), QUERY));
+			cache.disableSnapshots();
+			try {
+				try {
+					cache.snapshot();
+					fail("snapshots are disabled");
+				} catch (IllegalStateException expected) {
+				}
+
+				cache.enableSnapshots(snapshots.getRoot().toPath(), 50);
+				while (!Files.exists(snapshotOf(store))) {
+					Thread.sleep(10);
+				}
+				cache.disableSnapshots();
+				Files.delete(snapshotOf(store));
+				Thread.sleep(200);
+				assertFalse(Files.exists(snapshotOf(store)));
+			} finally {
+				cache.disableSnapshots();
+				cache.enableSnapshots(snapshots.getRoot().toPath(), TimeUnit.HOURS.toMillis(1));
+			}
+		}
+	}
+}
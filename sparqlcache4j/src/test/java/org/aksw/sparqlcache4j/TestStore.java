@@ -0,0 +1,117 @@
+package org.aksw.sparqlcache4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A SPARQL endpoint on a local port, answering each request with what the
+ * handler returns for its query or update. A handler failing answers with
+ * status 500.
+ */
+class TestStore implements AutoCloseable {
+
+	interface Handler {
+		String answer(String query) throws Exception;
+	}
+
+	private final HttpServer server;
+
+	private final ExecutorService threads = Executors.newCachedThreadPool();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final Handler handler;
+
+	TestStore(Handler handler) throws IOException {
+		this.handler = handler;
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/sparql", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				answer(exchange);
+			}
+		});
+		server.setExecutor(threads);
+		server.start();
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		byte[] body;
+		int status = 200;
+		try {
+			body = handler.answer(query(exchange)).getBytes(StandardCharsets.UTF_8);
+		} catch (Exception e) {
+			status = 500;
+			body = String.valueOf(e).getBytes(StandardCharsets.UTF_8);
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String query(HttpExchange exchange) throws IOException {
+		String parameters = exchange.getRequestURI().getRawQuery();
+		if (parameters != null) {
+			for (String parameter : parameters.split("&")) {
+				if (parameter.startsWith("query="))
+					return URLDecoder.decode(parameter.substring(6), "UTF-8");
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * @return the url queries are sent to
+	 */
+	String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/sparql";
+	}
+
+	/**
+	 * @return the url as endpoint, whose cache is used by no other store
+	 */
+	URL getEndpoint() {
+		try {
+			return new URL(getUrl());
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return a cache of the endpoint sending its queries here
+	 */
+	SparqlCache cache() {
+		SparqlCache cache = new SparqlCache();
+		cache.setRemoteEndpoint(getUrl());
+		return cache;
+	}
+
+	/**
+	 * @return the requests received so far, answered or not
+	 */
+	int getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		// ends the handlers still waiting
+		threads.shutdownNow();
+	}
+}